@@ -0,0 +1,85 @@
+package edu.cuc.stephen.imageloader;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import edu.cuc.stephen.imageloader.util.CacheKeys;
+import edu.cuc.stephen.imageloader.util.WindowedPaths;
+
+/**
+ * 一个文件夹中的图片，直接从MediaStore的游标按段读取，不列举文件系统
+ * 游标在后台线程中打开并一直保留，WindowedPaths需要哪一段就移动到哪里读取；
+ * 同时把每张图片的长度和修改时间登记到CacheKeys，UI线程生成缓存key时不用再读取文件属性
+ */
+public class FolderImages implements WindowedPaths.Source {
+
+    /**
+     * 排列顺序
+     */
+    public enum Order {
+        NEWEST_FIRST, NAME
+    }
+
+    private static final Uri IMAGES_URI = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+    //只要这个文件夹中的图片，不包括子文件夹
+    private static final String SELECTION = MediaStore.Images.Media.DATA + " like ? escape '\\' and "
+            + MediaStore.Images.Media.DATA + " not like ? escape '\\' and ("
+            + MediaStore.Images.Media.MIME_TYPE + " = ? or " + MediaStore.Images.Media.MIME_TYPE + " = ?)";
+
+    private final ContentResolver contentResolver;
+    private final String dir;
+    private final Order order;
+    private final CacheKeys cacheKeys;
+    private Cursor cursor;      //只在后台线程中访问
+
+    public FolderImages(ContentResolver contentResolver, String dir, Order order, CacheKeys cacheKeys) {
+        this.contentResolver = contentResolver;
+        this.dir = dir;
+        this.order = order;
+        this.cacheKeys = cacheKeys;
+    }
+
+    @Override
+    public int open() {
+        String prefix = escapeLike(dir) + "/";
+        String sortOrder = order == Order.NEWEST_FIRST
+                ? MediaStore.Images.Media.DATE_MODIFIED + " desc" : MediaStore.Images.Media.DATA;
+        cursor = contentResolver.query(IMAGES_URI, new String[]{MediaStore.Images.Media.DATA,
+                        MediaStore.Images.Media.SIZE, MediaStore.Images.Media.DATE_MODIFIED}, SELECTION,
+                new String[]{prefix + "%", prefix + "%/%", "image/jpeg", "image/png"}, sortOrder);
+        return cursor == null ? -1 : cursor.getCount();
+    }
+
+    @Override
+    public String[] read(int offset, int count) {
+        if(cursor == null || !cursor.moveToPosition(offset)){
+            return null;
+        }
+        String[] rows = new String[Math.min(count, cursor.getCount() - offset)];
+        for(int i = 0; i < rows.length; i++){
+            rows[i] = cursor.getString(0);
+            if(rows[i] != null){
+                cacheKeys.setVersionHint(rows[i], cursor.getLong(1), cursor.getLong(2));
+            }
+            if(!cursor.moveToNext()){
+                break;
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() {
+        if(cursor != null){
+            cursor.close();
+            cursor = null;
+        }
+    }
+
+    //文件夹名中的%和_按字面匹配
+    private static String escapeLike(String s) {
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,319 @@
+package edu.cuc.stephen.imageloader;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 图片文件夹索引
+ * 只遍历一次MediaStore的游标统计每个文件夹的图片数，不再列举文件系统；
+ * 索引保存在应用私有目录中，下次启动先显示保存的结果，再按DATE_MODIFIED增量更新；
+ * 全量扫描时边扫描边把部分结果交给UI。
+ */
+public class FolderIndex {
+
+    public interface Listener {
+        /**
+         * 文件夹列表有更新，在UI线程中回调
+         * @param folders 当前所有文件夹，调用者可以保留
+         * @param finished 为false表示扫描还没结束，后面还会有更新
+         */
+        void onFoldersChanged(List<FolderBean> folders, boolean finished);
+    }
+
+    private static final String INDEX_FILE = "folder_index";
+    private static final int INDEX_VERSION = 1;
+    //全量扫描时最多每隔这么久把部分结果交给UI
+    private static final long PARTIAL_INTERVAL_MS = 100;
+    //媒体库变化时等一会儿再更新，合并连续的变化
+    private static final long OBSERVER_DELAY_MS = 1000;
+
+    private static final Uri IMAGES_URI = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+    private static final String SELECTION = MediaStore.Images.Media.MIME_TYPE + " = ? or "
+            + MediaStore.Images.Media.MIME_TYPE + " = ?";
+    private static final String[] SELECTION_ARGS = {"image/jpeg", "image/png"};
+
+    private final ContentResolver contentResolver;
+    private final File indexFile;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private Listener listener;
+    private volatile boolean stopped;
+
+    //以下字段只在扫描线程中访问
+    private final Map<String, FolderBean> folders = new LinkedHashMap<>();
+    private long watermark;     //已索引图片中最大的DATE_MODIFIED
+    private boolean loaded;
+
+    private final ContentObserver observer = new ContentObserver(mainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mainHandler.removeCallbacks(updateRunnable);
+            mainHandler.postDelayed(updateRunnable, OBSERVER_DELAY_MS);
+        }
+    };
+
+    private final Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            update();
+        }
+    };
+
+    public FolderIndex(Context context) {
+        contentResolver = context.getContentResolver();
+        indexFile = new File(context.getFilesDir(), INDEX_FILE);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 开始监听媒体库变化，并立即更新一次
+     */
+    public void start() {
+        contentResolver.registerContentObserver(IMAGES_URI, true, observer);
+        update();
+    }
+
+    /**
+     * 停止监听并结束扫描线程，已经开始的扫描写完索引后线程退出，结果不再交给listener
+     */
+    public void stop() {
+        stopped = true;
+        contentResolver.unregisterContentObserver(observer);
+        mainHandler.removeCallbacks(updateRunnable);
+        listener = null;
+        executor.shutdown();
+    }
+
+    /**
+     * 在后台更新索引，有保存的索引时只查询新增的图片
+     */
+    public void update() {
+        if(stopped){
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(!loaded){
+                    loaded = true;
+                    if(readIndex()){
+                        publish(false);
+                    }
+                }
+                if(folders.isEmpty() || !updateIncrementally()){
+                    fullScan();
+                }
+                writeIndex();
+                publish(true);
+            }
+        });
+    }
+
+    //只查询水位线之后修改的图片；如果总数对不上（有删除或修改），返回false
+    private boolean updateIncrementally() {
+        Cursor cursor = query(MediaStore.Images.Media.DATE_MODIFIED + " > ? and (" + SELECTION + ")",
+                new String[]{String.valueOf(watermark), SELECTION_ARGS[0], SELECTION_ARGS[1]});
+        if(cursor == null){
+            return false;
+        }
+        try {
+            int dataColumn = cursor.getColumnIndex(MediaStore.Images.Media.DATA);
+            int dateColumn = cursor.getColumnIndex(MediaStore.Images.Media.DATE_MODIFIED);
+            while(cursor.moveToNext()){
+                addImage(cursor.getString(dataColumn), cursor.getLong(dateColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return countImages() == indexedCount();
+    }
+
+    private void fullScan() {
+        folders.clear();
+        watermark = 0;
+        Cursor cursor = query(SELECTION, SELECTION_ARGS);
+        if(cursor == null){
+            return;
+        }
+        try {
+            int dataColumn = cursor.getColumnIndex(MediaStore.Images.Media.DATA);
+            int dateColumn = cursor.getColumnIndex(MediaStore.Images.Media.DATE_MODIFIED);
+            long lastPublish = SystemClock.uptimeMillis();
+            while(cursor.moveToNext()){
+                boolean newFolder = addImage(cursor.getString(dataColumn), cursor.getLong(dateColumn));
+                long now = SystemClock.uptimeMillis();
+                //第一个文件夹出现时立即通知，之后按时间间隔
+                if((newFolder && folders.size() == 1) || now - lastPublish >= PARTIAL_INTERVAL_MS){
+                    publish(false);
+                    lastPublish = now;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor query(String selection, String[] selectionArgs) {
+        return contentResolver.query(IMAGES_URI,
+                new String[]{MediaStore.Images.Media.DATA, MediaStore.Images.Media.DATE_MODIFIED},
+                selection, selectionArgs, MediaStore.Images.Media.DATE_MODIFIED);
+    }
+
+    private int countImages() {
+        Cursor cursor = contentResolver.query(IMAGES_URI, new String[]{MediaStore.Images.Media._ID},
+                SELECTION, SELECTION_ARGS, null);
+        if(cursor == null){
+            return -1;
+        }
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int indexedCount() {
+        int count = 0;
+        for(FolderBean folder : folders.values()){
+            count += folder.getCount();
+        }
+        return count;
+    }
+
+    //把一张图片计入它所在的文件夹，返回是否是新的文件夹
+    private boolean addImage(String path, long dateModified) {
+        if(path == null){
+            return false;
+        }
+        watermark = Math.max(watermark, dateModified);
+        int lastSlash = path.lastIndexOf('/');
+        if(lastSlash <= 0){
+            return false;
+        }
+        String dir = path.substring(0, lastSlash);
+        FolderBean folder = folders.get(dir);
+        boolean newFolder = folder == null;
+        if(newFolder){
+            folder = new FolderBean();
+            folder.setDir(dir);
+            folder.setFirstImagePath(path);
+            folders.put(dir, folder);
+        }
+        folder.setCount(folder.getCount() + 1);
+        return newFolder;
+    }
+
+    //交给UI的是副本，扫描线程之后的修改不会影响它
+    private void publish(final boolean finished) {
+        final List<FolderBean> snapshot = new ArrayList<>(folders.size());
+        for(FolderBean folder : folders.values()){
+            FolderBean copy = new FolderBean();
+            copy.setDir(folder.getDir());
+            copy.setFirstImagePath(folder.getFirstImagePath());
+            copy.setCount(folder.getCount());
+            snapshot.add(copy);
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(listener != null){
+                    listener.onFoldersChanged(snapshot, finished);
+                }
+            }
+        });
+    }
+
+    private boolean readIndex() {
+        if(!indexFile.exists()){
+            return false;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+            if(!String.valueOf(INDEX_VERSION).equals(reader.readLine())){
+                return false;
+            }
+            long savedWatermark = Long.parseLong(reader.readLine());
+            Map<String, FolderBean> saved = new LinkedHashMap<>();
+            String line;
+            while((line = reader.readLine()) != null){
+                //数量\t第一张图片\t文件夹
+                String[] parts = line.split("\t", 3);
+                if(parts.length != 3){
+                    return false;
+                }
+                FolderBean folder = new FolderBean();
+                folder.setCount(Integer.parseInt(parts[0]));
+                folder.setFirstImagePath(parts[1]);
+                folder.setDir(parts[2]);
+                saved.put(parts[2], folder);
+            }
+            folders.putAll(saved);
+            watermark = savedWatermark;
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if(reader != null){
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    //先写临时文件再重命名，写到一半崩溃也不会破坏原来的索引
+    private void writeIndex() {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+            writer.write(INDEX_VERSION + "\n" + watermark + "\n");
+            for(FolderBean folder : folders.values()){
+                writer.write(folder.getCount() + "\t" + folder.getFirstImagePath() + "\t" + folder.getDir() + "\n");
+            }
+            writer.close();
+            writer = null;
+            if(!tmp.renameTo(indexFile)){
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if(writer != null){
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
+                tmp.delete();
+            }
+        }
+    }
+}
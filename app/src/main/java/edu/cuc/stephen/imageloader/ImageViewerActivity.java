@@ -0,0 +1,65 @@
+package edu.cuc.stephen.imageloader;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.widget.Toast;
+
+import edu.cuc.stephen.imageloader.util.ImageLoader;
+import edu.cuc.stephen.imageloader.util.TiledImage;
+import edu.cuc.stephen.imageloader.util.TiledImageView;
+
+/**
+ * 全屏查看一张图片，按可见区域分块解码，大图也不需要整张加载到内存
+ */
+public class ImageViewerActivity extends AppCompatActivity {
+
+    private static final String EXTRA_PATH = "path";
+
+    private TiledImageView tiledImageView;
+    private TiledImage tiledImage;
+    private boolean destroyed;
+
+    public static void start(Context context, String path) {
+        Intent intent = new Intent(context, ImageViewerActivity.class);
+        intent.putExtra(EXTRA_PATH, path);
+        context.startActivity(intent);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_viewer);
+        tiledImageView = (TiledImageView) findViewById(R.id.tiled_image);
+
+        //和网格共用缓存和解码线程
+        ImageLoader.getInstance().openTiledImage(getIntent().getStringExtra(EXTRA_PATH),
+                new ImageLoader.TiledImageCallback() {
+            @Override
+            public void onOpened(TiledImage image) {
+                if(image == null){
+                    Toast.makeText(ImageViewerActivity.this, "无法打开图片", Toast.LENGTH_SHORT).show();
+                    finish();
+                    return;
+                }
+                if(destroyed){
+                    image.close();
+                    return;
+                }
+                tiledImage = image;
+                tiledImageView.setImage(image);
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        if(tiledImage != null){
+            tiledImageView.setImage(null);
+            tiledImage.close();
+        }
+    }
+}
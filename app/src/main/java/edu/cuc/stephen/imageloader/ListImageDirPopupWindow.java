@@ -19,6 +19,7 @@ import android.widget.TextView;
 import java.util.List;
 
 import edu.cuc.stephen.imageloader.util.ImageLoader;
+import edu.cuc.stephen.imageloader.util.RequestGroup;
 
 /**
  * Created by stephen on 15-10-16.
@@ -38,7 +39,8 @@ public class ListImageDirPopupWindow extends PopupWindow {
         this.listener = listener;
     }
 
-    public ListImageDirPopupWindow(Context context, List<FolderBean> data) {
+    public ListImageDirPopupWindow(Context context, List<FolderBean> data, ImageLoader imageLoader) {
+        this.imageLoader = imageLoader;
         calcWidthHeight(context);
         convertView = LayoutInflater.from(context).inflate(R.layout.popup_main, null);
         this.data = data;
@@ -64,6 +66,22 @@ public class ListImageDirPopupWindow extends PopupWindow {
         initEvents();
     }
 
+    /**
+     * 关闭时取消还在排队的封面，解码线程马上空出来
+     */
+    @Override
+    public void dismiss() {
+        super.dismiss();
+        requestGroup.cancelAll();
+    }
+
+    /**
+     * 文件夹列表有变化时调用，刷新显示
+     */
+    public void notifyDataSetChanged() {
+        ((ListDirAdapter) listView.getAdapter()).notifyDataSetChanged();
+    }
+
     private void initEvents() {
         listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
@@ -103,7 +121,7 @@ public class ListImageDirPopupWindow extends PopupWindow {
             }
             FolderBean bean = getItem(position);
             holder.image.setImageResource(R.drawable.pictures_no);  //先重置
-            ImageLoader.getInstance().loadImage(bean.getFirstImagePath(), holder.image);
+            imageLoader.loadImage(bean.getFirstImagePath(), holder.image, requestGroup);
             holder.dirCount.setText(bean.getCount()+"");
             holder.dirName.setText(bean.getName());
             //convertView.setTag(holder);
@@ -129,4 +147,7 @@ public class ListImageDirPopupWindow extends PopupWindow {
     private View convertView;
     private ListView listView;
     private List<FolderBean> data;
+    private ImageLoader imageLoader;
+    //弹出窗口中封面的请求
+    private final RequestGroup requestGroup = new RequestGroup();
 }
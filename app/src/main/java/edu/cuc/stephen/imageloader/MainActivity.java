@@ -1,16 +1,11 @@
 package edu.cuc.stephen.imageloader;
 
-import android.app.ProgressDialog;
-import android.content.ContentResolver;
 import android.content.Context;
-import android.database.Cursor;
 import android.graphics.Color;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
-import android.os.Message;
-import android.provider.MediaStore;
+import android.os.Looper;
 import android.support.v7.app.AppCompatActivity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -26,51 +21,59 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import edu.cuc.stephen.imageloader.util.ImageLoader;
+import edu.cuc.stephen.imageloader.util.RequestGroup;
+import edu.cuc.stephen.imageloader.util.ScrollPrefetcher;
+import edu.cuc.stephen.imageloader.util.WindowedPaths;
 
 public class MainActivity extends AppCompatActivity {
 
+    //每次从游标读取的路径数和内存中保留的段数
+    private static final int WINDOW_SIZE = 256;
+    private static final int MAX_WINDOWS = 8;
+
     private GridView gridView;
-    private List<String> images;
+    //当前文件夹的图片路径，按段从MediaStore读取
+    private WindowedPaths images;
+    private final ExecutorService imagesExecutor = Executors.newSingleThreadExecutor();
+    private final Executor mainExecutor = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            handler.post(command);
+        }
+    };
 
     private RelativeLayout bottomLayout;
     private TextView dirName;
     private TextView dirCount;
 
     private File currentDir;
-    private int maxCount;
+    private boolean dirSelectedByUser;      //用户选过文件夹后，扫描结果更新时不再自动切换
 
     private List<FolderBean> folderBeans = new ArrayList<>();
 
-    private ProgressDialog progressDialog;
+    private FolderIndex folderIndex;
+    //网格和文件夹列表各自调度，共用缓存
+    private ImageLoader imageLoader;
+    private ImageLoader folderImageLoader;
+    //网格中的请求，界面不可见时暂停
+    private final RequestGroup gridGroup = new RequestGroup();
     private ImageAdapter imageAdapter;
     private ListImageDirPopupWindow dirPopupWindow;
-
-    private static final int DATA_LOAD_DONE = 0x110;
-
-    private Handler handler = new Handler(new Handler.Callback() {
-        @Override
-        public boolean handleMessage(Message msg) {
-            if(msg.what == DATA_LOAD_DONE){
-                progressDialog.dismiss();
-                //绑定数据到View中
-                dataToView();
-                initDirPopupWindow();
-                return true;
-            }
-            return false;
-        }
-    });
+    private ScrollPrefetcher scrollPrefetcher;
 
     private void initDirPopupWindow() {
-        dirPopupWindow = new ListImageDirPopupWindow(this, folderBeans);
+        dirPopupWindow = new ListImageDirPopupWindow(this, folderBeans, folderImageLoader);
         dirPopupWindow.setOnDismissListener(new PopupWindow.OnDismissListener() {
             @Override
             public void onDismiss() {
@@ -80,19 +83,8 @@ public class MainActivity extends AppCompatActivity {
         dirPopupWindow.setOnDirSelectedListener(new ListImageDirPopupWindow.OnDirSelectedListener() {
             @Override
             public void onSelected(FolderBean folderBean) {
-                currentDir = new File(folderBean.getDir());
-                images = Arrays.asList(currentDir.list(new FilenameFilter() {
-                    @Override
-                    public boolean accept(File dir, String filename) {
-                        if(filename.endsWith(".jpg")||filename.endsWith(".jpeg")||filename.endsWith(".png"))
-                            return true;
-                        return false;
-                    }
-                }));
-                imageAdapter = new ImageAdapter(MainActivity.this, images, currentDir.getAbsolutePath());
-                gridView.setAdapter(imageAdapter);
-                dirCount.setText(images.size()+"");
-                dirName.setText(folderBean.getName());
+                dirSelectedByUser = true;
+                showFolder(folderBean);
                 dirPopupWindow.dismiss();
             }
         });
@@ -104,29 +96,111 @@ public class MainActivity extends AppCompatActivity {
         getWindow().setAttributes(layoutParams);
     }
 
-    private void dataToView() {
-        if(currentDir==null){
-            Toast.makeText(this, "未扫描到任何图片！", Toast.LENGTH_SHORT).show();
-            return;
+    //先按索引中的数量显示网格，路径在后台从游标中按段读取，不在UI线程中列举文件
+    private void showFolder(FolderBean folderBean) {
+        currentDir = new File(folderBean.getDir());
+        if(images != null){
+            images.close();
         }
-        images = Arrays.asList(currentDir.list());
-        imageAdapter = new ImageAdapter(this, images, currentDir.getAbsolutePath());
+        images = new WindowedPaths(new FolderImages(getContentResolver(), folderBean.getDir(),
+                FolderImages.Order.NEWEST_FIRST, imageLoader.getImageCache().getCacheKeys()),
+                folderBean.getCount(), WINDOW_SIZE, MAX_WINDOWS,
+                imagesExecutor, mainExecutor);
+        gridGroup.cancelAll();      //上一个文件夹还在排队的图片不再需要
+        imageAdapter = new ImageAdapter(this, images, imageLoader, gridGroup);
+        images.setListener(new WindowedPaths.Listener() {
+            @Override
+            public void onChanged() {
+                imageAdapter.notifyDataSetChanged();
+                dirCount.setText(images.getCount()+"");
+            }
+        });
+        images.start();
         gridView.setAdapter(imageAdapter);
-        dirCount.setText(maxCount + "");
-        dirName.setText(currentDir.getName());
+        scrollPrefetcher.setPathSource(images);
+        dirCount.setText(images.getCount()+"");
+        dirName.setText(folderBean.getName());
+    }
+
+    //扫描中会多次回调，先显示已经找到的图片最多的文件夹
+    private void dataToView(List<FolderBean> folders, boolean finished) {
+        folderBeans.clear();
+        folderBeans.addAll(folders);
+        dirPopupWindow.notifyDataSetChanged();
+
+        FolderBean maxFolder = null;
+        for(FolderBean folder : folders){
+            if(maxFolder == null || folder.getCount() > maxFolder.getCount())
+                maxFolder = folder;
+        }
+        if(maxFolder == null){
+            if(finished && currentDir == null)
+                Toast.makeText(this, "未扫描到任何图片！", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        //扫描结束后如果用户还没选过，切换到图片最多的文件夹
+        boolean switchToMax = currentDir == null
+                || (finished && !dirSelectedByUser && !currentDir.getAbsolutePath().equals(maxFolder.getDir()));
+        if(switchToMax){
+            showFolder(maxFolder);
+        }
     }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.content_main);
+        //解码线程数按设备自动调整；开启缩略图的磁盘缓存，小格子优先使用系统已生成的缩略图
+        imageLoader = ImageLoader.getInstance(ImageLoader.Type.PRIORITY);
+        imageLoader.init(getApplicationContext());
+        //不同文件夹中的同一张照片共用一份缩略图
+        imageLoader.setContentFingerprints(true);
+        //文件夹列表的封面用单独的一个线程，不和网格抢解码线程
+        folderImageLoader = new ImageLoader.Builder()
+                .name("ImageLoader-folders")
+                .threadCount(1)
+                .type(ImageLoader.Type.LIFO)
+                .shareCachesWith(imageLoader)
+                .build();
 
         initView();
-        initData();
+        initDirPopupWindow();
         initEvents();
+        initData();
+    }
+
+    //不可见时取消网格中还没完成的请求，回来后重新加载仍然显示着的格子
+    @Override
+    protected void onStart() {
+        super.onStart();
+        gridGroup.resume();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        gridGroup.pause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        gridGroup.cancelAll();
+        //文件夹列表的实例只属于这个Activity，结束它的线程；全局实例还要给查看大图和重建后的Activity使用
+        dirPopupWindow.dismiss();
+        folderImageLoader.shutdown();
+        if(folderIndex != null)
+            folderIndex.stop();
+        if(images != null)
+            images.close();
+        //关闭游标的任务已经在队列中，执行完后线程结束
+        imagesExecutor.shutdown();
     }
 
     private void initEvents() {
+        //根据滑动速度预加载，快速滑动时暂停解码
+        scrollPrefetcher = new ScrollPrefetcher(imageLoader);
+        gridView.setOnScrollListener(scrollPrefetcher);
         bottomLayout.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -137,62 +211,21 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
-    //利用contentProvider扫描手机中所有图片
+    //利用contentProvider扫描手机中所有图片，有保存的索引时只做增量更新
     private void initData() {
         if(!Environment.getExternalStorageState().equals(Environment.MEDIA_MOUNTED)){
             Toast.makeText(this, "当前的存储卡不能用!", Toast.LENGTH_SHORT).show();
             return;
         }
-        progressDialog = ProgressDialog.show(this, null, "正在加载...");
-
-        new Thread(){
+        folderIndex = new FolderIndex(this);
+        folderIndex.setListener(new FolderIndex.Listener() {
             @Override
-            public void run() {
-                Uri imageUri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
-                ContentResolver contentResolver = MainActivity.this.getContentResolver();
-                Cursor cursor = contentResolver.query(imageUri, null, MediaStore.Images.Media.MIME_TYPE + " = ? or " +
-                        MediaStore.Images.Media.MIME_TYPE + " = ?", new String[]
-                        {"image/jpeg", "image/png"}, MediaStore.Images.Media.DATE_MODIFIED);
-                Set<String> dirPaths = new HashSet<>();
-                while(cursor.moveToNext()){
-                    String path = cursor.getString(cursor.getColumnIndex(MediaStore.Images.Media.DATA));
-                    File parentFile = new File(path).getParentFile();
-                    if(parentFile == null)
-                        continue;
-                    String dirPath = parentFile.getAbsolutePath();
-                    FolderBean folderBean;
-                    if(dirPaths.contains(dirPath))
-                        continue;
-                    else {
-                        dirPaths.add(dirPath);
-                        folderBean = new FolderBean();
-                        folderBean.setDir(dirPath);
-                        folderBean.setFirstImagePath(path);
-                    }
-
-                    if(parentFile.list()==null)
-                        continue;
-                    int imageCount = parentFile.list(new FilenameFilter() {
-                        @Override
-                        public boolean accept(File dir, String filename) {
-                            if(filename.endsWith(".jpg")||filename.endsWith(".jpeg")||filename.endsWith(".png"))
-                                return true;
-                            return false;
-                        }
-                    }).length;
-                    folderBean.setCount(imageCount);
-                    folderBeans.add(folderBean);
-                    if(imageCount>maxCount){
-                        maxCount = imageCount;
-                        currentDir = parentFile;
-                    }
-                }
-                cursor.close();
-                //扫描完成，释放临时变量的内存
-                //dirPaths = null;
-                handler.sendEmptyMessage(DATA_LOAD_DONE);    //通知handler扫描完成
+            public void onFoldersChanged(List<FolderBean> folders, boolean finished) {
+                //绑定数据到View中
+                dataToView(folders, finished);
             }
-        }.start();
+        });
+        folderIndex.start();
     }
 
     private void initView() {
@@ -208,24 +241,26 @@ class ImageAdapter extends BaseAdapter{
 
     private static Set<String> selectedImages = new HashSet<>();
 
-    private String dirPath;
-    private List<String> imagePaths;
+    private WindowedPaths imagePaths;
     private LayoutInflater inflater;
+    private ImageLoader imageLoader;
+    private RequestGroup requestGroup;
 
-    public ImageAdapter(Context context, List<String> data, String dirPath) {
-        this.dirPath = dirPath;
+    public ImageAdapter(Context context, WindowedPaths data, ImageLoader imageLoader, RequestGroup requestGroup) {
         this.imagePaths = data;
+        this.imageLoader = imageLoader;
+        this.requestGroup = requestGroup;
         inflater = LayoutInflater.from(context);
     }
 
     @Override
     public int getCount() {
-        return imagePaths.size();
+        return imagePaths.getCount();
     }
 
     @Override
     public Object getItem(int position) {
-        return imagePaths.get(position);
+        return imagePaths.getPath(position);
     }
 
     @Override
@@ -250,9 +285,16 @@ class ImageAdapter extends BaseAdapter{
         viewHolder.image.setImageResource(R.drawable.pictures_no);
         viewHolder.buttonSelect.setImageResource(R.drawable.btn_check_off);
 
-        ImageLoader.getInstance(3, ImageLoader.Type.LIFO).loadImage(dirPath + "/" + imagePaths.get(position),
-                viewHolder.image);
-        final String filePath = dirPath+"/"+imagePaths.get(position);
+        final String filePath = imagePaths.getPath(position);
+        if(filePath == null){
+            //这一段还在读取，读好后notifyDataSetChanged会重新绑定；之前的请求结果按过时丢弃
+            viewHolder.image.setTag(null);
+            viewHolder.image.setColorFilter(null);
+            viewHolder.image.setOnClickListener(null);
+            viewHolder.image.setOnLongClickListener(null);
+            return convertView;
+        }
+        imageLoader.loadImage(filePath, viewHolder.image, requestGroup);
         viewHolder.image.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -269,6 +311,15 @@ class ImageAdapter extends BaseAdapter{
             }
         });
 
+        //长按全屏查看，大图分块解码
+        viewHolder.image.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                ImageViewerActivity.start(v.getContext(), filePath);
+                return true;
+            }
+        });
+
         if(selectedImages.contains(filePath)){
             viewHolder.image.setColorFilter(Color.parseColor("#77000000"));
             viewHolder.buttonSelect.setImageResource(R.drawable.btn_check_on);
@@ -0,0 +1,194 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 根据CPU核数和实际的任务构成调整TaskScheduler的并发数
+ * 统计每个任务的CPU时间和总耗时：解码为主（CPU占比高）时线程数接近核数，读取慢速存储为主时多开线程掩盖等待；
+ * 队列中没有积压时不增加线程；设备过热降频时降到核数的一半。每次最多调整一个线程，并且限制在[floor, ceiling]之间
+ * 不依赖Android框架，CPU时间和温度状态由ImageLoader提供，方便在JVM中测试
+ */
+public class AdaptiveParallelism implements TaskScheduler.TaskObserver {
+
+    /**
+     * 当前线程已经使用的CPU时间，不支持时返回-1
+     */
+    public interface CpuClock {
+        long threadCpuNanos();
+    }
+
+    /**
+     * 设备是否因为过热而降频
+     */
+    public interface ThermalState {
+        boolean isThrottled();
+    }
+
+    public static final ThermalState NOT_THROTTLED = new ThermalState() {
+        @Override
+        public boolean isThrottled() {
+            return false;
+        }
+    };
+
+    //两次调整之间至少间隔的时间和完成的任务数，样本太少时CPU占比不可靠
+    private static final long ADJUST_INTERVAL_NANOS = 250 * 1000000L;
+    private static final int MIN_SAMPLES = 4;
+
+    private final TaskScheduler scheduler;
+    private final int cores;
+    private final int floor;
+    private final int ceiling;
+    private final CpuClock cpuClock;
+    private final ThermalState thermalState;
+    //每个工作线程中当前任务开始时的时间，{总耗时, CPU时间}
+    private final ThreadLocal<long[]> starts = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+    private final AtomicLong wallNanos = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private final AtomicInteger samples = new AtomicInteger();
+    private final AtomicLong lastAdjust = new AtomicLong(System.nanoTime());
+    private volatile float lastCpuRatio = 1f;
+
+    /**
+     * 按当前CPU核数，以initialFor(cores)个线程开始
+     */
+    public AdaptiveParallelism(TaskScheduler scheduler, CpuClock cpuClock, ThermalState thermalState) {
+        this(scheduler, Runtime.getRuntime().availableProcessors(), cpuClock, thermalState);
+    }
+
+    public AdaptiveParallelism(TaskScheduler scheduler, int cores, CpuClock cpuClock, ThermalState thermalState) {
+        this(scheduler, cores, 1, ceilingFor(cores), cpuClock, thermalState);
+    }
+
+    public AdaptiveParallelism(TaskScheduler scheduler, int cores, int floor, int ceiling,
+                               CpuClock cpuClock, ThermalState thermalState) {
+        if(floor <= 0 || ceiling < floor){
+            throw new IllegalArgumentException("invalid range [" + floor + ", " + ceiling + "]");
+        }
+        this.scheduler = scheduler;
+        this.cores = Math.max(1, cores);
+        this.floor = floor;
+        this.ceiling = ceiling;
+        this.cpuClock = cpuClock;
+        this.thermalState = thermalState == null ? NOT_THROTTLED : thermalState;
+        scheduler.setParallelism(clamp(initialFor(this.cores), floor, ceiling));
+    }
+
+    /**
+     * 初始线程数：给UI线程留一个核
+     */
+    public static int initialFor(int cores) {
+        return Math.max(1, cores - 1);
+    }
+
+    /**
+     * 默认上限：读取慢速存储为主时最多每个核两个线程，再多只会增加内存占用
+     */
+    public static int ceilingFor(int cores) {
+        return Math.max(2, cores * 2);
+    }
+
+    /**
+     * 接到调度器上，开始调整
+     */
+    public void attach() {
+        scheduler.setTaskObserver(this);
+    }
+
+    public void detach() {
+        scheduler.setTaskObserver(null);
+    }
+
+    public int getFloor() {
+        return floor;
+    }
+
+    public int getCeiling() {
+        return ceiling;
+    }
+
+    /**
+     * 最近一次调整时任务的CPU时间占总耗时的比例
+     */
+    public float getLastCpuRatio() {
+        return lastCpuRatio;
+    }
+
+    @Override
+    public void beforeTask() {
+        long[] start = starts.get();
+        start[0] = System.nanoTime();
+        start[1] = cpuClock.threadCpuNanos();
+    }
+
+    @Override
+    public void afterTask() {
+        long[] start = starts.get();
+        long cpuEnd = cpuClock.threadCpuNanos();
+        long now = System.nanoTime();
+        if(start[1] < 0 || cpuEnd < 0){
+            return;
+        }
+        wallNanos.addAndGet(now - start[0]);
+        cpuNanos.addAndGet(cpuEnd - start[1]);
+        samples.incrementAndGet();
+        long last = lastAdjust.get();
+        //只有一个线程能拿到这次调整
+        if(now - last >= ADJUST_INTERVAL_NANOS && samples.get() >= MIN_SAMPLES
+                && lastAdjust.compareAndSet(last, now)){
+            adjust();
+        }
+    }
+
+    private void adjust() {
+        long wall = wallNanos.getAndSet(0);
+        long cpu = cpuNanos.getAndSet(0);
+        samples.set(0);
+        if(wall <= 0){
+            return;
+        }
+        float cpuRatio = Math.min(1f, (float) cpu / wall);
+        lastCpuRatio = cpuRatio;
+        int current = scheduler.getParallelism();
+        int next = decide(current, cores, cpuRatio, scheduler.getQueueSize(), thermalState.isThrottled(),
+                floor, ceiling);
+        if(next != current){
+            scheduler.setParallelism(next);
+        }
+    }
+
+    /**
+     * 根据一段时间内的统计决定下一步的线程数
+     * 目标线程数 = 核数 / CPU占比（等待越多，需要越多线程让CPU保持忙碌）；
+     * 只有队列中的任务比线程多时才增加；过热时目标减半。每次最多变化一个
+     * @param cpuRatio 任务的CPU时间/总耗时，0到1
+     */
+    static int decide(int current, int cores, float cpuRatio, int queueDepth, boolean throttled,
+                      int floor, int ceiling) {
+        //线程比核多时，等CPU的时间也算在总耗时里，按每个线程能分到的CPU折算，否则会越加越多
+        float ratio = Math.min(1f, cpuRatio * Math.max(1f, (float) current / cores));
+        int target = Math.round(cores / Math.max(ratio, 1f / ceiling));
+        if(throttled){
+            //过热时不管有没有积压都降下来，减少发热
+            target = Math.min(target, Math.max(1, cores / 2));
+        }
+        target = clamp(target, floor, ceiling);
+        int next = current;
+        if(target > current && queueDepth > current){
+            next = current + 1;
+        }else if(target < current){
+            next = current - 1;
+        }
+        return clamp(next, floor, ceiling);
+    }
+
+    private static int clamp(int value, int floor, int ceiling) {
+        return Math.max(floor, Math.min(ceiling, value));
+    }
+}
@@ -0,0 +1,40 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.os.MemoryFile;
+
+import java.io.IOException;
+
+/**
+ * 堆外缓存在Android上的存储区：匿名共享内存（ashmem），不计入Java堆，关闭后立即归还系统；
+ * 页面第一次写入时才真正占用内存
+ */
+class AshmemStorage implements EncodedCache.Storage {
+
+    static final EncodedCache.Storage.Factory FACTORY = new EncodedCache.Storage.Factory() {
+        @Override
+        public EncodedCache.Storage create(int bytes) throws IOException {
+            return new AshmemStorage(bytes);
+        }
+    };
+
+    private final MemoryFile memoryFile;
+
+    private AshmemStorage(int bytes) throws IOException {
+        memoryFile = new MemoryFile("ImageLoader-encoded", bytes);
+    }
+
+    @Override
+    public void write(int offset, byte[] data, int dataOffset, int count) throws IOException {
+        memoryFile.writeBytes(data, dataOffset, offset, count);
+    }
+
+    @Override
+    public void read(int offset, byte[] data, int dataOffset, int count) throws IOException {
+        memoryFile.readBytes(data, offset, dataOffset, count);
+    }
+
+    @Override
+    public void close() {
+        memoryFile.close();
+    }
+}
@@ -0,0 +1,36 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * assets目录中的文件，路径写作file:///android_asset/xxx.jpg
+ */
+public class AssetSource implements ImageSource {
+
+    private static final String PREFIX = "file:///android_asset/";
+
+    private final AssetManager assetManager;
+
+    public AssetSource(Context context) {
+        assetManager = context.getApplicationContext().getAssets();
+    }
+
+    @Override
+    public boolean canOpen(String uri) {
+        return uri.startsWith(PREFIX);
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    @Override
+    public InputStream open(String uri) throws IOException {
+        return assetManager.open(uri.substring(PREFIX.length()));
+    }
+}
@@ -0,0 +1,47 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 解码时选择Bitmap格式的策略
+ * RGB_565每个像素2字节，是ARGB_8888的一半，同样的缓存可以多放一倍缩略图，但没有透明通道
+ */
+public enum BitmapConfigPolicy {
+    AUTO,       //不透明的格式（JPEG）用RGB_565，可能有透明的格式用ARGB_8888
+    ARGB_8888,  //全部ARGB_8888，画质最好
+    RGB_565;    //全部RGB_565，透明的部分会变成黑色
+
+    /**
+     * @param mimeType 解码尺寸时得到的outMimeType，未知时为null
+     */
+    public Bitmap.Config configFor(String mimeType) {
+        switch (this){
+            case RGB_565:
+                return Bitmap.Config.RGB_565;
+            case AUTO:
+                return "image/jpeg".equals(mimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+            default:
+                return Bitmap.Config.ARGB_8888;
+        }
+    }
+
+    /**
+     * 根据文件头判断是不是JPEG或PNG，用于没有单独解码尺寸的地方；in必须支持mark
+     */
+    public static String sniffMimeType(InputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        if(first == 0xFF && second == 0xD8){
+            return "image/jpeg";
+        }
+        if(first == 0x89 && second == 'P'){
+            return "image/png";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,25 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.graphics.Bitmap;
+
+/**
+ * 解码链中的一种解码方式
+ */
+public interface BitmapDecoder {
+
+    /**
+     * 用于统计的名字
+     */
+    String getName();
+
+    /**
+     * 快速判断能否处理这个请求，不应读取文件
+     */
+    boolean canDecode(String path, ImageSize imageSize);
+
+    /**
+     * 在后台线程中解码，无法提供足够清晰的图片时返回null，交给下一种解码方式
+     * @param configPolicy 根据图片格式选择Bitmap.Config
+     */
+    Bitmap decode(String path, ImageSize imageSize, BitmapConfigPolicy configPolicy);
+}
@@ -0,0 +1,149 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+/**
+ * 可复用Bitmap池，按分配的字节数分桶
+ * 解码时通过 BitmapFactory.Options.inBitmap 复用池中的Bitmap，减少滑动时的GC。
+ * API19起只要求被复用的Bitmap分配的内存不小于新图片需要的内存，宽高和格式可以不同。
+ */
+public class BitmapPool {
+
+    //复用的Bitmap最多比需要的大这么多倍，避免浪费太多内存
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final TreeMap<Integer, LinkedList<Bitmap>> buckets = new TreeMap<>();
+    //放入顺序，池满时先淘汰最早放入的
+    private final LinkedList<Bitmap> order = new LinkedList<>();
+    private int maxBytes;
+    private int size;
+
+    private int requestCount;
+    private int reuseCount;
+    private int putCount;
+    private int rejectCount;
+    private int evictionCount;
+
+    public BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 放回一个不再使用的Bitmap，调用者之后不能再使用它
+     * @return 不能复用（已回收、不可变或太大）时返回false
+     */
+    public synchronized boolean put(Bitmap bitmap) {
+        if(bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()){
+            rejectCount++;
+            return false;
+        }
+        int bytes = bitmap.getAllocationByteCount();
+        if(bytes > maxBytes / 2){
+            rejectCount++;
+            return false;
+        }
+        LinkedList<Bitmap> bucket = buckets.get(bytes);
+        if(bucket == null){
+            bucket = new LinkedList<>();
+            buckets.put(bytes, bucket);
+        }
+        bucket.addLast(bitmap);
+        order.addLast(bitmap);
+        size += bytes;
+        putCount++;
+        trimToSize(maxBytes);
+        return true;
+    }
+
+    /**
+     * 取出一个能容纳 width x height 图片的Bitmap，没有合适的返回null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        requestCount++;
+        int needed = width * height * bytesPerPixel(config);
+        Integer key = buckets.ceilingKey(needed);
+        if(key == null || key > needed * MAX_SIZE_MULTIPLE){
+            return null;
+        }
+        LinkedList<Bitmap> bucket = buckets.get(key);
+        Bitmap bitmap = bucket.removeLast();
+        if(bucket.isEmpty()){
+            buckets.remove(key);
+        }
+        removeFromOrder(bitmap);
+        size -= key;
+        reuseCount++;
+        return bitmap;
+    }
+
+    private void trimToSize(int maxBytes) {
+        while(size > maxBytes && !order.isEmpty()){
+            Bitmap bitmap = order.removeFirst();
+            int bytes = bitmap.getAllocationByteCount();
+            LinkedList<Bitmap> bucket = buckets.get(bytes);
+            bucket.remove(bitmap);
+            if(bucket.isEmpty()){
+                buckets.remove(bytes);
+            }
+            size -= bytes;
+            evictionCount++;
+        }
+    }
+
+    private void removeFromOrder(Bitmap bitmap) {
+        //按引用比较，不同的Bitmap不会相等
+        for(Iterator<Bitmap> i = order.iterator(); i.hasNext(); ){
+            if(i.next() == bitmap){
+                i.remove();
+                return;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * 修改容量，缩小时立即丢弃最早放入的Bitmap
+     */
+    public synchronized void resize(int maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        if(config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444){
+            return 2;
+        }
+        if(config == Bitmap.Config.ALPHA_8){
+            return 1;
+        }
+        return 4;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 把池的统计写入快照
+     */
+    public synchronized void fillStats(LoaderMetrics.Snapshot snapshot) {
+        snapshot.poolRequestCount = requestCount;
+        snapshot.poolReuseCount = reuseCount;
+        snapshot.poolPutCount = putCount;
+        snapshot.poolRejectCount = rejectCount;
+        snapshot.poolEvictionCount = evictionCount;
+        snapshot.poolBytes = size;
+        snapshot.poolMaxBytes = maxBytes;
+    }
+}
@@ -0,0 +1,65 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * 把解码结果精确缩放（CENTER_CROP时同时裁剪）到最终尺寸
+ * 目标Bitmap优先从池中取，被替换的中间结果放回池中
+ */
+public class BitmapResizer {
+
+    private final BitmapPool bitmapPool;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    public BitmapResizer(BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * @return 已经是最终尺寸时返回原来的Bitmap
+     */
+    public Bitmap resize(Bitmap source, ImageSize imageSize) {
+        if(source == null)
+            return null;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        ImageSize finalSize = ImageSizer.finalSize(width, height, imageSize);
+        if(finalSize.width == width && finalSize.height == height)
+            return source;
+        Bitmap.Config config = source.getConfig() != null ? source.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap target = obtain(finalSize.width, finalSize.height, config);
+        if(target == null)
+            return source;
+        target.setHasAlpha(source.hasAlpha());
+        int[] rect = ImageSizer.sourceRect(width, height, finalSize);
+        Canvas canvas = new Canvas(target);
+        canvas.drawBitmap(source, new Rect(rect[0], rect[1], rect[2], rect[3]),
+                new Rect(0, 0, finalSize.width, finalSize.height), paint);
+        canvas.setBitmap(null);
+        bitmapPool.put(source);
+        return target;
+    }
+
+    private Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = bitmapPool.get(width, height, config);
+        if(bitmap != null){
+            try {
+                bitmap.reconfigure(width, height, config);
+                //池中的Bitmap还留着原来的像素
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return bitmap;
+            } catch (IllegalArgumentException e) {
+                bitmapPool.put(bitmap);
+            }
+        }
+        try {
+            return Bitmap.createBitmap(width, height, config);
+        } catch (OutOfMemoryError e) {
+            return null;
+        }
+    }
+}
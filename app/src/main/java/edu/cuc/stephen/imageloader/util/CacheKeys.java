@@ -0,0 +1,204 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 缓存key：本地文件的key包含文件长度和修改时间（秒），文件被原地修改后旧的缓存自然失效，不需要清空整个缓存
+ * 所有key都使用同一张版本表：列表从MediaStore登记，工作线程每次读取文件属性时刷新；
+ * 内存缓存的key在UI线程中生成，只查版本表不读取文件，磁盘缓存和文件头缓存的key在工作线程中读取文件属性
+ * 可选的内容指纹（文件长度加开头和结尾各16K的摘要）让不同路径下的相同文件（比如DCIM和聊天软件里的副本）共用磁盘缓存中的缩略图
+ * 不依赖Android框架，方便在JVM中测试
+ */
+public class CacheKeys implements LoadEngine.KeyPolicy {
+
+    /**
+     * 文件长度和修改时间，文件不存在时都返回0
+     */
+    public interface FileStat {
+        long length(String file);
+
+        long lastModified(String file);
+    }
+
+    public static final FileStat FILES = new FileStat() {
+        @Override
+        public long length(String file) {
+            return new File(file).length();
+        }
+
+        @Override
+        public long lastModified(String file) {
+            return new File(file).lastModified();
+        }
+    };
+
+    //指纹读取文件开头和结尾的字节数
+    static final int FINGERPRINT_BYTES = 16 * 1024;
+    //版本表的容量，要大于最大的文件夹中的图片数，否则同一个文件夹中的图片会在有版本和没有版本的key之间来回切换
+    static final int MAX_VERSIONS = 64 * 1024;
+    private static final String FILE_SCHEME = "file://";
+    private static final String ASSET_PREFIX = "file:///android_asset/";
+
+    private final FileStat fileStat;
+    private final ImageSource fileSource;
+    //带版本的路径 -> 指纹，文件修改后版本变化，旧的条目不会再被用到
+    private final MemoryCache<String, String> fingerprints = new MemoryCache<>(1024);
+    //路径 -> 版本（长度-修改时间秒），给UI线程生成内存缓存key使用
+    private final MemoryCache<String, String> versions = new MemoryCache<>(MAX_VERSIONS);
+    private volatile boolean fingerprintEnabled;
+
+    public CacheKeys() {
+        this(FILES, new FileSource());
+    }
+
+    public CacheKeys(FileStat fileStat, ImageSource fileSource) {
+        this.fileStat = fileStat;
+        this.fileSource = fileSource;
+    }
+
+    /**
+     * 开启后磁盘缓存按文件内容查找，第一次加载每个文件时多读两次16K
+     */
+    public void setFingerprintEnabled(boolean fingerprintEnabled) {
+        this.fingerprintEnabled = fingerprintEnabled;
+    }
+
+    public boolean isFingerprintEnabled() {
+        return fingerprintEnabled;
+    }
+
+    /**
+     * 登记MediaStore记录中的长度和修改时间（DATE_MODIFIED，秒），在读取游标的后台线程中调用；
+     * 文件被修改后MediaStore的记录随之变化，内存缓存的key也就变了
+     */
+    public void setVersionHint(String path, long length, long dateModified) {
+        versions.put(path, version(length, dateModified));
+    }
+
+    private static String version(long length, long seconds) {
+        return length + "-" + seconds;
+    }
+
+    /**
+     * 本地文件在路径后面加上长度和修改时间，其他来源原样返回
+     * 会读取文件属性（外部存储上要经过FUSE），只在工作线程中调用；同时刷新版本表，之后的keyFor与之一致
+     */
+    public String versioned(String path) {
+        String file = localFile(path);
+        if(file == null){
+            return path;
+        }
+        //和MediaStore的DATE_MODIFIED一样精确到秒，两种来源得到相同的版本
+        String version = version(fileStat.length(file), fileStat.lastModified(file) / 1000);
+        versions.put(path, version);
+        return path + "@" + version;
+    }
+
+    /**
+     * 内存缓存的key，不读取文件：版本表中有版本时带上版本，否则只用路径；
+     * 没有版本的图片第一次解码后就有了版本，LoadEngine按新的key放入缓存
+     */
+    @Override
+    public String keyFor(String path, ImageSize imageSize) {
+        String version = versions.peek(path);
+        return LoadEngine.cacheKey(version != null ? path + "@" + version : path, imageSize);
+    }
+
+    /**
+     * 磁盘缓存的key，开启指纹时相同内容的文件得到相同的key；会读取文件，只在工作线程中调用
+     */
+    public String diskKey(String path, ImageSize imageSize) {
+        if(fingerprintEnabled){
+            String fingerprint = fingerprint(path);
+            if(fingerprint != null){
+                return DiskLruCache.hashKey("content:" + fingerprint + "#" + imageSize);
+            }
+        }
+        return DiskLruCache.hashKey(versioned(path) + "#" + imageSize);
+    }
+
+    /**
+     * 文件长度加开头和结尾各FINGERPRINT_BYTES字节的摘要，不是本地文件或读取失败时返回null
+     */
+    public String fingerprint(String path) {
+        String file = localFile(path);
+        if(file == null){
+            return null;
+        }
+        String version = versioned(path);
+        String fingerprint = fingerprints.peek(version);
+        if(fingerprint == null){
+            long length = fileStat.length(file);
+            fingerprint = computeFingerprint(path, length);
+            if(fingerprint == null){
+                return null;
+            }
+            fingerprints.put(version, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private String computeFingerprint(String path, long length) {
+        InputStream in = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            in = fileSource.open(path);
+            byte[] buffer = new byte[FINGERPRINT_BYTES];
+            int head = readFully(in, buffer);
+            digest.update(buffer, 0, head);
+            //文件较大时再取结尾，开头相同的照片（比如同一相机的EXIF）靠结尾区分
+            long remaining = length - head;
+            if(remaining > 0){
+                long skip = remaining - FINGERPRINT_BYTES;
+                if(skip <= 0 || skipFully(in, skip)){
+                    digest.update(buffer, 0, readFully(in, buffer));
+                }
+            }
+            return length + "-" + DiskLruCache.toHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        } finally {
+            if(in != null){
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        int n;
+        while(total < buffer.length && (n = in.read(buffer, total, buffer.length - total)) != -1){
+            total += n;
+        }
+        return total;
+    }
+
+    private static boolean skipFully(InputStream in, long count) throws IOException {
+        while(count > 0){
+            long skipped = in.skip(count);
+            if(skipped <= 0){
+                return false;
+            }
+            count -= skipped;
+        }
+        return true;
+    }
+
+    //本地文件的路径，不是本地文件时返回null
+    private static String localFile(String path) {
+        if(path.startsWith("/")){
+            return path;
+        }
+        if(path.startsWith(FILE_SCHEME) && !path.startsWith(ASSET_PREFIX)){
+            return path.substring(FILE_SCHEME.length());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,41 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * content://和android.resource://，通过ContentResolver打开
+ */
+public class ContentSource implements ImageSource {
+
+    private final ContentResolver contentResolver;
+
+    public ContentSource(Context context) {
+        contentResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    @Override
+    public boolean canOpen(String uri) {
+        return uri.startsWith(ContentResolver.SCHEME_CONTENT + "://")
+                || uri.startsWith(ContentResolver.SCHEME_ANDROID_RESOURCE + "://");
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    @Override
+    public InputStream open(String uri) throws IOException {
+        InputStream in = contentResolver.openInputStream(Uri.parse(uri));
+        if(in == null){
+            throw new FileNotFoundException(uri);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,70 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.graphics.Bitmap;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 解码链：按顺序尝试每种解码方式，便宜的（内嵌缩略图、系统缩略图）放在前面，
+ * 都不行时才完整解码原图。每种方式的耗时和命中次数记录到LoaderMetrics中
+ */
+public class DecoderChain {
+
+    private final List<BitmapDecoder> decoders = new CopyOnWriteArrayList<>();
+    private final LoaderMetrics metrics;
+    private volatile BitmapConfigPolicy configPolicy = BitmapConfigPolicy.AUTO;
+
+    public DecoderChain(LoaderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 加到最后，作为前面的解码方式都失败时的后备
+     */
+    public void add(BitmapDecoder decoder) {
+        decoders.add(decoder);
+    }
+
+    /**
+     * 插入到指定位置，0表示最先尝试
+     */
+    public void add(int index, BitmapDecoder decoder) {
+        decoders.add(index, decoder);
+    }
+
+    public boolean remove(BitmapDecoder decoder) {
+        return decoders.remove(decoder);
+    }
+
+    public List<BitmapDecoder> getDecoders() {
+        return decoders;
+    }
+
+    /**
+     * 全局的Bitmap格式策略，只影响之后的解码，已经缓存的图片不变
+     */
+    public void setConfigPolicy(BitmapConfigPolicy configPolicy) {
+        this.configPolicy = configPolicy;
+    }
+
+    public BitmapConfigPolicy getConfigPolicy() {
+        return configPolicy;
+    }
+
+    public Bitmap decode(String path, ImageSize imageSize) {
+        BitmapConfigPolicy policy = configPolicy;
+        for(BitmapDecoder decoder : decoders){
+            if(!decoder.canDecode(path, imageSize)){
+                continue;
+            }
+            long start = System.nanoTime();
+            Bitmap bitmap = decoder.decode(path, imageSize, policy);
+            metrics.recordTier(decoder.getName(), System.nanoTime() - start, bitmap != null);
+            if(bitmap != null){
+                return bitmap;
+            }
+        }
+        return null;
+    }
+}
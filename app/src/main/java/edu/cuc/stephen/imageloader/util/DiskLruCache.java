@@ -0,0 +1,532 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 带日志的磁盘LRU缓存，按总字节数限制大小
+ * 每个条目先写入 key.tmp，提交时再重命名为 key，并在日志中记录 CLEAN；
+ * 进程崩溃后重新打开时，只有 DIRTY 而没有 CLEAN/REMOVE 的条目会被删除，
+ * 所以不会读到写了一半的文件。
+ *
+ * 日志格式：
+ *     edu.cuc.stephen.imageloader.DiskLruCache
+ *     1
+ *     (空行)
+ *     DIRTY key
+ *     CLEAN key 字节数
+ *     REMOVE key
+ *     READ key
+ */
+public final class DiskLruCache {
+
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_FILE_TMP = "journal.tmp";
+    static final String MAGIC = "edu.cuc.stephen.imageloader.DiskLruCache";
+    static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+    private static final Pattern KEY_PATTERN = Pattern.compile("[a-z0-9_-]{1,120}");
+    //冗余操作超过这个数目时重建日志
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File directory;
+    private final File journalFile;
+    private final File journalFileTmp;
+    private long maxSize;
+    private long size = 0;
+    private Writer journalWriter;
+    //accessOrder为true，迭代顺序即LRU顺序
+    private final LinkedHashMap<String, Entry> lruEntries = new LinkedHashMap<>(0, 0.75f, true);
+    private int redundantOpCount;
+
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    private DiskLruCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.journalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * 打开 directory 下的缓存，不存在则新建
+     */
+    public static DiskLruCache open(File directory, long maxSize) throws IOException {
+        if(maxSize <= 0){
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        DiskLruCache cache = new DiskLruCache(directory, maxSize);
+        if(cache.journalFile.exists()){
+            try {
+                boolean truncated = cache.readJournal();
+                cache.processJournal();
+                if(truncated){
+                    //不能在半行后面继续追加
+                    cache.rebuildJournal();
+                }else{
+                    cache.journalWriter = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(cache.journalFile, true), "US-ASCII"));
+                }
+                return cache;
+            } catch (IOException e) {
+                //日志损坏，整个缓存作废重建
+                cache.delete();
+            }
+        }
+        if(!directory.mkdirs() && !directory.isDirectory()){
+            throw new IOException("failed to create " + directory);
+        }
+        cache = new DiskLruCache(directory, maxSize);
+        cache.rebuildJournal();
+        return cache;
+    }
+
+    //返回最后一行是否只写了一半
+    private boolean readJournal() throws IOException {
+        //崩溃时最后一行可能没写完，没有以换行结尾；跳过这一行，不让整个缓存作废
+        boolean truncated = !endsWithNewline(journalFile);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), "US-ASCII"));
+        try {
+            String magic = reader.readLine();
+            String version = reader.readLine();
+            String blank = reader.readLine();
+            if(!MAGIC.equals(magic) || !VERSION.equals(version) || !"".equals(blank)){
+                throw new IOException("unexpected journal header: [" + magic + ", " + version + "]");
+            }
+            int lineCount = 0;
+            String line = reader.readLine();
+            while(line != null){
+                String next = reader.readLine();
+                if(next == null && truncated){
+                    break;
+                }
+                readJournalLine(line);
+                lineCount++;
+                line = next;
+            }
+            redundantOpCount = lineCount - lruEntries.size();
+        } finally {
+            reader.close();
+        }
+        return truncated;
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if(in.length() == 0){
+                return false;
+            }
+            in.seek(in.length() - 1);
+            return in.read() == '\n';
+        } finally {
+            in.close();
+        }
+    }
+
+    private void readJournalLine(String line) throws IOException {
+        String[] parts = line.split(" ");
+        if(parts.length < 2){
+            throw new IOException("unexpected journal line: " + line);
+        }
+        String key = parts[1];
+        if(parts[0].equals(REMOVE) && parts.length == 2){
+            lruEntries.remove(key);
+            return;
+        }
+        Entry entry = lruEntries.get(key);
+        if(entry == null){
+            entry = new Entry(key);
+            lruEntries.put(key, entry);
+        }
+        if(parts[0].equals(CLEAN) && parts.length == 3){
+            entry.readable = true;
+            entry.currentEditor = null;
+            try {
+                entry.length = Long.parseLong(parts[2]);
+            } catch (NumberFormatException e) {
+                throw new IOException("unexpected journal line: " + line);
+            }
+        }else if(parts[0].equals(DIRTY) && parts.length == 2){
+            entry.currentEditor = new Editor(entry);
+        }else if(!(parts[0].equals(READ) && parts.length == 2)){
+            //只写了一半的最后一行已经在readJournal中跳过，这里出错说明日志损坏
+            throw new IOException("unexpected journal line: " + line);
+        }
+    }
+
+    //统计总大小，并清理崩溃时没有提交的条目
+    private void processJournal() throws IOException {
+        deleteIfExists(journalFileTmp);
+        for(Iterator<Entry> i = lruEntries.values().iterator(); i.hasNext(); ){
+            Entry entry = i.next();
+            if(entry.currentEditor == null){
+                size += entry.length;
+            }else{
+                entry.currentEditor = null;
+                deleteIfExists(entry.getCleanFile());
+                deleteIfExists(entry.getDirtyFile());
+                i.remove();
+            }
+        }
+    }
+
+    //先写到临时日志，再替换正式日志，保证日志本身也不会写坏
+    private synchronized void rebuildJournal() throws IOException {
+        if(journalWriter != null){
+            journalWriter.close();
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(journalFileTmp), "US-ASCII"));
+        try {
+            writer.write(MAGIC + "\n" + VERSION + "\n\n");
+            for(Entry entry : lruEntries.values()){
+                if(entry.currentEditor != null){
+                    writer.write(DIRTY + ' ' + entry.key + '\n');
+                }else{
+                    writer.write(CLEAN + ' ' + entry.key + ' ' + entry.length + '\n');
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        if(!journalFileTmp.renameTo(journalFile)){
+            throw new IOException("failed to rename " + journalFileTmp);
+        }
+        journalWriter = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(journalFile, true), "US-ASCII"));
+        redundantOpCount = 0;
+    }
+
+    /**
+     * 返回 key 对应内容的输入流，不存在时返回null
+     */
+    public synchronized InputStream get(String key) throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = lruEntries.get(key);
+        if(entry == null || !entry.readable){
+            missCount++;
+            return null;
+        }
+        InputStream in;
+        try {
+            in = new FileInputStream(entry.getCleanFile());
+        } catch (FileNotFoundException e) {
+            //文件被外部删除
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        redundantOpCount++;
+        journalWriter.append(READ + ' ' + key + '\n');
+        if(journalRebuildRequired()){
+            rebuildJournal();
+        }
+        return in;
+    }
+
+    /**
+     * 开始编辑 key 对应的条目；该条目正在被编辑时返回null
+     */
+    public synchronized Editor edit(String key) throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = lruEntries.get(key);
+        if(entry == null){
+            entry = new Entry(key);
+            lruEntries.put(key, entry);
+        }else if(entry.currentEditor != null){
+            return null;
+        }
+        Editor editor = new Editor(entry);
+        entry.currentEditor = editor;
+        //先记录DIRTY并刷新，避免崩溃后留下无人认领的文件
+        journalWriter.write(DIRTY + ' ' + key + '\n');
+        journalWriter.flush();
+        return editor;
+    }
+
+    private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
+        Entry entry = editor.entry;
+        if(entry.currentEditor != editor){
+            throw new IllegalStateException();
+        }
+        File dirty = entry.getDirtyFile();
+        //提交了但没有写入任何内容，按放弃处理：新条目不会以长度0变成可读
+        if(success && !dirty.exists()){
+            success = false;
+        }
+        if(success){
+            File clean = entry.getCleanFile();
+            deleteIfExists(clean);
+            if(!dirty.renameTo(clean)){
+                throw new IOException("failed to rename " + dirty);
+            }
+            long oldLength = entry.length;
+            entry.length = clean.length();
+            size = size - oldLength + entry.length;
+        }else{
+            deleteIfExists(dirty);
+        }
+
+        redundantOpCount++;
+        entry.currentEditor = null;
+        if(entry.readable || success){
+            entry.readable = true;
+            journalWriter.write(CLEAN + ' ' + entry.key + ' ' + entry.length + '\n');
+        }else{
+            lruEntries.remove(entry.key);
+            journalWriter.write(REMOVE + ' ' + entry.key + '\n');
+        }
+        journalWriter.flush();
+
+        if(size > maxSize || journalRebuildRequired()){
+            trimToSize();
+            if(journalRebuildRequired()){
+                rebuildJournal();
+            }
+        }
+    }
+
+    private boolean journalRebuildRequired() {
+        return redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && redundantOpCount >= lruEntries.size();
+    }
+
+    /**
+     * 删除 key 对应的条目，正在编辑的条目不能删除
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = lruEntries.get(key);
+        if(entry == null || entry.currentEditor != null){
+            return false;
+        }
+        deleteIfExists(entry.getCleanFile());
+        size -= entry.length;
+        entry.length = 0;
+        redundantOpCount++;
+        journalWriter.append(REMOVE + ' ' + key + '\n');
+        lruEntries.remove(key);
+        if(journalRebuildRequired()){
+            rebuildJournal();
+        }
+        return true;
+    }
+
+    private void trimToSize() throws IOException {
+        while(size > maxSize){
+            String toEvict = null;
+            for(Map.Entry<String, Entry> e : lruEntries.entrySet()){
+                if(e.getValue().currentEditor == null){
+                    toEvict = e.getKey();
+                    break;
+                }
+            }
+            if(toEvict == null){
+                return;
+            }
+            remove(toEvict);
+            evictionCount++;
+        }
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized void setMaxSize(long maxSize) throws IOException {
+        this.maxSize = maxSize;
+        trimToSize();
+    }
+
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized int missCount() {
+        return missCount;
+    }
+
+    public synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized boolean isClosed() {
+        return journalWriter == null;
+    }
+
+    public synchronized void flush() throws IOException {
+        checkNotClosed();
+        trimToSize();
+        journalWriter.flush();
+    }
+
+    /**
+     * 关闭缓存，正在进行的编辑全部放弃
+     */
+    public synchronized void close() throws IOException {
+        if(journalWriter == null){
+            return;
+        }
+        for(Entry entry : new ArrayList<>(lruEntries.values())){
+            if(entry.currentEditor != null){
+                entry.currentEditor.abort();
+            }
+        }
+        trimToSize();
+        journalWriter.close();
+        journalWriter = null;
+    }
+
+    /**
+     * 关闭缓存并删除其中所有文件
+     */
+    public void delete() throws IOException {
+        close();
+        deleteContents(directory);
+    }
+
+    private void checkNotClosed() {
+        if(journalWriter == null){
+            throw new IllegalStateException("cache is closed");
+        }
+    }
+
+    /**
+     * 把任意字符串（比如路径、网址）转成合法的key
+     */
+    public static String hashKey(String text) {
+        try {
+            return toHex(MessageDigest.getInstance("MD5").digest(text.getBytes()));
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(text.hashCode() & 0xffffffffL);
+        }
+    }
+
+    /**
+     * 摘要转成小写十六进制，结果可以直接作为key
+     */
+    static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for(byte b : digest){
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private void validateKey(String key) {
+        if(!KEY_PATTERN.matcher(key).matches()){
+            throw new IllegalArgumentException("keys must match [a-z0-9_-]{1,120}: \"" + key + "\"");
+        }
+    }
+
+    private static void deleteIfExists(File file) throws IOException {
+        if(file.exists() && !file.delete()){
+            throw new IOException("failed to delete " + file);
+        }
+    }
+
+    private static void deleteContents(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if(files == null){
+            return;
+        }
+        for(File file : files){
+            if(file.isDirectory()){
+                deleteContents(file);
+            }
+            deleteIfExists(file);
+        }
+    }
+
+    /**
+     * 单个条目的编辑器，写完后必须调用 commit 或 abort
+     */
+    public final class Editor {
+        private final Entry entry;
+        private boolean done;
+
+        private Editor(Entry entry) {
+            this.entry = entry;
+        }
+
+        public OutputStream newOutputStream() throws IOException {
+            synchronized (DiskLruCache.this){
+                if(entry.currentEditor != this){
+                    throw new IllegalStateException();
+                }
+                return new FileOutputStream(entry.getDirtyFile());
+            }
+        }
+
+        public void commit() throws IOException {
+            if(!done){
+                done = true;
+                completeEdit(this, true);
+            }
+        }
+
+        public void abort() throws IOException {
+            if(!done){
+                done = true;
+                completeEdit(this, false);
+            }
+        }
+    }
+
+    private final class Entry {
+        private final String key;
+        private long length;
+        private boolean readable;
+        private Editor currentEditor;
+
+        private Entry(String key) {
+            this.key = key;
+        }
+
+        File getCleanFile() {
+            return new File(directory, key);
+        }
+
+        File getDirtyFile() {
+            return new File(directory, key + ".tmp");
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 压缩后的缩略图缓存，放在Java堆外：内存缓存和磁盘缓存之间的一层
+ * 一块存储区按页划分，每个条目占若干页，按最近使用淘汰；不产生堆上的对象，不增加GC压力。
+ * 同样的内存能放下的图片是解码后Bitmap的十倍左右，重新解码一张十几K的缩略图比解码原图便宜得多。
+ * 存储区第一次写入时才分配；容量变化时换一块新大小的存储区，把留下的条目搬过去；清空时整块释放。
+ * 存储区由Storage.Factory创建：默认是direct ByteBuffer，只适合JVM；
+ * Android上direct ByteBuffer实际是Java堆中不能移动的数组，要用AshmemStorage
+ */
+public class EncodedCache {
+
+    /**
+     * 一块固定大小的存储区，按偏移读写
+     */
+    public interface Storage {
+        void write(int offset, byte[] data, int dataOffset, int count) throws IOException;
+
+        void read(int offset, byte[] data, int dataOffset, int count) throws IOException;
+
+        /**
+         * 释放存储区，之后不再使用
+         */
+        void close();
+
+        interface Factory {
+            Storage create(int bytes) throws IOException;
+        }
+    }
+
+    /**
+     * direct ByteBuffer，在JVM中位于堆外
+     */
+    public static final Storage.Factory DIRECT_STORAGE = new Storage.Factory() {
+        @Override
+        public Storage create(int bytes) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes);
+            return new Storage() {
+                @Override
+                public void write(int offset, byte[] data, int dataOffset, int count) {
+                    ByteBuffer page = buffer.duplicate();
+                    page.position(offset);
+                    page.put(data, dataOffset, count);
+                }
+
+                @Override
+                public void read(int offset, byte[] data, int dataOffset, int count) {
+                    ByteBuffer page = buffer.duplicate();
+                    page.position(offset);
+                    page.get(data, dataOffset, count);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    };
+
+    public static final int DEFAULT_PAGE_SIZE = 4 * 1024;
+
+    private final int pageSize;
+    private final Storage.Factory storageFactory;
+    private int maxBytes;               //允许使用的字节数，也是下一次分配的大小
+    private Storage arena;
+    private int arenaBytes;             //已经分配的字节数，没有分配时为0
+    private int[] freePages;
+    private int freeCount;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(0, 0.75f, true);
+    private int size;                   //条目占用的页的总字节数
+
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    private static final class Entry {
+        final int[] pages;
+        final int length;
+
+        Entry(int[] pages, int length) {
+            this.pages = pages;
+            this.length = length;
+        }
+    }
+
+    public EncodedCache(int maxBytes) {
+        this(maxBytes, DEFAULT_PAGE_SIZE, DIRECT_STORAGE);
+    }
+
+    public EncodedCache(int maxBytes, int pageSize) {
+        this(maxBytes, pageSize, DIRECT_STORAGE);
+    }
+
+    public EncodedCache(int maxBytes, int pageSize, Storage.Factory storageFactory) {
+        if(pageSize <= 0){
+            throw new IllegalArgumentException("pageSize <= 0");
+        }
+        this.pageSize = pageSize;
+        this.storageFactory = storageFactory;
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    /**
+     * 保存一份压缩数据，比一半容量还大时不保存
+     */
+    public synchronized boolean put(String key, byte[] data, int length) {
+        if(length <= 0 || length > maxBytes / 2 || !ensureArena()){
+            return false;
+        }
+        removeEntry(entries.remove(key));
+        int pagesNeeded = (length + pageSize - 1) / pageSize;
+        trimTo(maxBytes - pagesNeeded * pageSize);
+        if(freeCount < pagesNeeded){
+            return false;
+        }
+        int[] pages = new int[pagesNeeded];
+        int offset = 0;
+        for(int i = 0; i < pagesNeeded; i++){
+            pages[i] = freePages[--freeCount];
+        }
+        try {
+            for(int page : pages){
+                int count = Math.min(pageSize, length - offset);
+                arena.write(page * pageSize, data, offset, count);
+                offset += count;
+            }
+        } catch (IOException e) {
+            for(int page : pages){
+                freePages[freeCount++] = page;
+            }
+            return false;
+        }
+        entries.put(key, new Entry(pages, length));
+        size += pagesNeeded * pageSize;
+        return true;
+    }
+
+    /**
+     * 复制出一份压缩数据，没有时返回null
+     */
+    public synchronized byte[] get(String key) {
+        Entry entry = entries.get(key);
+        if(entry == null){
+            missCount++;
+            return null;
+        }
+        byte[] data = new byte[entry.length];
+        int offset = 0;
+        try {
+            for(int page : entry.pages){
+                int count = Math.min(pageSize, entry.length - offset);
+                arena.read(page * pageSize, data, offset, count);
+                offset += count;
+            }
+        } catch (IOException e) {
+            removeEntry(entries.remove(key));
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return data;
+    }
+
+    public synchronized boolean remove(String key) {
+        Entry entry = entries.remove(key);
+        removeEntry(entry);
+        return entry != null;
+    }
+
+    /**
+     * 调整允许使用的字节数；缩小时先淘汰最久未使用的条目，已经分配的存储区换成新的大小，其中的条目保留
+     * 为0时释放存储区
+     */
+    public synchronized void resize(int maxBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        int pageCount = this.maxBytes / pageSize;
+        if(arena == null || arenaBytes == pageCount * pageSize){
+            return;
+        }
+        if(pageCount == 0){
+            releaseArena();
+            return;
+        }
+        trimTo(pageCount * pageSize);
+        relocate(pageCount);
+    }
+
+    /**
+     * 清空并释放存储区
+     */
+    public synchronized void evictAll() {
+        trimTo(0);
+        releaseArena();
+    }
+
+    private boolean ensureArena() {
+        if(arena != null){
+            return true;
+        }
+        int pageCount = maxBytes / pageSize;
+        if(pageCount == 0){
+            return false;
+        }
+        try {
+            arena = storageFactory.create(pageCount * pageSize);
+        } catch (IOException e) {
+            return false;
+        }
+        arenaBytes = pageCount * pageSize;
+        freePages = new int[pageCount];
+        //倒序放入，先用低地址的页
+        for(int i = 0; i < pageCount; i++){
+            freePages[i] = pageCount - 1 - i;
+        }
+        freeCount = pageCount;
+        return true;
+    }
+
+    //按最近使用的顺序把条目搬到一块新的存储区，占用的页连在一起；分配或复制失败时整块释放
+    private void relocate(int pageCount) {
+        Storage target;
+        try {
+            target = storageFactory.create(pageCount * pageSize);
+        } catch (IOException e) {
+            releaseArena();
+            return;
+        }
+        LinkedHashMap<String, Entry> moved = new LinkedHashMap<>(0, 0.75f, true);
+        byte[] buffer = new byte[pageSize];
+        int next = 0;
+        try {
+            for(Map.Entry<String, Entry> e : entries.entrySet()){
+                Entry entry = e.getValue();
+                int[] pages = new int[entry.pages.length];
+                for(int i = 0; i < pages.length; i++){
+                    int count = Math.min(pageSize, entry.length - i * pageSize);
+                    arena.read(entry.pages[i] * pageSize, buffer, 0, count);
+                    target.write(next * pageSize, buffer, 0, count);
+                    pages[i] = next++;
+                }
+                moved.put(e.getKey(), new Entry(pages, entry.length));
+            }
+        } catch (IOException e) {
+            target.close();
+            releaseArena();
+            return;
+        }
+        arena.close();
+        arena = target;
+        arenaBytes = pageCount * pageSize;
+        entries.clear();
+        entries.putAll(moved);
+        freePages = new int[pageCount];
+        freeCount = 0;
+        //倒序放入，先用低地址的页
+        for(int page = pageCount - 1; page >= next; page--){
+            freePages[freeCount++] = page;
+        }
+    }
+
+    private void releaseArena() {
+        if(arena == null){
+            return;
+        }
+        evictionCount += entries.size();
+        entries.clear();
+        size = 0;
+        arena.close();
+        arena = null;
+        arenaBytes = 0;
+        freePages = null;
+        freeCount = 0;
+    }
+
+    private void trimTo(int bytes) {
+        Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+        while(size > bytes && i.hasNext()){
+            Entry entry = i.next().getValue();
+            i.remove();
+            removeEntry(entry);
+            evictionCount++;
+        }
+    }
+
+    private void removeEntry(Entry entry) {
+        if(entry == null){
+            return;
+        }
+        for(int page : entry.pages){
+            freePages[freeCount++] = page;
+        }
+        size -= entry.pages.length * pageSize;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int maxSize() {
+        return maxBytes;
+    }
+
+    /**
+     * 存储区实际占用的字节数，没有分配时为0
+     */
+    public synchronized int allocatedSize() {
+        return arenaBytes;
+    }
+
+    public synchronized int count() {
+        return entries.size();
+    }
+
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized int missCount() {
+        return missCount;
+    }
+
+    public synchronized int evictionCount() {
+        return evictionCount;
+    }
+}
@@ -0,0 +1,71 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+
+import java.io.IOException;
+
+/**
+ * 使用JPEG中内嵌的EXIF缩略图，只读取文件头，不解码整张图片
+ * 相机拍摄的图片大多带有160x120左右的缩略图，足够小格子使用
+ */
+public class ExifThumbnailDecoder implements BitmapDecoder {
+
+    //内嵌缩略图的长边很少超过这个值，目标更大时缩略图肯定不够清晰，不必解析EXIF
+    private static final int MAX_TARGET_SIZE = 200;
+    //缩略图和原图宽高比相差超过这个比例时认为带了黑边，不使用
+    private static final float MAX_ASPECT_DIFF = 0.05f;
+
+    @Override
+    public String getName() {
+        return "exif";
+    }
+
+    @Override
+    public boolean canDecode(String path, ImageSize imageSize) {
+        //ExifInterface只能读取本地文件
+        String lower = path.toLowerCase();
+        return path.startsWith("/") && (lower.endsWith(".jpg") || lower.endsWith(".jpeg"))
+                && Math.max(imageSize.width, imageSize.height) <= MAX_TARGET_SIZE;
+    }
+
+    @Override
+    public Bitmap decode(String path, ImageSize imageSize, BitmapConfigPolicy configPolicy) {
+        byte[] thumbnail;
+        ExifInterface exif;
+        try {
+            exif = new ExifInterface(path);
+            thumbnail = exif.getThumbnail();
+        } catch (IOException e) {
+            return null;
+        }
+        if(thumbnail == null){
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+        if(options.outWidth <= 0 || options.outHeight <= 0){
+            return null;
+        }
+        //缩略图要能覆盖目标尺寸，否则放大后会模糊
+        if(ImageSizer.scale(options.outWidth, options.outHeight, imageSize) > 1f){
+            return null;
+        }
+        int imageWidth = exif.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, 0);
+        int imageHeight = exif.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, 0);
+        if(imageWidth > 0 && imageHeight > 0){
+            float imageAspect = (float) imageWidth / imageHeight;
+            float thumbAspect = (float) options.outWidth / options.outHeight;
+            if(Math.abs(imageAspect - thumbAspect) / imageAspect > MAX_ASPECT_DIFF){
+                return null;
+            }
+        }
+        options.inSampleSize = ImageSizer.sampleSize(options.outWidth, options.outHeight, imageSize);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = configPolicy.configFor(options.outMimeType);
+        options.inMutable = true;
+        return BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+    }
+}
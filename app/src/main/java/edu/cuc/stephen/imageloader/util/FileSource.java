@@ -0,0 +1,30 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 本地文件，支持绝对路径和file://，不包括file:///android_asset/
+ */
+public class FileSource implements ImageSource {
+
+    private static final String SCHEME = "file://";
+    private static final String ASSET_PREFIX = "file:///android_asset/";
+
+    @Override
+    public boolean canOpen(String uri) {
+        return uri.startsWith("/") || (uri.startsWith(SCHEME) && !uri.startsWith(ASSET_PREFIX));
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    @Override
+    public InputStream open(String uri) throws IOException {
+        String path = uri.startsWith(SCHEME) ? uri.substring(SCHEME.length()) : uri;
+        return new FileInputStream(path);
+    }
+}
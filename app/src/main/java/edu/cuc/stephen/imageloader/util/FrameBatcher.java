@@ -0,0 +1,121 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 把后台线程完成的结果攒起来，每帧在UI线程中统一处理一次，而不是每个结果单独发一条消息
+ * 每帧处理的时间有上限，处理不完的留到下一帧；已经过时的结果在进入队列之前就丢弃，
+ * 需要在UI线程中才能判断的（比如View的状态）在应用之前再检查
+ * 不依赖Android框架，帧回调由FrameScheduler提供（运行时为Choreographer）
+ */
+public class FrameBatcher<T> {
+
+    /**
+     * 结果的处理方式
+     */
+    public interface Target<T> {
+        /**
+         * 结果是否已经过时，在任意线程中调用，只能读取线程安全的状态（比如请求是否已经完成）；
+         * 只是提前过滤，apply之前还会再检查一次
+         */
+        boolean isStale(T item);
+
+        /**
+         * 在UI线程中、apply之前调用，可以读取View的状态（比如ImageView已经被复用）
+         */
+        boolean isStaleOnUiThread(T item);
+
+        /**
+         * 在UI线程中应用结果
+         */
+        void apply(T item);
+
+        /**
+         * 丢弃过时的结果
+         */
+        void drop(T item);
+    }
+
+    /**
+     * 请求在下一帧调用drain，可以在任意线程中调用
+     */
+    public interface FrameScheduler {
+        void scheduleFrame();
+    }
+
+    private final Target<T> target;
+    private final FrameScheduler frameScheduler;
+    private final long budgetNanos;
+    private final ConcurrentLinkedQueue<T> pending = new ConcurrentLinkedQueue<>();
+    //已经请求了下一帧，避免一帧之内重复请求
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * @param budgetNanos 每帧最多用于处理结果的时间，至少会处理一个
+     */
+    public FrameBatcher(Target<T> target, FrameScheduler frameScheduler, long budgetNanos) {
+        this.target = target;
+        this.frameScheduler = frameScheduler;
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * 加入一个结果，不会阻塞；过时的结果直接丢弃
+     */
+    public void post(T item) {
+        if(target.isStale(item)){
+            target.drop(item);
+            return;
+        }
+        pending.offer(item);
+        if(scheduled.compareAndSet(false, true)){
+            frameScheduler.scheduleFrame();
+        }
+    }
+
+    /**
+     * 在帧回调中调用，处理到时间用完为止
+     * @return 这一帧应用的结果数
+     */
+    public int drain() {
+        long deadline = System.nanoTime() + budgetNanos;
+        int applied = 0;
+        T item;
+        while((item = pending.poll()) != null){
+            if(target.isStale(item) || target.isStaleOnUiThread(item)){
+                target.drop(item);
+                continue;
+            }
+            target.apply(item);
+            applied++;
+            if(System.nanoTime() >= deadline){
+                break;
+            }
+        }
+        scheduled.set(false);
+        //剩下的，或者在清除标志之前刚加入的结果，留到下一帧
+        if(!pending.isEmpty() && scheduled.compareAndSet(false, true)){
+            frameScheduler.scheduleFrame();
+        }
+        return applied;
+    }
+
+    /**
+     * 丢弃还没应用的结果，比如关闭时
+     * @return 丢弃的个数
+     */
+    public int clear() {
+        int dropped = 0;
+        T item;
+        while((item = pending.poll()) != null){
+            target.drop(item);
+            dropped++;
+        }
+        return dropped;
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+}
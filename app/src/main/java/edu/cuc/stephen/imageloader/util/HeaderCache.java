@@ -0,0 +1,69 @@
+package edu.cuc.stephen.imageloader.util;
+
+/**
+ * 图片文件头信息（原图宽高和格式）的缓存
+ * 同一张图片以其他尺寸再次解码时（比如切换列数、渐进加载的第二遍、打开大图）直接计算采样率，不再读取文件头
+ * key是带版本的路径，文件被修改后自然失效。不依赖Android框架，方便在JVM中测试
+ */
+public class HeaderCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    /**
+     * 原图的宽高和格式
+     */
+    public static final class Header {
+        public final int width;
+        public final int height;
+        public final String mimeType;     //可能为null
+
+        public Header(int width, int height, String mimeType) {
+            this.width = width;
+            this.height = height;
+            this.mimeType = mimeType;
+        }
+    }
+
+    private final CacheKeys cacheKeys;
+    private final MemoryCache<String, Header> headers;
+
+    public HeaderCache(CacheKeys cacheKeys) {
+        this(cacheKeys, DEFAULT_MAX_ENTRIES);
+    }
+
+    public HeaderCache(CacheKeys cacheKeys, int maxEntries) {
+        this.cacheKeys = cacheKeys;
+        this.headers = new MemoryCache<>(maxEntries);
+    }
+
+    /**
+     * 没有记录过或文件已经修改时返回null
+     */
+    public Header get(String path) {
+        return headers.get(cacheKeys.versioned(path));
+    }
+
+    /**
+     * 记录读取到的文件头，宽高无效时不记录并返回null
+     */
+    public Header put(String path, int width, int height, String mimeType) {
+        if(width <= 0 || height <= 0){
+            return null;
+        }
+        Header header = new Header(width, height, mimeType);
+        headers.put(cacheKeys.versioned(path), header);
+        return header;
+    }
+
+    public void evictAll() {
+        headers.evictAll();
+    }
+
+    public int hitCount() {
+        return headers.hitCount();
+    }
+
+    public int missCount() {
+        return headers.missCount();
+    }
+}
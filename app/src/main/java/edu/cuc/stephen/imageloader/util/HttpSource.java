@@ -0,0 +1,49 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * http和https，属于慢速来源
+ */
+public class HttpSource implements ImageSource {
+
+    private static final int CONNECT_TIMEOUT_MS = 10 * 1000;
+    private static final int READ_TIMEOUT_MS = 20 * 1000;
+
+    @Override
+    public boolean canOpen(String uri) {
+        return uri.startsWith("http://") || uri.startsWith("https://");
+    }
+
+    @Override
+    public boolean isRemote() {
+        return true;
+    }
+
+    @Override
+    public InputStream open(String uri) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        int code = connection.getResponseCode();
+        if(code != HttpURLConnection.HTTP_OK){
+            connection.disconnect();
+            throw new IOException("HTTP " + code + " for " + uri);
+        }
+        //关闭流时一起断开连接
+        return new FilterInputStream(connection.getInputStream()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        };
+    }
+}
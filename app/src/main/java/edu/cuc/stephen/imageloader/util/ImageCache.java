@@ -0,0 +1,552 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 图片缓存和解码：内存缓存、Bitmap池、磁盘缓存、解码链和数据来源
+ * 多个ImageLoader可以共用一个ImageCache，各自使用不同的调度方式和线程数
+ */
+public class ImageCache implements ComponentCallbacks2 {
+
+    private static final String TAG = "ImageCache";
+    public static final long DEFAULT_DISK_CACHE_SIZE = 50 * 1024 * 1024;
+    private static final String DISK_CACHE_DIR_NAME = "thumbnails";
+    private static final long DOWNLOAD_CACHE_SIZE = 20 * 1024 * 1024;
+    private static final String DOWNLOAD_CACHE_DIR_NAME = "downloads";
+    //预览缓存占内存缓存预算的比例
+    private static final int PREVIEW_CACHE_DIVISOR = 16;
+    //堆外缓存要比内存缓存多放约十倍的图片；压缩后的缩略图大约是Bitmap的十分之一，所以容量和内存缓存的预算相同
+    private static final int ENCODED_CACHE_IMAGES = 10;
+    private static final int ENCODED_COMPRESSION_RATIO = 10;
+
+    //图片缓存的核心对象
+    private final MemoryCache<String, Bitmap> lruCache;
+    //渐进加载的预览图单独缓存，不挤占正式的缩略图
+    private final MemoryCache<String, Bitmap> previewCache;
+    //内存缓存的预算，内存紧张时缩小，之后逐步恢复
+    private final MemoryBudget memoryBudget;
+    private final boolean fixedMemorySize;      //指定了容量时不再按memoryClass计算
+    private final LoaderMetrics metrics = new LoaderMetrics();
+    //从缓存淘汰的Bitmap放回池中，解码时复用
+    private final BitmapPool bitmapPool;
+    //解码链：先尝试内嵌缩略图等便宜的来源，最后才完整解码原图
+    private final DecoderChain decoderChain;
+    private final BitmapResizer bitmapResizer;
+    private final SourceFetcher sourceFetcher;
+    //本地文件的key带上长度和修改时间，可选按内容共用磁盘缓存
+    private final CacheKeys cacheKeys = new CacheKeys();
+    //原图的宽高和格式，以其他尺寸再次解码时不必再读文件头
+    private final HeaderCache headerCache = new HeaderCache(cacheKeys);
+    //内存缓存和磁盘缓存之间的一层：在ashmem中保存压缩后的缩略图，不占Java堆，写入的页才占用内存
+    private final EncodedCache encodedCache;
+    //正在显示或等待显示的Bitmap的引用计数，计数不为0时不能放回池中
+    private final Object bitmapRefLock = new Object();
+    private final Map<Bitmap, Integer> bitmapRefs = new IdentityHashMap<>();
+    private final Set<Bitmap> evictedBitmaps = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+    //磁盘缓存：保存压缩后的缩略图，冷启动时不必再解码原图
+    private volatile DiskLruCache diskLruCache;
+    private File diskCacheDir;
+    private final long diskCacheSize;
+    private boolean contextInitialized;
+    //注册了onTrimMemory的Context，释放时注销
+    private Context appContext;
+    private boolean callbacksRegistered;
+    //使用这个缓存的ImageLoader数，全部关闭后released为true，直到再次retain
+    private int refCount;
+    private boolean released;
+
+    /**
+     * 内存缓存先使用最大可用内存的1/8，调用init(Context)后按memoryClass计算
+     */
+    public ImageCache() {
+        this(0, DEFAULT_DISK_CACHE_SIZE);
+    }
+
+    /**
+     * @param memoryCacheSize 内存缓存的字节数，不大于0时按设备内存计算
+     * @param diskCacheSize 磁盘缓存的字节数
+     */
+    public ImageCache(int memoryCacheSize, long diskCacheSize) {
+        fixedMemorySize = memoryCacheSize > 0;
+        int cacheMemory = fixedMemorySize ? memoryCacheSize : (int) (Runtime.getRuntime().maxMemory() / 8);
+        this.diskCacheSize = diskCacheSize;
+        memoryBudget = new MemoryBudget(cacheMemory);
+
+        lruCache = new MemoryCache<String, Bitmap>(cacheMemory){
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes()*value.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                recycleToPool(oldValue);
+            }
+        };
+        encodedCache = new EncodedCache(encodedSizeFor(cacheMemory), EncodedCache.DEFAULT_PAGE_SIZE,
+                AshmemStorage.FACTORY);
+        previewCache = new MemoryCache<String, Bitmap>(Math.max(1, cacheMemory / PREVIEW_CACHE_DIVISOR)){
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getRowBytes()*value.getHeight();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                recycleToPool(oldValue);
+            }
+        };
+        bitmapPool = new BitmapPool(cacheMemory/4);
+        sourceFetcher = new SourceFetcher();
+        sourceFetcher.addSource(new FileSource());
+        sourceFetcher.addSource(new HttpSource());
+        bitmapResizer = new BitmapResizer(bitmapPool);
+        decoderChain = new DecoderChain(metrics);
+        decoderChain.add(new ExifThumbnailDecoder());
+        decoderChain.add(new SampledDecoder(bitmapPool, sourceFetcher, headerCache));
+    }
+
+    /**
+     * 开启磁盘缓存、下载缓存、content://和assets来源以及系统缩略图，
+     * 按设备内存重新计算缓存预算，并监听onTrimMemory
+     */
+    public synchronized void init(Context context) {
+        if(contextInitialized)
+            return;
+        contextInitialized = true;
+        Context appContext = context.getApplicationContext();
+        if(!fixedMemorySize){
+            ActivityManager activityManager = (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+            int budget = MemoryBudget.budgetFor(activityManager.getMemoryClass(), activityManager.isLowRamDevice(),
+                    Runtime.getRuntime().maxMemory());
+            synchronized (memoryBudget){
+                memoryBudget.setFullSize(budget);
+                budget = memoryBudget.getCurrentSize();
+            }
+            applyBudget(budget);
+        }
+        this.appContext = appContext;
+        registerCallbacks();
+        initDiskCache(context);
+        sourceFetcher.setDownloadCache(new File(context.getCacheDir(), DOWNLOAD_CACHE_DIR_NAME), DOWNLOAD_CACHE_SIZE);
+        sourceFetcher.addSource(new ContentSource(context));
+        sourceFetcher.addSource(new AssetSource(context));
+        initMediaStoreThumbnails(context);
+    }
+
+    private void registerCallbacks() {
+        if(appContext != null && !callbacksRegistered){
+            appContext.registerComponentCallbacks(this);
+            callbacksRegistered = true;
+        }
+    }
+
+    /**
+     * ImageLoader创建时调用，和release成对使用
+     */
+    public synchronized void retain() {
+        if(refCount++ == 0){
+            released = false;
+            registerCallbacks();
+        }
+    }
+
+    /**
+     * ImageLoader关闭时调用，最后一个使用者关闭时释放内存缓存、Bitmap池和堆外缓存，
+     * 关闭磁盘缓存并注销onTrimMemory；再次retain之后磁盘缓存会重新打开
+     * @return 是否真的释放了
+     */
+    public synchronized boolean release() {
+        if(refCount <= 0 || --refCount > 0){
+            return false;
+        }
+        lruCache.evictAll();
+        previewCache.evictAll();
+        bitmapPool.clear();
+        encodedCache.evictAll();
+        headerCache.evictAll();
+        if(diskLruCache != null){
+            try {
+                diskLruCache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            diskLruCache = null;
+        }
+        released = true;
+        if(callbacksRegistered){
+            appContext.unregisterComponentCallbacks(this);
+            callbacksRegistered = false;
+        }
+        Log.i(TAG, "released");
+        return true;
+    }
+
+    /**
+     * 开启磁盘缓存，缩略图保存在应用私有的缓存目录中
+     */
+    public synchronized void initDiskCache(Context context) {
+        if(diskCacheDir == null && diskLruCache == null){
+            diskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR_NAME);
+        }
+    }
+
+    /**
+     * 使用MediaStore已经生成的缩略图，放在内嵌缩略图之后、完整解码之前
+     */
+    public synchronized void initMediaStoreThumbnails(Context context) {
+        for(BitmapDecoder decoder : decoderChain.getDecoders()){
+            if(decoder instanceof MediaStoreThumbnailDecoder)
+                return;
+        }
+        decoderChain.add(decoderChain.getDecoders().size() - 1, new MediaStoreThumbnailDecoder(context));
+    }
+
+    public MemoryCache<String, Bitmap> getMemoryCache() {
+        return lruCache;
+    }
+
+    public MemoryCache<String, Bitmap> getPreviewCache() {
+        return previewCache;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * 解码链，可以在最前面加入自定义的解码方式；最后一个总是完整解码原图
+     */
+    public DecoderChain getDecoderChain() {
+        return decoderChain;
+    }
+
+    public EncodedCache getEncodedCache() {
+        return encodedCache;
+    }
+
+    public CacheKeys getCacheKeys() {
+        return cacheKeys;
+    }
+
+    public HeaderCache getHeaderCache() {
+        return headerCache;
+    }
+
+    /**
+     * 数据来源，可以加入自定义的来源
+     */
+    public SourceFetcher getSourceFetcher() {
+        return sourceFetcher;
+    }
+
+    /**
+     * 设置解码使用的Bitmap格式，默认AUTO：JPEG用RGB_565，PNG等用ARGB_8888
+     */
+    public void setConfigPolicy(BitmapConfigPolicy configPolicy) {
+        decoderChain.setConfigPolicy(configPolicy);
+    }
+
+    /**
+     * 当前缓存命中率、淘汰次数、占用字节数和平均解码耗时
+     */
+    public LoaderMetrics.Snapshot getMetrics() {
+        LoaderMetrics.Snapshot snapshot = metrics.snapshot(lruCache, diskLruCache);
+        bitmapPool.fillStats(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * 在工作线程中执行：先查磁盘缓存，未命中再走解码链，结果缩放到最终尺寸后写入磁盘缓存
+     */
+    Bitmap decode(String path, ImageSize imageSize) {
+        String key = cacheKeys.diskKey(path, imageSize);
+        Bitmap bitmap = getBitmapFromEncodedCache(key);
+        if(bitmap == null){
+            bitmap = getBitmapFromDiskCache(key);
+        }
+        if(bitmap == null){
+            long start = System.nanoTime();
+            bitmap = decoderChain.decode(path, imageSize);
+            //缓存中只保存最终尺寸的图片
+            bitmap = bitmapResizer.resize(bitmap, imageSize);
+            metrics.recordDecode(System.nanoTime() - start);
+            addBitmapToCaches(key, bitmap);
+        }
+        if(bitmap != null){
+            metrics.recordBitmap(bitmap.getWidth() * bitmap.getHeight(), bitmap.getByteCount());
+        }
+        return bitmap;
+    }
+
+    /**
+     * 渐进加载的预览图：走同样的解码链（JPEG通常由内嵌缩略图提供），不读写磁盘缓存
+     */
+    Bitmap decodePreview(String path, ImageSize previewSize) {
+        return bitmapResizer.resize(decoderChain.decode(path, previewSize), previewSize);
+    }
+
+    /**
+     * 按内存压力级别缩小内存缓存和Bitmap池，级别足够高时清空
+     * @param level ComponentCallbacks2中的TRIM_MEMORY_*
+     * @return 释放的字节数，其中可能有仍在显示、等ImageView不再使用后才能回收的Bitmap
+     */
+    public long trimMemory(int level) {
+        int budget;
+        synchronized (memoryBudget){
+            budget = memoryBudget.onTrimMemory(level, SystemClock.uptimeMillis());
+        }
+        long before = (long) lruCache.size() + previewCache.size() + bitmapPool.size() + encodedCache.allocatedSize();
+        applyBudget(budget);
+        long released = Math.max(0,
+                before - lruCache.size() - previewCache.size() - bitmapPool.size() - encodedCache.allocatedSize());
+        metrics.recordTrim(released);
+        Log.i(TAG, "trimMemory level=" + level + " budget=" + budget + " released=" + released);
+        return released;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    //压力过去一段时间后逐步恢复预算，在加载图片时检查
+    void restoreBudgetIfRelieved() {
+        int budget;
+        synchronized (memoryBudget){
+            budget = memoryBudget.restore(SystemClock.uptimeMillis());
+        }
+        if(budget > 0){
+            applyBudget(budget);
+        }
+    }
+
+    //先缩小内存缓存（淘汰的Bitmap会进入池中），再缩小池
+    private void applyBudget(int budget) {
+        if(budget <= 0){
+            lruCache.evictAll();
+            lruCache.resize(1);
+            previewCache.evictAll();
+            previewCache.resize(1);
+            bitmapPool.resize(0);
+            encodedCache.resize(0);
+        }else{
+            lruCache.resize(budget);
+            previewCache.resize(Math.max(1, budget / PREVIEW_CACHE_DIVISOR));
+            bitmapPool.resize(budget / 4);
+            encodedCache.resize(encodedSizeFor(budget));
+        }
+    }
+
+    private static int encodedSizeFor(int budget) {
+        return (int) ((long) budget * ENCODED_CACHE_IMAGES / ENCODED_COMPRESSION_RATIO);
+    }
+
+    //在工作线程中第一次使用时才打开，避免在UI线程读日志
+    private synchronized DiskLruCache getDiskLruCache() {
+        //释放之后还在执行的解码不再打开磁盘缓存
+        if(diskLruCache == null && diskCacheDir != null && !released){
+            try {
+                diskLruCache = DiskLruCache.open(diskCacheDir, diskCacheSize);
+            } catch (IOException e) {
+                e.printStackTrace();
+                diskCacheDir = null;    //打不开就不再尝试
+            }
+        }
+        return diskLruCache;
+    }
+
+    public int getDiskCacheHitCount() {
+        DiskLruCache cache = getDiskLruCache();
+        return cache == null ? 0 : cache.hitCount();
+    }
+
+    public int getDiskCacheMissCount() {
+        DiskLruCache cache = getDiskLruCache();
+        return cache == null ? 0 : cache.missCount();
+    }
+
+    //堆外的压缩缩略图，命中时只需要解码十几K的数据
+    private Bitmap getBitmapFromEncodedCache(String key) {
+        long start = System.nanoTime();
+        byte[] data = encodedCache.get(key);
+        Bitmap bitmap = data == null ? null : decodeEncoded(data, data.length);
+        metrics.recordTier("encoded", System.nanoTime() - start, bitmap != null);
+        return bitmap;
+    }
+
+    private Bitmap getBitmapFromDiskCache(String key) {
+        DiskLruCache cache = getDiskLruCache();
+        if(cache == null)
+            return null;
+        InputStream in = null;
+        try {
+            in = cache.get(key);
+            if(in != null){
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8 * 1024];
+                int n;
+                while((n = in.read(buffer)) != -1){
+                    out.write(buffer, 0, n);
+                }
+                byte[] data = out.toByteArray();
+                //读过一次的缩略图放到堆外，下次不用再读磁盘
+                encodedCache.put(key, data, data.length);
+                return decodeEncoded(data, data.length);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (IllegalStateException e) {
+            //解码期间缓存被release关闭了
+        } finally {
+            closeQuietly(in);
+        }
+        return null;
+    }
+
+    private Bitmap decodeEncoded(byte[] data, int length) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        //不透明的缩略图保存为JPEG，同样按策略选择格式
+        try {
+            options.inPreferredConfig = decoderChain.getConfigPolicy()
+                    .configFor(BitmapConfigPolicy.sniffMimeType(new ByteArrayInputStream(data, 0, length)));
+        } catch (IOException ignored) {
+        }
+        return BitmapFactory.decodeByteArray(data, 0, length, options);
+    }
+
+    //只压缩一次，同样的数据写入堆外缓存和磁盘缓存
+    private void addBitmapToCaches(String key, Bitmap bm) {
+        if(bm == null)
+            return;
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(16 * 1024);
+        //有透明通道的保存为PNG，其余压缩为JPEG
+        if(!bm.compress(bm.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, 90, encoded))
+            return;
+        byte[] data = encoded.toByteArray();
+        encodedCache.put(key, data, data.length);
+
+        DiskLruCache cache = getDiskLruCache();
+        if(cache == null)
+            return;
+        DiskLruCache.Editor editor = null;
+        try {
+            editor = cache.edit(key);
+            if(editor == null)
+                return;     //其他线程正在写同一个条目
+            OutputStream out = editor.newOutputStream();
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            editor.commit();
+        } catch (IOException e) {
+            e.printStackTrace();
+            if(editor != null){
+                try {
+                    editor.abort();
+                } catch (IOException ignored) {
+                }
+            }
+        } catch (IllegalStateException e) {
+            //解码期间缓存被release关闭了，这张缩略图不写入
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if(closeable != null){
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 给LoadEngine使用的引用计数：图片在放入内存缓存之前就已计数，不会在交给界面之前被复用
+     */
+    LoadEngine.Pinner<Bitmap> getBitmapPinner() {
+        return bitmapPinner;
+    }
+
+    private final LoadEngine.Pinner<Bitmap> bitmapPinner = new LoadEngine.Pinner<Bitmap>() {
+        @Override
+        public void pin(Bitmap bitmap) {
+            acquireBitmap(bitmap);
+        }
+
+        @Override
+        public void unpin(Bitmap bitmap) {
+            releaseBitmap(bitmap);
+        }
+    };
+
+    void acquireBitmap(Bitmap bitmap) {
+        if(bitmap == null)
+            return;
+        synchronized (bitmapRefLock){
+            Integer count = bitmapRefs.get(bitmap);
+            bitmapRefs.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    void releaseBitmap(Bitmap bitmap) {
+        if(bitmap == null)
+            return;
+        synchronized (bitmapRefLock){
+            Integer count = bitmapRefs.get(bitmap);
+            if(count == null)
+                return;
+            if(count > 1){
+                bitmapRefs.put(bitmap, count - 1);
+                return;
+            }
+            bitmapRefs.remove(bitmap);
+            //已经从缓存淘汰，现在也没有人显示它了
+            if(!evictedBitmaps.remove(bitmap))
+                return;
+        }
+        bitmapPool.put(bitmap);
+    }
+
+    //从内存缓存中移除的Bitmap，没有被显示时放回池中，否则等显示结束
+    private void recycleToPool(Bitmap bitmap) {
+        synchronized (bitmapRefLock){
+            if(bitmapRefs.containsKey(bitmap)){
+                evictedBitmaps.add(bitmap);
+                return;
+            }
+        }
+        bitmapPool.put(bitmap);
+    }
+}
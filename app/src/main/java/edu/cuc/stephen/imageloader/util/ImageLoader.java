@@ -1,191 +1,820 @@
 package edu.cuc.stephen.imageloader.util;
 
+import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.Message;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.Trace;
 import android.util.DisplayMetrics;
-import android.util.LruCache;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
-import java.util.LinkedList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 图片加载类
+ * 通过Builder创建，可以有多个实例：各自的线程数和调度方式互不影响，需要时共用同一个ImageCache
+ * 不再使用时调用shutdown结束线程，最后一个关闭的实例释放共用的缓存
  * Created by stephen on 15-10-13.
  */
 public class ImageLoader {
 
+    private static final String TAG = "ImageLoader";
     private static ImageLoader instance;
-    //图片缓存的核心对象
-    private LruCache<String, Bitmap> lruCache;
-    private ExecutorService threadPool;        //线程池
     private static final int DEFAULT_THREAD_COUNT = 1;
+    //网络等慢速来源在单独的IO线程中下载，不占用解码线程
+    private static final int IO_THREAD_COUNT = 2;
+    //每帧用于设置图片的时间，60fps一帧16ms，留出足够的时间给测量、布局和绘制
+    private static final int DEFAULT_FRAME_BUDGET_MILLIS = 4;
+    //渐进加载时预览图是目标尺寸的1/8
+    private static final int PREVIEW_DIVISOR = 8;
 
+    //内存缓存、磁盘缓存和解码，可能和其他实例共用
+    private final ImageCache imageCache;
+    private final LoadEngine<Bitmap> engine;
+    //渐进加载的预览图，没有开启时为null
+    private final LoadEngine<Bitmap> previewEngine;
+    private final TaskScheduler scheduler;        //任务调度和线程池
+    private final TaskScheduler ioScheduler;
+    //各阶段的耗时分布，默认关闭
+    private final LoadTracer tracer = new LoadTracer();
+    //按核数和任务构成调整解码线程数，没有开启时为null
+    private final AdaptiveParallelism adaptiveParallelism;
+    private final ThermalStatus thermalStatus = new ThermalStatus();
+
+    /**
+     * 队列调度方式，PRIORITY表示可见的格子优先，同优先级后进先出
+     */
     public enum Type{
-        FIFO, LIFO
-    }
-    private Type type = Type.LIFO; //队列调度方式
-    private LinkedList<Runnable> taskQueue;
-
-    //后台轮询线程
-    private Thread poolThread;
-    private Handler poolThreadHandler;
-    private Semaphore semaphorePoolThreadHandler = new Semaphore(0);
-    private Semaphore semaphoreThreadPool;
-    //UI线程中的Handler
-    private Handler uiHandler;
+        FIFO, LIFO, PRIORITY
+    }
+    private final Type type; //队列调度方式
+
+    //解码完成的图片攒到下一帧统一设置
+    private final FrameBatcher<ImageBeanHolder> deliveries;
+    //UI线程的Choreographer，第一次loadImage时获取
+    private volatile Choreographer choreographer;
+    //每个ImageView当前对应的请求，只在UI线程中访问；请求的回调只弱引用ImageView，结果送达后移除
+    private final Map<ImageView, ImageRequest> viewRequests = new WeakHashMap<>();
+    //每个ImageView当前对应的预览请求，只在UI线程中访问
+    private final Map<ImageView, ImageRequest> viewPreviews = new WeakHashMap<>();
+    //每个ImageView当前显示的Bitmap，只在UI线程中访问；ImageView离开窗口时释放
+    private final Map<ImageView, Bitmap> viewBitmaps = new WeakHashMap<>();
+    //已经监听了离开窗口的ImageView，只在UI线程中访问
+    private final Set<ImageView> watchedViews = Collections.newSetFromMap(new WeakHashMap<ImageView, Boolean>());
+    private volatile boolean shutdown;
+
     public ImageLoader(int threadCount, Type type) {
-        init(threadCount, type);
+        this(new Builder().threadCount(threadCount).type(type));
     }
 
-    private void init(int threadCount, Type type) {
-        //后台轮询线程
-        poolThread = new Thread(){
-            @Override
-            public void run() {
-                Looper.prepare();
-                poolThreadHandler = new Handler(){
-                    @Override
-                    public void handleMessage(Message msg) {
-                        //线程池去取出一个任务进行执行
-                        Runnable task = getTask();
-                        if(task!=null)
-                            threadPool.execute(task);
-                        try {
-                            semaphoreThreadPool.acquire();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
+    private ImageLoader(Builder builder) {
+        type = builder.type;
+        if(builder.imageCache != null){
+            imageCache = builder.imageCache;
+        }else{
+            imageCache = new ImageCache(builder.memoryCacheSize, builder.diskCacheSize);
+            if(builder.configPolicy != null){
+                imageCache.setConfigPolicy(builder.configPolicy);
+            }
+        }
+
+        imageCache.retain();
+
+        //创建调度器，工作线程直接从队列取任务；注入了Executor时在它上面运行工作线程循环
+        TaskScheduler.Type schedulerType = TaskScheduler.Type.valueOf(type.name());
+        scheduler = builder.executor != null
+                ? new TaskScheduler(builder.threadCount, schedulerType, builder.queueCapacity, builder.executor)
+                : new TaskScheduler(builder.threadCount, schedulerType, builder.queueCapacity,
+                        new WorkerThreadFactory(builder.name + "-"));
+        if(builder.adaptive){
+            int cores = Runtime.getRuntime().availableProcessors();
+            adaptiveParallelism = new AdaptiveParallelism(scheduler, cores,
+                    builder.minThreadCount > 0 ? builder.minThreadCount : 1,
+                    builder.maxThreadCount > 0 ? builder.maxThreadCount : AdaptiveParallelism.ceilingFor(cores),
+                    new AdaptiveParallelism.CpuClock() {
+                        @Override
+                        public long threadCpuNanos() {
+                            return Debug.threadCpuTimeNanos();
                         }
+                    }, thermalStatus);
+            adaptiveParallelism.attach();
+        }else{
+            adaptiveParallelism = null;
+        }
+        ioScheduler = builder.ioExecutor != null
+                ? new TaskScheduler(builder.ioThreadCount, schedulerType, builder.queueCapacity, builder.ioExecutor)
+                : new TaskScheduler(builder.ioThreadCount, schedulerType, builder.queueCapacity,
+                        new WorkerThreadFactory(builder.name + "-io-"));
+
+        engine = new LoadEngine<>(imageCache.getMemoryCache(), new LoadEngine.Decoder<Bitmap>() {
+            @Override
+            public Bitmap decode(String path, ImageSize imageSize) {
+                return imageCache.decode(path, imageSize);
+            }
+        }, scheduler, imageCache.getSourceFetcher(), ioScheduler);
+        engine.setKeyPolicy(imageCache.getCacheKeys());
+        //回调收到的图片已经计数，显示结束或丢弃时释放
+        engine.setPinner(imageCache.getBitmapPinner());
+        engine.setTracer(tracer);
+        tracer.setSections(new LoadTracer.Sections() {
+            @Override
+            public void begin(String name) {
+                Trace.beginSection(name);
+            }
+
+            @Override
+            public void end() {
+                Trace.endSection();
+            }
+        });
+        tracer.setEnabled(builder.tracing);
+        //预览图只给本地来源，网络图片的预览要等同样的下载，没有意义
+        previewEngine = !builder.progressive ? null : new LoadEngine<>(imageCache.getPreviewCache(),
+                new LoadEngine.Decoder<Bitmap>() {
+            @Override
+            public Bitmap decode(String path, ImageSize imageSize) {
+                return imageCache.decodePreview(path, imageSize);
+            }
+        }, scheduler);
+        if(previewEngine != null){
+            previewEngine.setKeyPolicy(imageCache.getCacheKeys());
+            previewEngine.setPinner(imageCache.getBitmapPinner());
+        }
+
+        deliveries = new FrameBatcher<>(new FrameBatcher.Target<ImageBeanHolder>() {
+            @Override
+            public boolean isStale(ImageBeanHolder holder) {
+                //在解码线程中调用，不能读取View；正式的图片已经完成时不再显示预览
+                return holder.fullRequest != null && holder.fullRequest.isDone();
+            }
+
+            @Override
+            public boolean isStaleOnUiThread(ImageBeanHolder holder) {
+                //将path与getTag存储路径进行比较；不在窗口中的ImageView不设置，重新进入窗口时再加载
+                return !holder.path.equals(holder.imageView.getTag())
+                        || !holder.imageView.isAttachedToWindow();
+            }
+
+            @Override
+            public void apply(ImageBeanHolder holder) {
+                if(holder.fullRequest == null){
+                    //正式的图片到了，还在排队的预览不再需要
+                    ImageRequest preview = viewPreviews.remove(holder.imageView);
+                    if(preview != null){
+                        preview.cancel();
                     }
-                };
-                //释放一个信号量
-                semaphorePoolThreadHandler.release();
-                Looper.loop();
+                }
+                showBitmap(holder.imageView, holder.bitmap);
+                forgetFinished(holder.imageView);
+                tracer.record(LoadTracer.Stage.DELIVER, holder.postedAt);
+                tracer.record(LoadTracer.Stage.TOTAL, holder.requestedAt);
             }
-        };
-        poolThread.start();
-        //获取应用的最大可用内存
-        int maxMemory = (int) Runtime.getRuntime().maxMemory();
-        int cacheMemory = maxMemory/8;
 
-        lruCache = new LruCache<String, Bitmap>(cacheMemory){
             @Override
-            protected int sizeOf(String key, Bitmap value) {
-                return value.getRowBytes()*value.getHeight();
+            public void drop(ImageBeanHolder holder) {
+                imageCache.releaseBitmap(holder.bitmap);
+                //在后台线程post时也可能直接丢弃，那时不能访问只属于UI线程的表
+                if(Looper.myLooper() == Looper.getMainLooper()){
+                    forgetFinished(holder.imageView);
+                }
             }
-        };
+        }, new FrameBatcher.FrameScheduler() {
+            @Override
+            public void scheduleFrame() {
+                choreographer.postFrameCallback(frameCallback);
+            }
+        }, TimeUnit.MILLISECONDS.toNanos(builder.frameBudgetMillis));
+    }
 
-        //创建线程池
-        threadPool = Executors.newFixedThreadPool(threadCount);
-        taskQueue = new LinkedList<>();
-        this.type = type;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if(!tracer.isEnabled()){
+                deliveries.drain();
+                return;
+            }
+            Trace.beginSection("ImageLoader:frame");
+            try {
+                deliveries.drain();
+            } finally {
+                Trace.endSection();
+            }
+        }
+    };
+
+    /**
+     * ImageLoader的配置
+     */
+    public static class Builder {
+        private int threadCount = DEFAULT_THREAD_COUNT;
+        private Type type = Type.LIFO;
+        private int ioThreadCount = IO_THREAD_COUNT;
+        private int queueCapacity = TaskScheduler.DEFAULT_CAPACITY;
+        private String name = "ImageLoader";
+        private Executor executor;
+        private Executor ioExecutor;
+        private ImageCache imageCache;
+        private int memoryCacheSize;
+        private long diskCacheSize = ImageCache.DEFAULT_DISK_CACHE_SIZE;
+        private BitmapConfigPolicy configPolicy;
+        private boolean cacheConfigured;
+        private int frameBudgetMillis = DEFAULT_FRAME_BUDGET_MILLIS;
+        private boolean progressive;
+        private boolean tracing;
+        private boolean adaptive;
+        private int minThreadCount;
+        private int maxThreadCount;
+
+        /**
+         * 解码线程数
+         */
+        public Builder threadCount(int threadCount) {
+            this.threadCount = threadCount;
+            return this;
+        }
+
+        public Builder type(Type type) {
+            this.type = type;
+            return this;
+        }
+
+        /**
+         * 下载慢速来源的线程数
+         */
+        public Builder ioThreadCount(int ioThreadCount) {
+            this.ioThreadCount = ioThreadCount;
+            return this;
+        }
+
+        /**
+         * 排队任务的上限，超出时丢弃最不紧急的任务
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
 
-        semaphoreThreadPool = new Semaphore(threadCount);
+        /**
+         * 线程名前缀，用来区分不同实例的线程
+         */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * 运行解码工作线程循环的Executor，至少要能同时运行threadCount个任务；
+         * 测试时可以传入直接执行的Executor
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * 运行下载工作线程循环的Executor，至少要能同时运行ioThreadCount个任务
+         */
+        public Builder ioExecutor(Executor ioExecutor) {
+            this.ioExecutor = ioExecutor;
+            return this;
+        }
+
+        /**
+         * 内存缓存的字节数，不设置时按设备内存计算
+         */
+        public Builder memoryCacheSize(int memoryCacheSize) {
+            this.memoryCacheSize = memoryCacheSize;
+            cacheConfigured = true;
+            return this;
+        }
+
+        public Builder diskCacheSize(long diskCacheSize) {
+            this.diskCacheSize = diskCacheSize;
+            cacheConfigured = true;
+            return this;
+        }
+
+        public Builder configPolicy(BitmapConfigPolicy configPolicy) {
+            this.configPolicy = configPolicy;
+            cacheConfigured = true;
+            return this;
+        }
+
+        /**
+         * 每帧最多用多少毫秒设置解码完成的图片，剩下的留到下一帧
+         */
+        public Builder frameBudgetMillis(int frameBudgetMillis) {
+            this.frameBudgetMillis = frameBudgetMillis;
+            return this;
+        }
+
+        /**
+         * 渐进加载：内存缓存未命中时先显示一张很小的预览图，正式的缩略图解码完成后替换它
+         * 预览先于正式的图片执行，适合LIFO和PRIORITY调度方式
+         */
+        public Builder progressive(boolean progressive) {
+            this.progressive = progressive;
+            return this;
+        }
+
+        /**
+         * 按CPU核数决定解码线程数，运行中根据解码和等待IO的比例、排队的任务数和设备温度调整，
+         * 见AdaptiveParallelism；开启后threadCount不再起作用
+         */
+        public Builder adaptiveThreads(boolean adaptive) {
+            this.adaptive = adaptive;
+            return this;
+        }
+
+        /**
+         * 自动调整时解码线程数的上下限，不设置时为1和核数的两倍
+         */
+        public Builder threadCountRange(int min, int max) {
+            this.minThreadCount = min;
+            this.maxThreadCount = max;
+            return this;
+        }
+
+        /**
+         * 开启分段计时，见LoadTracer；之后也可以用setTracingEnabled切换
+         */
+        public Builder tracing(boolean tracing) {
+            this.tracing = tracing;
+            return this;
+        }
+
+        /**
+         * 使用已有的缓存，缓存相关的配置以它为准
+         */
+        public Builder imageCache(ImageCache imageCache) {
+            this.imageCache = imageCache;
+            return this;
+        }
+
+        /**
+         * 和另一个实例共用缓存，只有调度方式和线程各自独立
+         */
+        public Builder shareCachesWith(ImageLoader other) {
+            return imageCache(other.imageCache);
+        }
+
+        public ImageLoader build() {
+            if(threadCount <= 0 || ioThreadCount <= 0){
+                throw new IllegalArgumentException("thread count must be positive");
+            }
+            if(minThreadCount < 0 || (maxThreadCount > 0 && maxThreadCount < Math.max(1, minThreadCount))){
+                throw new IllegalArgumentException("invalid thread count range");
+            }
+            if(frameBudgetMillis <= 0){
+                throw new IllegalArgumentException("frame budget must be positive");
+            }
+            if(imageCache != null && cacheConfigured){
+                throw new IllegalStateException("cache sizes and config policy belong to the shared ImageCache");
+            }
+            return new ImageLoader(this);
+        }
     }
 
-    private Runnable getTask() {
-        if(type == Type.FIFO){
-            return taskQueue.removeFirst();
-        }else if(type == Type.LIFO){
-            return taskQueue.removeLast();
+    //解码线程使用后台优先级，不和UI线程抢CPU
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final String namePrefix;
+
+        WorkerThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, namePrefix + count.incrementAndGet());
         }
-        return null;
     }
 
-    //根据path
-    public void loadImage(final String path, final ImageView imageView) {
+    /**
+     * 根据path为imageView加载图片，需要在UI线程中调用
+     * path可以是本地文件路径、file://、content://、file:///android_asset/或http(s)://；
+     * 后三种需要先调用init(Context)
+     * ImageView被复用时，它之前的请求会被取消
+     * @return 请求句柄，可以用来取消这次加载
+     */
+    public ImageRequest loadImage(final String path, final ImageView imageView) {
+        if(shutdown){
+            throw new IllegalStateException("ImageLoader has been shut down");
+        }
         imageView.setTag(path);
-        if(uiHandler==null){
-            uiHandler = new Handler(){
-                @Override
-                public void handleMessage(Message msg) {
-                    //获取得到图片，为imageView回调设置图片
-                    ImageBeanHolder holder = (ImageBeanHolder) msg.obj;
-                    Bitmap bitmap = holder.bitmap;
-                    ImageView iv = holder.imageView;
-                    String path = holder.path;
-                    //将path与getTag存储路径进行比较
-                    if(iv.getTag().toString().equals(path)){
-                        iv.setImageBitmap(bitmap);
+        if(watchedViews.add(imageView)){
+            imageView.addOnAttachStateChangeListener(viewAttachListener);
+        }
+        final long requestedAt = tracer.start();
+        if(choreographer == null){
+            choreographer = Choreographer.getInstance();
+        }
+        imageCache.restoreBudgetIfRelieved();
+        //1. 获得图片需要显示的大小
+        ImageSize imageSize = getImageViewSize(imageView);
+        //2. ImageView被复用时取消它之前的请求，还是同一张图片则继续等待
+        ImageRequest previous = viewRequests.remove(imageView);
+        ImageRequest previousPreview = viewPreviews.remove(imageView);
+        if(previous != null){
+            //等待期间工作线程可能刚读到文件版本，之前没有版本的key也算同一张图片
+            if(!previous.isDone() && !previous.isCancelled()
+                    && (previous.getKey().equals(engine.keyFor(path, imageSize))
+                    || previous.getKey().equals(LoadEngine.cacheKey(path, imageSize)))){
+                viewRequests.put(imageView, previous);
+                if(previousPreview != null){
+                    viewPreviews.put(imageView, previousPreview);
+                }
+                return previous;
+            }
+            previous.cancel();
+        }
+        if(previousPreview != null){
+            previousPreview.cancel();
+        }
+        //3. 先查内存缓存，未命中时在后台解码并加入缓存
+        //渐进加载时预览图优先，正式的图片用普通优先级
+        //回调只弱引用ImageView，Activity销毁后排队中的请求不会让它无法回收
+        final WeakReference<ImageView> viewRef = new WeakReference<>(imageView);
+        int priority = previewEngine != null ? TaskScheduler.PRIORITY_NORMAL : TaskScheduler.PRIORITY_VISIBLE;
+        final ImageRequest request = engine.load(path, imageSize, priority,
+                new LoadEngine.Callback<Bitmap>() {
+            @Override
+            public void onResult(String path, Bitmap bitmap) {
+                ImageView view = viewRef.get();
+                if(view != null){
+                    refreshBitmap(bitmap, path, view, null, requestedAt);
+                }else{
+                    imageCache.releaseBitmap(bitmap);
+                }
+            }
+        });
+        if(!request.isDone()){
+            viewRequests.put(imageView, request);
+            if(previewEngine != null && !imageCache.getSourceFetcher().needsFetch(path)){
+                ImageRequest preview = previewEngine.load(path,
+                        ImageSizer.previewSize(imageSize, PREVIEW_DIVISOR), TaskScheduler.PRIORITY_VISIBLE,
+                        new LoadEngine.Callback<Bitmap>() {
+                    @Override
+                    public void onResult(String path, Bitmap bitmap) {
+                        ImageView view = viewRef.get();
+                        if(bitmap != null && view != null){
+                            refreshBitmap(bitmap, path, view, request, 0);
+                        }else{
+                            imageCache.releaseBitmap(bitmap);
+                        }
                     }
+                });
+                if(!preview.isDone()){
+                    viewPreviews.put(imageView, preview);
                 }
-            };
-        }
-        //根据path在缓存中获取bitmap
-        final Bitmap bitmap = getBitmapFromLruCache(path);
-        if(bitmap!=null){
-            refreshBitmap(bitmap, path, imageView);
-        }else {
-            addTasks(new Runnable() {
-                @Override
-                public void run() {
-                    //加载图片
-                    //图片的压缩
-                    //1. 获得图片需要显示的大小
-                    ImageSize imageSize = getImageViewSize(imageView);
-                    //2. 压缩图片
-                    Bitmap bitmap = decodeSampledBitmapFromPath(path, imageSize);
-                    //3. 将图片加入到缓存
-                    addBitmapToLruCache(path, bitmap);
-
-                    refreshBitmap(bitmap, path, imageView);
-
-                    semaphoreThreadPool.release();
+            }
+        }
+        return request;
+    }
+
+    /**
+     * 加载并记录到group中，随group暂停、恢复和取消，见RequestGroup
+     * group暂停时只设置tag并记下来，恢复后再加载
+     * @return group暂停时返回null
+     */
+    public ImageRequest loadImage(final String path, final ImageView imageView, final RequestGroup group) {
+        //不能引用imageView，group只弱引用它
+        RequestGroup.Reload reload = new RequestGroup.Reload() {
+            @Override
+            public void reload(Object target) {
+                ImageView view = (ImageView) target;
+                //暂停期间ImageView可能已经被复用为别的图片
+                if(!shutdown && path.equals(view.getTag())){
+                    loadImage(path, view, group);
                 }
-            });
+            }
+        };
+        if(group.isPaused()){
+            if(shutdown){
+                throw new IllegalStateException("ImageLoader has been shut down");
+            }
+            cancelRequests(imageView);
+            imageView.setTag(path);
+            group.defer(imageView, reload);
+            return null;
         }
+        ImageRequest request = loadImage(path, imageView);
+        ImageRequest preview = viewPreviews.get(imageView);
+        if(preview != null){
+            group.track(imageView, reload, request, preview);
+        }else{
+            group.track(imageView, reload, request);
+        }
+        return request;
     }
 
-    private void refreshBitmap(Bitmap bitmap, String path, ImageView imageView) {
-        Message message = Message.obtain();
-        ImageBeanHolder holder = new ImageBeanHolder();
-        holder.bitmap = bitmap;
-        holder.path = path;
-        holder.imageView = imageView;
-        message.obj = holder;
-        uiHandler.sendMessage(message);
+    //显示图片，原来显示的Bitmap不再被这个ImageView使用
+    private void showBitmap(ImageView imageView, Bitmap bitmap) {
+        imageView.setImageBitmap(bitmap);
+        imageCache.releaseBitmap(viewBitmaps.put(imageView, bitmap));
     }
 
-    private void addBitmapToLruCache(String path, Bitmap bm) {
-        if(getBitmapFromLruCache(path)!=null){
-            if(bm != null){
-                lruCache.put(path, bm);
+    //ImageView离开窗口（换了Adapter、弹出窗口关闭、Activity销毁）时取消请求并释放显示的Bitmap，
+    //否则引用计数一直不为0，Bitmap既不能回收也不能回到池中；重新进入窗口时再加载
+    private final View.OnAttachStateChangeListener viewAttachListener = new View.OnAttachStateChangeListener() {
+        @Override
+        public void onViewAttachedToWindow(View v) {
+            ImageView imageView = (ImageView) v;
+            Object tag = imageView.getTag();
+            ImageRequest request = viewRequests.get(imageView);
+            boolean loading = request != null && !request.isDone() && !request.isCancelled();
+            if(!shutdown && tag instanceof String && !viewBitmaps.containsKey(imageView) && !loading){
+                loadImage((String) tag, imageView);
+            }
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View v) {
+            ImageView imageView = (ImageView) v;
+            cancelRequests(imageView);
+            Bitmap bitmap = viewBitmaps.remove(imageView);
+            if(bitmap != null){
+                //释放后可能被复用，不能再显示
+                imageView.setImageDrawable(null);
+                imageCache.releaseBitmap(bitmap);
             }
         }
+    };
+
+    //结果送达后不再记录已经结束的请求
+    private void forgetFinished(ImageView imageView) {
+        ImageRequest request = viewRequests.get(imageView);
+        if(request != null && (request.isDone() || request.isCancelled())){
+            viewRequests.remove(imageView);
+        }
+        ImageRequest preview = viewPreviews.get(imageView);
+        if(preview != null && (preview.isDone() || preview.isCancelled())){
+            viewPreviews.remove(imageView);
+        }
     }
 
-    private Bitmap decodeSampledBitmapFromPath(String path, ImageSize imageSize) {
-        //不真正加载图片来获取图片大小
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(path, options);
-        options.inSampleSize = calculateInSampleSize(options, imageSize.width, imageSize.height);
-        //使用获取到的inSampleSize再次解析图片
-        options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFile(path, options);
+    //取消ImageView当前的正式请求和预览请求
+    private void cancelRequests(ImageView imageView) {
+        ImageRequest previous = viewRequests.remove(imageView);
+        if(previous != null){
+            previous.cancel();
+        }
+        ImageRequest preview = viewPreviews.remove(imageView);
+        if(preview != null){
+            preview.cancel();
+        }
     }
 
-    private int calculateInSampleSize(BitmapFactory.Options options, int requireWidth, int requireHeight) {
-        int width = options.outWidth;
-        int height = options.outHeight;
-        int inSampleSize = 1;
-        if(width>requireWidth || height>requireHeight){
-            int widthRatio = Math.round((float)width/requireWidth);
-            int heightRatio = Math.round((float)height/requireHeight);
-            inSampleSize = Math.max(widthRatio, heightRatio);
+    /**
+     * 以低优先级把图片预加载到内存缓存和磁盘缓存中，不会占满所有工作线程；
+     * 解码线程只有一个时，预加载等到线程数增加后才执行
+     * @param imageSize 要和显示时ImageView的尺寸一致，否则缓存key对不上
+     * @return 每张需要加载的图片对应的请求，已在内存缓存中的图片不会返回
+     */
+    public List<ImageRequest> prefetch(List<String> paths, ImageSize imageSize) {
+        List<ImageRequest> requests = new ArrayList<>();
+        for(String path : paths){
+            ImageRequest request = engine.prefetch(path, imageSize);
+            if(request != null){
+                requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * 暂停开始新的解码，比如列表正在快速滑动时；已经开始的解码会继续完成
+     */
+    public void pause() {
+        scheduler.pause();
+    }
+
+    public void resume() {
+        scheduler.resume();
+    }
+
+    /**
+     * 取消这个实例中所有ImageView的请求，需要在UI线程中调用
+     */
+    public void cancelAll() {
+        for(ImageRequest request : viewRequests.values()){
+            request.cancel();
+        }
+        viewRequests.clear();
+        for(ImageRequest request : viewPreviews.values()){
+            request.cancel();
+        }
+        viewPreviews.clear();
+    }
+
+    /**
+     * 关闭，需要在UI线程中调用：取消所有请求，丢弃还没设置的图片，解码和下载线程执行完当前任务后退出；
+     * 共用的缓存在最后一个实例关闭时释放。ImageView上显示的图片交还缓存，之后可能被复用，
+     * 所以要在这些ImageView不再显示时调用。关闭后不能再调用loadImage
+     */
+    public void shutdown() {
+        if(shutdown){
+            return;
+        }
+        shutdown = true;
+        if(adaptiveParallelism != null){
+            adaptiveParallelism.detach();
+        }
+        cancelAll();
+        scheduler.shutdown();
+        ioScheduler.shutdown();
+        deliveries.clear();
+        for(Bitmap bitmap : viewBitmaps.values()){
+            imageCache.releaseBitmap(bitmap);
+        }
+        viewBitmaps.clear();
+        for(ImageView imageView : watchedViews){
+            imageView.removeOnAttachStateChangeListener(viewAttachListener);
+        }
+        watchedViews.clear();
+        imageCache.release();
+        synchronized (ImageLoader.class){
+            if(instance == this){
+                instance = null;
+            }
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * 打开大图分块显示，在IO线程中打开后回到UI线程回调，失败时回调null
+     * 图块使用这个实例的内存缓存和解码调度器
+     */
+    public void openTiledImage(final String path, final TiledImageCallback callback) {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        ioScheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                TiledImage image = null;
+                try {
+                    image = TiledImage.open(path, imageCache, scheduler);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                final TiledImage result = image;
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onOpened(result);
+                    }
+                });
+            }
+        }, TaskScheduler.PRIORITY_VISIBLE);
+    }
+
+    public interface TiledImageCallback {
+        void onOpened(TiledImage image);
+    }
+
+    public ImageCache getImageCache() {
+        return imageCache;
+    }
+
+    /**
+     * 开启磁盘缓存、其他数据来源和系统缩略图，并按设备内存计算缓存预算，见ImageCache.init
+     */
+    public void init(Context context) {
+        imageCache.init(context);
+        thermalStatus.init(context);
+    }
+
+    /**
+     * 当前的解码线程数
+     */
+    public int getThreadCount() {
+        return scheduler.getParallelism();
+    }
+
+    /**
+     * 当前缓存命中率、淘汰次数、占用字节数和平均解码耗时
+     */
+    public LoaderMetrics.Snapshot getMetrics() {
+        return imageCache.getMetrics();
+    }
+
+    public DecoderChain getDecoderChain() {
+        return imageCache.getDecoderChain();
+    }
+
+    public SourceFetcher getSourceFetcher() {
+        return imageCache.getSourceFetcher();
+    }
+
+    public void setConfigPolicy(BitmapConfigPolicy configPolicy) {
+        imageCache.setConfigPolicy(configPolicy);
+    }
+
+    /**
+     * 按文件内容共用磁盘缓存中的缩略图，见CacheKeys
+     */
+    public void setContentFingerprints(boolean enabled) {
+        imageCache.getCacheKeys().setFingerprintEnabled(enabled);
+    }
+
+    /**
+     * 开启或关闭分段计时，关闭时几乎没有开销；已经记录的数据保留
+     */
+    public void setTracingEnabled(boolean enabled) {
+        tracer.setEnabled(enabled);
+    }
+
+    public LoadTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * 排队、获取、解码、设置图片各阶段和总耗时的分布
+     */
+    public LoadTracer.Snapshot getTraceSnapshot() {
+        return tracer.snapshot();
+    }
+
+    /**
+     * 把各阶段的耗时分布输出到logcat
+     */
+    public void dumpTrace() {
+        for(LoadTracer.StageStats stats : tracer.snapshot().getStages()){
+            Log.i(TAG, stats.toString());
+        }
+    }
+
+    /**
+     * 把各阶段的耗时分布追加到文件中，方便从设备上取回
+     */
+    public void dumpTrace(File file) throws IOException {
+        Writer out = new FileWriter(file, true);
+        try {
+            tracer.dump(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public long trimMemory(int level) {
+        return imageCache.trimMemory(level);
+    }
+
+    /**
+     * @param fullRequest 是预览图时为对应的正式请求，正式请求完成后预览图不再显示；否则为null
+     * @param requestedAt 调用loadImage的时间，没有计时时为0
+     */
+    private void refreshBitmap(Bitmap bitmap, String path, ImageView imageView, ImageRequest fullRequest,
+                               long requestedAt) {
+        //bitmap在放入内存缓存之前已经由LoadEngine计数，显示之前不会被淘汰并复用
+        if(shutdown){
+            //关闭之前已经开始的解码，结果不再显示
+            imageCache.releaseBitmap(bitmap);
+            return;
+        }
+        if(Looper.myLooper() == Looper.getMainLooper()){
+            //内存缓存命中时已经在UI线程中，直接设置，不等下一帧
+            showBitmap(imageView, bitmap);
+        }else{
+            //在后台线程中只按请求状态过滤，ImageView是否被复用等到UI线程设置之前再检查
+            deliveries.post(new ImageBeanHolder(bitmap, imageView, path, fullRequest, requestedAt, tracer.start()));
         }
-        return inSampleSize;
     }
 
     //根据imageView 获取适当的压缩宽和高
-    private ImageSize getImageViewSize(ImageView imageView) {
+    public ImageSize getImageViewSize(ImageView imageView) {
         ImageSize imageSize = new ImageSize();
         ViewGroup.LayoutParams layoutParams = imageView.getLayoutParams();
         DisplayMetrics displayMetrics = imageView.getContext().getResources().getDisplayMetrics();
@@ -213,6 +842,9 @@ public class ImageLoader {
             height = displayMetrics.heightPixels;
         }
         imageSize.height = height;
+        //centerCrop时裁剪成格子的宽高比，其余按完整显示缩放
+        imageSize.scaleMode = imageView.getScaleType() == ImageView.ScaleType.CENTER_CROP
+                ? ImageSize.ScaleMode.CENTER_CROP : ImageSize.ScaleMode.FIT;
         return imageSize;
     }
 
@@ -239,37 +871,83 @@ public class ImageLoader {
         return value;
     }
 
-    private class ImageSize{
-        int width;
-        int height;
-    }
-    private synchronized void addTasks(Runnable runnable) {
-        taskQueue.add(runnable);
-        //poolThreadHandler可能为null
-        try {
-            if (poolThreadHandler == null)
-                semaphorePoolThreadHandler.acquire();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    //设备过热状态：PowerManager.getCurrentThermalStatus从API 29开始才有，通过反射调用，
+    //是跨进程调用，结果保留一段时间；更早的系统上总是返回false
+    private static class ThermalStatus implements AdaptiveParallelism.ThermalState {
+        //PowerManager.THERMAL_STATUS_MODERATE，从这一级开始系统会降频
+        private static final int THERMAL_STATUS_MODERATE = 2;
+        private static final long CHECK_INTERVAL_MS = 5000;
+
+        private volatile PowerManager powerManager;
+        private volatile Method getCurrentThermalStatus;
+        private volatile boolean throttled;
+        private volatile long lastCheck;
+
+        void init(Context context) {
+            if(powerManager != null || Build.VERSION.SDK_INT < 29){
+                return;
+            }
+            try {
+                getCurrentThermalStatus = PowerManager.class.getMethod("getCurrentThermalStatus");
+                powerManager = (PowerManager) context.getApplicationContext().getSystemService(Context.POWER_SERVICE);
+            } catch (NoSuchMethodException e) {
+                e.printStackTrace();
+            }
         }
-        poolThreadHandler.sendEmptyMessage(0x110);
-    }
 
-    private class ImageBeanHolder{
-        Bitmap bitmap;
-        ImageView imageView;
-        String path;
+        @Override
+        public boolean isThrottled() {
+            PowerManager pm = powerManager;
+            Method method = getCurrentThermalStatus;
+            if(pm == null || method == null){
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if(now - lastCheck >= CHECK_INTERVAL_MS){
+                lastCheck = now;
+                try {
+                    throttled = (Integer) method.invoke(pm) >= THERMAL_STATUS_MODERATE;
+                } catch (Exception e) {
+                    getCurrentThermalStatus = null;
+                    throttled = false;
+                }
+            }
+            return throttled;
+        }
     }
 
-    private Bitmap getBitmapFromLruCache(String key) {
-        return lruCache.get(key);
+    private static class ImageBeanHolder{
+        final Bitmap bitmap;
+        final ImageView imageView;
+        final String path;
+        final ImageRequest fullRequest;     //预览图对应的正式请求
+        final long requestedAt;             //调用loadImage和交给UI线程的时间，没有计时时为0
+        final long postedAt;
+
+        ImageBeanHolder(Bitmap bitmap, ImageView imageView, String path, ImageRequest fullRequest,
+                        long requestedAt, long postedAt) {
+            this.bitmap = bitmap;
+            this.imageView = imageView;
+            this.path = path;
+            this.fullRequest = fullRequest;
+            this.requestedAt = requestedAt;
+            this.postedAt = postedAt;
+        }
     }
 
+    /**
+     * 全局共用的实例，第一次调用时的参数生效；需要不同配置时用Builder创建
+     * 解码线程数按设备自动调整
+     */
     public static ImageLoader getInstance() {
+        return getInstance(Type.LIFO);
+    }
+
+    public static ImageLoader getInstance(Type type) {
         if(instance == null){      //为了提高效率，可以过滤后续代码
             synchronized (ImageLoader.class){   //避免两个线程同时到达这里
                 if(instance==null)
-                    instance = new ImageLoader(DEFAULT_THREAD_COUNT, Type.LIFO);
+                    instance = new Builder().type(type).adaptiveThreads(true).build();
             }
         }
         return instance;
@@ -0,0 +1,70 @@
+package edu.cuc.stephen.imageloader.util;
+
+/**
+ * 一次加载请求的句柄，loadImage返回它，可以用来取消请求
+ * 取消后不会再回调；如果同一张图片没有其他请求在等待，排队中的解码任务也会被撤销
+ */
+public class ImageRequest {
+
+    interface Canceller {
+        void onCancel(ImageRequest request);
+    }
+
+    private final String key;
+    private final String path;
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    private Canceller canceller;
+
+    ImageRequest(String key, String path) {
+        this.key = key;
+        this.path = path;
+    }
+
+    void setCanceller(Canceller canceller) {
+        this.canceller = canceller;
+    }
+
+    /**
+     * 缓存key，由路径和目标尺寸组成
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public boolean cancel() {
+        synchronized (this){
+            if(done || cancelled){
+                return false;
+            }
+            cancelled = true;
+        }
+        if(canceller != null){
+            canceller.onCancel(this);
+        }
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * 标记请求完成，已取消时返回false，调用者不应再回调
+     */
+    synchronized boolean finish() {
+        if(cancelled || done){
+            return false;
+        }
+        done = true;
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+package edu.cuc.stephen.imageloader.util;
+
+/**
+ * 图片需要显示的宽和高，以及缩放方式
+ */
+public class ImageSize {
+
+    /**
+     * 缩放方式，和ImageView的scaleType对应
+     */
+    public enum ScaleMode {
+        CENTER_CROP,    //填满目标区域，多出的部分居中裁掉
+        FIT             //完整显示在目标区域内
+    }
+
+    int width;
+    int height;
+    ScaleMode scaleMode = ScaleMode.FIT;
+
+    public ImageSize() {
+    }
+
+    public ImageSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public ImageSize(int width, int height, ScaleMode scaleMode) {
+        this.width = width;
+        this.height = height;
+        this.scaleMode = scaleMode;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public ScaleMode getScaleMode() {
+        return scaleMode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o)
+            return true;
+        if(!(o instanceof ImageSize))
+            return false;
+        ImageSize other = (ImageSize) o;
+        return width == other.width && height == other.height && scaleMode == other.scaleMode;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * width + height) + scaleMode.ordinal();
+    }
+
+    //用在缓存key中，FIT保持原来的格式
+    @Override
+    public String toString() {
+        return scaleMode == ScaleMode.CENTER_CROP ? width + "x" + height + "-crop" : width + "x" + height;
+    }
+}
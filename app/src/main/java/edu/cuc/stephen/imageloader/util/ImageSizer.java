@@ -0,0 +1,77 @@
+package edu.cuc.stephen.imageloader.util;
+
+/**
+ * 根据原图尺寸和目标尺寸计算采样率和最终尺寸
+ * 先用不小于最终尺寸的最大2的幂采样率解码，再精确缩放到最终尺寸，缓存中只保存最终尺寸的图片。
+ * 不放大：原图比目标小时保持原图的像素数。不依赖Android框架，方便在JVM中测试
+ */
+public final class ImageSizer {
+
+    private ImageSizer() {
+    }
+
+    /**
+     * 原图缩放到目标尺寸的比例，不限制放大；目标宽高无效时返回1
+     */
+    public static float scale(int srcWidth, int srcHeight, ImageSize target) {
+        if(srcWidth <= 0 || srcHeight <= 0 || target.width <= 0 || target.height <= 0){
+            return 1f;
+        }
+        float widthScale = (float) target.width / srcWidth;
+        float heightScale = (float) target.height / srcHeight;
+        return target.scaleMode == ImageSize.ScaleMode.CENTER_CROP
+                ? Math.max(widthScale, heightScale) : Math.min(widthScale, heightScale);
+    }
+
+    /**
+     * 最终保存的图片尺寸
+     * CENTER_CROP时宽高比和目标一致，FIT时和原图一致
+     */
+    public static ImageSize finalSize(int srcWidth, int srcHeight, ImageSize target) {
+        float scale = scale(srcWidth, srcHeight, target);
+        float clamped = Math.min(scale, 1f);
+        if(target.scaleMode == ImageSize.ScaleMode.CENTER_CROP && target.width > 0 && target.height > 0){
+            //原图比目标小时只保留会显示出来的区域，不放大
+            return new ImageSize(Math.max(1, Math.round(target.width * clamped / scale)),
+                    Math.max(1, Math.round(target.height * clamped / scale)), target.scaleMode);
+        }
+        return new ImageSize(Math.max(1, Math.round(srcWidth * clamped)),
+                Math.max(1, Math.round(srcHeight * clamped)), target.scaleMode);
+    }
+
+    /**
+     * 解码后宽高仍不小于最终尺寸的最大2的幂采样率
+     */
+    public static int sampleSize(int srcWidth, int srcHeight, ImageSize target) {
+        ImageSize finalSize = finalSize(srcWidth, srcHeight, target);
+        int sampleSize = 1;
+        while(srcWidth / (sampleSize * 2) >= finalSize.width && srcHeight / (sampleSize * 2) >= finalSize.height){
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 缩放到finalSize时要从 width x height 的图片中取出的区域 {left, top, right, bottom}
+     * CENTER_CROP时居中裁剪，FIT时是整张图片
+     */
+    public static int[] sourceRect(int width, int height, ImageSize finalSize) {
+        if(finalSize.scaleMode != ImageSize.ScaleMode.CENTER_CROP){
+            return new int[]{0, 0, width, height};
+        }
+        float scale = Math.max((float) finalSize.width / width, (float) finalSize.height / height);
+        int cropWidth = Math.min(width, Math.round(finalSize.width / scale));
+        int cropHeight = Math.min(height, Math.round(finalSize.height / scale));
+        int left = (width - cropWidth) / 2;
+        int top = (height - cropHeight) / 2;
+        return new int[]{left, top, left + cropWidth, top + cropHeight};
+    }
+
+    /**
+     * 渐进加载第一遍的预览尺寸：目标的1/divisor，缩放方式不变，宽高至少为1
+     */
+    public static ImageSize previewSize(ImageSize target, int divisor) {
+        return new ImageSize(Math.max(1, target.width / divisor), Math.max(1, target.height / divisor),
+                target.scaleMode);
+    }
+}
@@ -0,0 +1,25 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 图片数据的来源，比如本地文件、content://、assets、http
+ */
+public interface ImageSource {
+
+    /**
+     * 是否能打开这个路径，只根据字符串判断，不能有IO
+     */
+    boolean canOpen(String uri);
+
+    /**
+     * 是否是慢速来源；慢速来源会先在IO线程中下载到本地，再从本地解码
+     */
+    boolean isRemote();
+
+    /**
+     * 打开数据流，调用者负责关闭
+     */
+    InputStream open(String uri) throws IOException;
+}
@@ -0,0 +1,425 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 图片加载的核心流程：查内存缓存 -> （慢速来源先在IO调度器中获取）-> 提交后台任务解码 -> 写入内存缓存 -> 回调
+ * 相同路径和尺寸的并发请求共用一次解码；所有请求都取消后，排队中的解码任务会被撤销。
+ * 不依赖Android框架，B为图片类型（运行时为Bitmap），方便在JVM中测试
+ */
+public class LoadEngine<B> {
+
+    /**
+     * 在后台线程中把path解码为目标尺寸的图片，失败返回null
+     */
+    public interface Decoder<B> {
+        B decode(String path, ImageSize imageSize);
+    }
+
+    /**
+     * 慢速来源（比如网络）的获取阶段，在单独的IO调度器中执行，完成后再交给解码调度器，
+     * 这样网络再慢也不会占住解码线程
+     */
+    public interface Fetcher {
+        /**
+         * 是否需要先获取，在调用load的线程中执行，不能有IO
+         */
+        boolean needsFetch(String path);
+
+        /**
+         * 在IO线程中把数据取到本地，已经取过时直接返回true，失败返回false
+         */
+        boolean fetch(String path);
+    }
+
+    /**
+     * 内存缓存和去重使用的key，在调用load的线程中执行，不能打开文件
+     */
+    public interface KeyPolicy {
+        String keyFor(String path, ImageSize imageSize);
+    }
+
+    /**
+     * 图片的引用计数，计数不为0的图片被缓存淘汰后不能复用
+     * 设置后，图片在放入内存缓存之前就已经pin住，命中时也在确认仍在缓存中之后才交出；
+     * 每次回调收到的图片都为这次回调pin过一次，接收方不再使用时负责unpin
+     */
+    public interface Pinner<B> {
+        void pin(B bitmap);
+
+        void unpin(B bitmap);
+    }
+
+    /**
+     * 加载结果回调，缓存命中时在调用线程回调，否则在后台线程回调
+     */
+    public interface Callback<B> {
+        void onResult(String path, B bitmap);
+    }
+
+    private final MemoryCache<String, B> memoryCache;
+    private final Decoder<B> decoder;
+    private final TaskScheduler scheduler;
+    private final Fetcher fetcher;
+    private final TaskScheduler ioScheduler;
+    private volatile KeyPolicy keyPolicy;
+    //分段计时，为null时不计时
+    private volatile LoadTracer tracer;
+    private volatile Pinner<B> pinner;
+    //正在排队或解码的任务，按缓存key去重；没有全局锁，UI线程的load不会等待其他key的任务
+    private final ConcurrentMap<String, InFlight> inFlight = new ConcurrentHashMap<>(64, 0.75f, 16);
+
+    public LoadEngine(MemoryCache<String, B> memoryCache, Decoder<B> decoder, TaskScheduler scheduler) {
+        this(memoryCache, decoder, scheduler, null, null);
+    }
+
+    /**
+     * @param fetcher 为null时所有来源都直接在解码调度器中解码
+     * @param ioScheduler 执行获取阶段的调度器，和解码调度器分开限制并发数
+     */
+    public LoadEngine(MemoryCache<String, B> memoryCache, Decoder<B> decoder, TaskScheduler scheduler,
+                      Fetcher fetcher, TaskScheduler ioScheduler) {
+        this.memoryCache = memoryCache;
+        this.decoder = decoder;
+        this.scheduler = scheduler;
+        this.fetcher = fetcher;
+        this.ioScheduler = ioScheduler;
+    }
+
+    public MemoryCache<String, B> getMemoryCache() {
+        return memoryCache;
+    }
+
+    public static String cacheKey(String path, ImageSize imageSize) {
+        return path + "#" + imageSize;
+    }
+
+    /**
+     * 设置生成key的方式，为null时使用cacheKey
+     */
+    public void setKeyPolicy(KeyPolicy keyPolicy) {
+        this.keyPolicy = keyPolicy;
+    }
+
+    /**
+     * 记录排队、获取和解码三个阶段的耗时，为null时不计时
+     */
+    public void setTracer(LoadTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * 为null时回调收到的图片不做引用计数
+     */
+    public void setPinner(Pinner<B> pinner) {
+        this.pinner = pinner;
+    }
+
+    /**
+     * 请求在内存缓存中的key
+     */
+    public String keyFor(String path, ImageSize imageSize) {
+        KeyPolicy policy = keyPolicy;
+        return policy == null ? cacheKey(path, imageSize) : policy.keyFor(path, imageSize);
+    }
+
+    public B getFromMemoryCache(String path, ImageSize imageSize) {
+        return memoryCache.get(keyFor(path, imageSize));
+    }
+
+    public ImageRequest load(String path, ImageSize imageSize, Callback<B> callback) {
+        return load(path, imageSize, TaskScheduler.PRIORITY_NORMAL, callback);
+    }
+
+    /**
+     * @param priority 低优先级在所有调度方式下都排在最后，其余优先级只在 PRIORITY 方式下起作用
+     */
+    public ImageRequest load(String path, ImageSize imageSize, int priority, Callback<B> callback) {
+        String key = keyFor(path, imageSize);
+        B bitmap = getPinned(key, true);
+        if(bitmap != null){
+            PendingRequest<B> request = new PendingRequest<>(key, path, callback);
+            request.finish();
+            callback.onResult(path, bitmap);
+            return request;
+        }
+        return enqueue(key, path, imageSize, priority, callback);
+    }
+
+    /**
+     * 以低优先级把图片预加载到缓存中，不回调，也不计入缓存命中统计
+     * @return 已经在内存缓存中时返回null
+     */
+    public ImageRequest prefetch(String path, ImageSize imageSize) {
+        String key = keyFor(path, imageSize);
+        if(memoryCache.peek(key) != null){
+            return null;
+        }
+        return enqueue(key, path, imageSize, TaskScheduler.PRIORITY_LOW, new Callback<B>() {
+            @Override
+            public void onResult(String path, B bitmap) {
+                unpin(bitmap);
+            }
+        });
+    }
+
+    private ImageRequest enqueue(String key, String path, ImageSize imageSize, int priority, Callback<B> callback) {
+        PendingRequest<B> request = new PendingRequest<>(key, path, callback);
+        request.setCanceller(canceller);
+        while(true){
+            InFlight flight = inFlight.get(key);
+            if(flight == null){
+                InFlight created = new InFlight(key, path, imageSize, priority);
+                created.requests.add(request);
+                flight = inFlight.putIfAbsent(key, created);
+                if(flight == null){
+                    //只有放进表中的线程提交任务，提交时不持有任何锁
+                    created.fetching = fetcher != null && ioScheduler != null && fetcher.needsFetch(path);
+                    created.schedule(created.fetching ? ioScheduler : scheduler);
+                    return request;
+                }
+            }
+            synchronized (flight){
+                if(!flight.closed){
+                    flight.requests.add(request);
+                    //可见的格子请求了正在预加载的图片，提高排队中任务的优先级
+                    if(priority > flight.priority && !flight.started){
+                        flight.priority = priority;
+                        if(flight.task != null){
+                            flight.taskScheduler.reprioritize(flight.task, priority);
+                        }
+                    }
+                    return request;
+                }
+            }
+            //刚好已经完成或被撤销，帮它从表中移除后重试
+            inFlight.remove(key, flight);
+        }
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private final ImageRequest.Canceller canceller = new ImageRequest.Canceller() {
+        @Override
+        public void onCancel(ImageRequest request) {
+            InFlight flight = inFlight.get(request.getKey());
+            if(flight == null){
+                return;
+            }
+            TaskScheduler.Task toCancel;
+            TaskScheduler owner;
+            synchronized (flight){
+                if(flight.closed || !flight.requests.remove(request)){
+                    return;
+                }
+                //没有人等待结果并且还没开始解码，直接撤销
+                if(!flight.requests.isEmpty() || flight.started){
+                    return;
+                }
+                flight.closed = true;
+                toCancel = flight.task;
+                owner = flight.taskScheduler;
+            }
+            inFlight.remove(request.getKey(), flight);
+            //task为null时还没提交完，由schedule发现closed后撤销
+            if(toCancel != null){
+                owner.cancel(toCancel);
+            }
+        }
+    };
+
+    //从内存缓存取出并pin住；pin之前可能刚好被淘汰并放回池中，这时按未命中处理
+    private B getPinned(String key, boolean countHit) {
+        B bitmap = countHit ? memoryCache.get(key) : memoryCache.peek(key);
+        Pinner<B> p = pinner;
+        if(bitmap == null || p == null){
+            return bitmap;
+        }
+        p.pin(bitmap);
+        if(memoryCache.peek(key) != bitmap){
+            p.unpin(bitmap);
+            return null;
+        }
+        return bitmap;
+    }
+
+    private void pin(B bitmap) {
+        Pinner<B> p = pinner;
+        if(bitmap != null && p != null){
+            p.pin(bitmap);
+        }
+    }
+
+    private void unpin(B bitmap) {
+        Pinner<B> p = pinner;
+        if(bitmap != null && p != null){
+            p.unpin(bitmap);
+        }
+    }
+
+    private void addToMemoryCache(String key, B bitmap) {
+        if(bitmap != null && memoryCache.peek(key) == null){
+            memoryCache.put(key, bitmap);
+        }
+    }
+
+    private static class PendingRequest<B> extends ImageRequest {
+        final Callback<B> callback;
+
+        PendingRequest(String key, String path, Callback<B> callback) {
+            super(key, path);
+            this.callback = callback;
+        }
+    }
+
+    //一次实际的获取和解码，可能同时有多个请求在等待它
+    //状态由它自己的锁保护，不同key之间互不影响；closed之后不再接受新的请求，也不会再被放回表中
+    private class InFlight implements Runnable, TaskScheduler.Discardable {
+        final String key;
+        final String path;
+        final ImageSize imageSize;
+        final List<PendingRequest<B>> requests = new ArrayList<>();
+        TaskScheduler.Task task;        //提交完成之前为null
+        TaskScheduler taskScheduler;    //task所在的调度器
+        int priority;
+        long queuedAt;                  //提交到调度器的时间，没有计时时为0
+        boolean started;
+        boolean closed;                 //已经完成、撤销或被丢弃
+        volatile boolean fetching;      //还处在IO调度器中的获取阶段
+
+        InFlight(String key, String path, ImageSize imageSize, int priority) {
+            this.key = key;
+            this.path = path;
+            this.imageSize = imageSize;
+            this.priority = priority;
+        }
+
+        //在不持有锁的情况下提交，之后再补上task；期间优先级被提高或请求全部取消时在这里处理
+        void schedule(TaskScheduler target) {
+            int submittedPriority;
+            LoadTracer t = tracer;
+            synchronized (this){
+                taskScheduler = target;
+                submittedPriority = priority;
+                queuedAt = t == null ? 0 : t.start();
+            }
+            TaskScheduler.Task submitted = target.submit(this, submittedPriority);
+            boolean cancel;
+            synchronized (this){
+                cancel = closed;
+                if(!closed && taskScheduler == target){
+                    task = submitted;
+                    if(priority != submittedPriority && !started){
+                        target.reprioritize(submitted, priority);
+                    }
+                }
+            }
+            if(cancel){
+                target.cancel(submitted);
+            }
+        }
+
+        @Override
+        public void run() {
+            long queued;
+            synchronized (this){
+                //撤销和出队同时发生时，任务可能已经被工作线程取走
+                if(closed){
+                    return;
+                }
+                started = true;
+                queued = queuedAt;
+            }
+            LoadTracer t = tracer;
+            if(t != null){
+                t.record(LoadTracer.Stage.QUEUE, queued);
+            }
+            //排队期间可能已经有相同key的任务完成了；这次执行自己持有一个pin，回调之后释放
+            B bitmap = getPinned(key, false);
+            if(bitmap == null){
+                if(fetching){
+                    boolean fetched;
+                    long start = t == null ? 0 : t.beginSection(LoadTracer.Stage.FETCH);
+                    try {
+                        fetched = fetcher.fetch(path);
+                    } finally {
+                        if(t != null){
+                            t.endSection(LoadTracer.Stage.FETCH, start);
+                        }
+                    }
+                    if(fetched){
+                        continueWithDecode();
+                        return;
+                    }
+                    //获取失败，按解码失败回调
+                }else{
+                    long start = t == null ? 0 : t.beginSection(LoadTracer.Stage.DECODE);
+                    try {
+                        bitmap = decoder.decode(path, imageSize);
+                    } finally {
+                        if(t != null){
+                            t.endSection(LoadTracer.Stage.DECODE, start);
+                        }
+                    }
+                    //先pin再放入缓存，放入之后马上被淘汰也不会进入池中
+                    //解码时可能刚读到文件的版本，按重新生成的key放入，之后的请求都能命中
+                    pin(bitmap);
+                    addToMemoryCache(keyFor(path, imageSize), bitmap);
+                }
+            }
+            List<PendingRequest<B>> waiting = close();
+            for(PendingRequest<B> request : waiting){
+                if(request.finish()){
+                    pin(bitmap);
+                    request.callback.onResult(path, bitmap);
+                }
+            }
+            unpin(bitmap);
+        }
+
+        //获取完成后转到解码调度器重新排队，获取期间请求全部取消时不再解码
+        private void continueWithDecode() {
+            boolean abandoned;
+            synchronized (this){
+                abandoned = requests.isEmpty();
+                if(abandoned){
+                    closed = true;
+                }else{
+                    fetching = false;
+                    started = false;
+                    task = null;
+                }
+            }
+            if(abandoned){
+                inFlight.remove(key, this);
+                return;
+            }
+            schedule(scheduler);
+        }
+
+        //不再接受新的请求并从表中移除，返回正在等待的请求
+        private List<PendingRequest<B>> close() {
+            List<PendingRequest<B>> waiting;
+            synchronized (this){
+                closed = true;
+                waiting = new ArrayList<>(requests);
+            }
+            inFlight.remove(key, this);
+            return waiting;
+        }
+
+        @Override
+        public void onDiscarded() {
+            //队列满时被挤掉，等待者视为取消，重新绑定时会再次请求
+            for(PendingRequest<B> request : close()){
+                request.setCanceller(null);
+                request.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 加载过程的分段计时：每个阶段一个LatencyHistogram，用来找出滑动卡顿时时间花在了哪一段
+ * 同步的阶段（获取、解码、设置图片）同时输出Trace区段，在systrace/Perfetto中可以看到
+ * 默认关闭，关闭时每个埋点只读一次volatile，不读时钟也不分配对象
+ * 不依赖Android框架，Trace区段由ImageLoader通过Sections接入，方便在JVM中测试
+ */
+public class LoadTracer {
+
+    /**
+     * 加载的各个阶段
+     */
+    public enum Stage {
+        QUEUE("queue"),         //提交到调度器 -> 工作线程开始执行，包括等待空闲线程
+        FETCH("fetch"),         //慢速来源下载到本地
+        DECODE("decode"),       //各级缓存查找和解码
+        DELIVER("deliver"),     //解码完成 -> UI线程设置图片，包括等待下一帧
+        TOTAL("total");         //loadImage -> setImageBitmap，只统计内存缓存未命中的请求
+
+        final String label;
+        final String sectionName;
+
+        Stage(String label) {
+            this.label = label;
+            this.sectionName = "ImageLoader:" + label;
+        }
+    }
+
+    /**
+     * Trace区段的输出，同一线程中begin和end成对调用
+     */
+    public interface Sections {
+        void begin(String name);
+
+        void end();
+    }
+
+    public static final Sections NO_SECTIONS = new Sections() {
+        @Override
+        public void begin(String name) {
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private volatile boolean enabled;
+    private volatile Sections sections = NO_SECTIONS;
+
+    public LoadTracer() {
+        for(int i = 0; i < histograms.length; i++){
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setSections(Sections sections) {
+        this.sections = sections == null ? NO_SECTIONS : sections;
+    }
+
+    /**
+     * 开始计时，关闭时返回0
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 记录从start到现在的耗时；start为0（开始时还没开启）或已经关闭时忽略
+     */
+    public void record(Stage stage, long start) {
+        if(start != 0 && enabled){
+            histograms[stage.ordinal()].record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 开始一个同步阶段并输出Trace区段，关闭时返回0；要在同一线程中调用endSection
+     */
+    public long beginSection(Stage stage) {
+        if(!enabled){
+            return 0;
+        }
+        sections.begin(stage.sectionName);
+        return System.nanoTime();
+    }
+
+    public void endSection(Stage stage, long start) {
+        if(start == 0){
+            return;
+        }
+        record(stage, start);
+        //期间被关闭也要结束区段，保持配对
+        sections.end();
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void reset() {
+        for(LatencyHistogram histogram : histograms){
+            histogram.reset();
+        }
+    }
+
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        for(Stage stage : Stage.values()){
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            StageStats stats = new StageStats();
+            stats.stage = stage;
+            stats.count = histogram.getCount();
+            stats.meanMicros = histogram.getMeanMicros();
+            stats.p50Micros = histogram.getPercentileMicros(50);
+            stats.p90Micros = histogram.getPercentileMicros(90);
+            stats.p99Micros = histogram.getPercentileMicros(99);
+            stats.maxMicros = histogram.getMaxMicros();
+            snapshot.stages.add(stats);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 按行输出每个阶段的统计，可以写到logcat或文件
+     */
+    public void dump(Appendable out) throws IOException {
+        for(StageStats stats : snapshot().getStages()){
+            out.append(stats.toString()).append('\n');
+        }
+    }
+
+    /**
+     * 一个阶段的耗时统计，单位毫秒
+     */
+    public static class StageStats {
+        Stage stage;
+        long count;
+        float meanMicros;
+        long p50Micros;
+        long p90Micros;
+        long p99Micros;
+        long maxMicros;
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public float getMeanMillis() {
+            return meanMicros / 1000f;
+        }
+
+        public float getP50Millis() {
+            return p50Micros / 1000f;
+        }
+
+        public float getP90Millis() {
+            return p90Micros / 1000f;
+        }
+
+        public float getP99Millis() {
+            return p99Micros / 1000f;
+        }
+
+        public float getMaxMillis() {
+            return maxMicros / 1000f;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-8s n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                    stage.label, count, getMeanMillis(),
+                    getP50Millis(), getP90Millis(), getP99Millis(), getMaxMillis());
+        }
+    }
+
+    /**
+     * 某一时刻各阶段的统计快照
+     */
+    public static class Snapshot {
+        final List<StageStats> stages = new ArrayList<>();
+
+        public List<StageStats> getStages() {
+            return stages;
+        }
+
+        public StageStats get(Stage stage) {
+            return stages.get(stage.ordinal());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for(StageStats stats : stages){
+                sb.append(stats).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+}
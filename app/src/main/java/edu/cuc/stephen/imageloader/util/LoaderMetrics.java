@@ -0,0 +1,306 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ImageLoader的运行统计，用来根据实际数据调整缓存容量
+ */
+public class LoaderMetrics {
+
+    private final AtomicLong decodeCount = new AtomicLong();
+    private final AtomicLong decodeTimeNanos = new AtomicLong();
+    //进入缓存的图片的像素数和实际占用字节数，用来计算RGB_565节省的内存
+    private final AtomicLong bitmapCount = new AtomicLong();
+    private final AtomicLong bitmapPixels = new AtomicLong();
+    private final AtomicLong bitmapBytes = new AtomicLong();
+    //onTrimMemory的次数和释放的字节数
+    private final AtomicLong trimCount = new AtomicLong();
+    private final AtomicLong trimBytesReleased = new AtomicLong();
+    //解码链中每种解码方式的统计
+    private final ConcurrentMap<String, TierCounter> tiers = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次原图解码的耗时
+     */
+    public void recordDecode(long nanos) {
+        decodeCount.incrementAndGet();
+        decodeTimeNanos.addAndGet(nanos);
+    }
+
+    /**
+     * 记录一张将要放入缓存的图片
+     * @param bytes 按实际格式占用的字节数
+     */
+    public void recordBitmap(int pixels, int bytes) {
+        bitmapCount.incrementAndGet();
+        bitmapPixels.addAndGet(pixels);
+        bitmapBytes.addAndGet(bytes);
+    }
+
+    /**
+     * 记录一次内存压力下的缩减
+     */
+    public void recordTrim(long bytesReleased) {
+        trimCount.incrementAndGet();
+        trimBytesReleased.addAndGet(bytesReleased);
+    }
+
+    /**
+     * 记录解码链中某种解码方式的一次尝试
+     * @param served 是否由它提供了图片
+     */
+    public void recordTier(String name, long nanos, boolean served) {
+        TierCounter counter = tiers.get(name);
+        if(counter == null){
+            TierCounter created = new TierCounter();
+            counter = tiers.putIfAbsent(name, created);
+            if(counter == null){
+                counter = created;
+            }
+        }
+        counter.attemptCount.incrementAndGet();
+        counter.timeNanos.addAndGet(nanos);
+        if(served){
+            counter.servedCount.incrementAndGet();
+        }
+    }
+
+    public Snapshot snapshot(MemoryCache<?, ?> memoryCache, DiskLruCache diskLruCache) {
+        Snapshot snapshot = new Snapshot();
+        synchronized (memoryCache){
+            snapshot.memoryHitCount = memoryCache.hitCount();
+            snapshot.memoryMissCount = memoryCache.missCount();
+            snapshot.evictionCount = memoryCache.evictionCount();
+            snapshot.bytesResident = memoryCache.size();
+            snapshot.maxBytes = memoryCache.maxSize();
+        }
+        if(diskLruCache != null){
+            synchronized (diskLruCache){
+                snapshot.diskHitCount = diskLruCache.hitCount();
+                snapshot.diskMissCount = diskLruCache.missCount();
+                snapshot.diskBytes = diskLruCache.size();
+            }
+        }
+        snapshot.decodeCount = decodeCount.get();
+        snapshot.decodeTimeNanos = decodeTimeNanos.get();
+        snapshot.bitmapCount = bitmapCount.get();
+        snapshot.bitmapPixels = bitmapPixels.get();
+        snapshot.bitmapBytes = bitmapBytes.get();
+        snapshot.trimCount = trimCount.get();
+        snapshot.trimBytesReleased = trimBytesReleased.get();
+        for(Map.Entry<String, TierCounter> entry : tiers.entrySet()){
+            TierCounter counter = entry.getValue();
+            TierStats stats = new TierStats();
+            stats.name = entry.getKey();
+            stats.attemptCount = counter.attemptCount.get();
+            stats.servedCount = counter.servedCount.get();
+            stats.timeNanos = counter.timeNanos.get();
+            snapshot.tiers.add(stats);
+        }
+        return snapshot;
+    }
+
+    private static class TierCounter {
+        final AtomicLong attemptCount = new AtomicLong();
+        final AtomicLong servedCount = new AtomicLong();
+        final AtomicLong timeNanos = new AtomicLong();
+    }
+
+    /**
+     * 解码链中一种解码方式的统计
+     */
+    public static class TierStats {
+        String name;
+        long attemptCount;
+        long servedCount;
+        long timeNanos;
+
+        public String getName() {
+            return name;
+        }
+
+        public long getAttemptCount() {
+            return attemptCount;
+        }
+
+        public long getServedCount() {
+            return servedCount;
+        }
+
+        //尝试中由它提供图片的比例
+        public float getServeRate() {
+            return attemptCount == 0 ? 0f : (float) servedCount / attemptCount;
+        }
+
+        //每次尝试的平均耗时，包括没能提供图片的尝试
+        public float getAverageMillis() {
+            return attemptCount == 0 ? 0f : timeNanos / 1000000f / attemptCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s[try=%d served=%d avg=%.1fms]",
+                    name, attemptCount, servedCount, getAverageMillis());
+        }
+    }
+
+    /**
+     * 某一时刻的统计快照
+     */
+    public static class Snapshot {
+        int memoryHitCount;
+        int memoryMissCount;
+        int evictionCount;
+        int bytesResident;
+        int maxBytes;
+        int diskHitCount;
+        int diskMissCount;
+        long diskBytes;
+        long decodeCount;
+        long decodeTimeNanos;
+        int poolRequestCount;
+        int poolReuseCount;
+        int poolPutCount;
+        int poolRejectCount;
+        int poolEvictionCount;
+        int poolBytes;
+        int poolMaxBytes;
+        long bitmapCount;
+        long bitmapPixels;
+        long bitmapBytes;
+        long trimCount;
+        long trimBytesReleased;
+        final List<TierStats> tiers = new ArrayList<>();
+
+        public int getMemoryHitCount() {
+            return memoryHitCount;
+        }
+
+        public int getMemoryMissCount() {
+            return memoryMissCount;
+        }
+
+        public float getHitRate() {
+            int total = memoryHitCount + memoryMissCount;
+            return total == 0 ? 0f : (float) memoryHitCount / total;
+        }
+
+        public float getMissRate() {
+            int total = memoryHitCount + memoryMissCount;
+            return total == 0 ? 0f : (float) memoryMissCount / total;
+        }
+
+        public int getEvictionCount() {
+            return evictionCount;
+        }
+
+        public int getBytesResident() {
+            return bytesResident;
+        }
+
+        public int getMaxBytes() {
+            return maxBytes;
+        }
+
+        public int getDiskHitCount() {
+            return diskHitCount;
+        }
+
+        public int getDiskMissCount() {
+            return diskMissCount;
+        }
+
+        public long getDiskBytes() {
+            return diskBytes;
+        }
+
+        public long getDecodeCount() {
+            return decodeCount;
+        }
+
+        //每张图片的平均解码耗时
+        public float getAverageDecodeMillis() {
+            return decodeCount == 0 ? 0f : decodeTimeNanos / 1000000f / decodeCount;
+        }
+
+        public int getPoolReuseCount() {
+            return poolReuseCount;
+        }
+
+        public int getPoolPutCount() {
+            return poolPutCount;
+        }
+
+        public int getPoolRejectCount() {
+            return poolRejectCount;
+        }
+
+        public int getPoolEvictionCount() {
+            return poolEvictionCount;
+        }
+
+        public int getPoolBytes() {
+            return poolBytes;
+        }
+
+        public int getPoolMaxBytes() {
+            return poolMaxBytes;
+        }
+
+        //解码时能从池中复用到Bitmap的比例
+        public float getPoolReuseRate() {
+            return poolRequestCount == 0 ? 0f : (float) poolReuseCount / poolRequestCount;
+        }
+
+        public long getBitmapCount() {
+            return bitmapCount;
+        }
+
+        public long getBitmapBytes() {
+            return bitmapBytes;
+        }
+
+        //和全部使用ARGB_8888相比少占用的字节数
+        public long getBytesSaved() {
+            return bitmapPixels * 4 - bitmapBytes;
+        }
+
+        //同样的缓存能多放几倍的图片，全部ARGB_8888时为1，全部RGB_565时为2
+        public float getCapacityGain() {
+            return bitmapBytes == 0 ? 1f : (float) (bitmapPixels * 4) / bitmapBytes;
+        }
+
+        public long getTrimCount() {
+            return trimCount;
+        }
+
+        //所有onTrimMemory一共释放的字节数
+        public long getTrimBytesReleased() {
+            return trimBytesReleased;
+        }
+
+        public List<TierStats> getTiers() {
+            return tiers;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "memory[hit=%d miss=%d hitRate=%.2f evict=%d bytes=%d/%d] disk[hit=%d miss=%d bytes=%d] "
+                            + "decode[count=%d avg=%.1fms] config[saved=%d gain=%.2fx] "
+                            + "pool[reuseRate=%.2f put=%d reject=%d evict=%d bytes=%d/%d] trim[count=%d released=%d]",
+                    memoryHitCount, memoryMissCount, getHitRate(), evictionCount, bytesResident, maxBytes,
+                    diskHitCount, diskMissCount, diskBytes, decodeCount, getAverageDecodeMillis(),
+                    getBytesSaved(), getCapacityGain(),
+                    getPoolReuseRate(), poolPutCount, poolRejectCount, poolEvictionCount, poolBytes, poolMaxBytes,
+                    trimCount, trimBytesReleased)
+                    + " tiers" + tiers;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.provider.MediaStore;
+
+/**
+ * 使用MediaStore已经生成好的MINI_KIND缩略图（512x384左右）
+ * 只查询已有的缩略图文件，不会让系统去生成，没有时交给下一种解码方式
+ */
+public class MediaStoreThumbnailDecoder implements BitmapDecoder {
+
+    private static final int MINI_WIDTH = 512;
+    private static final int MINI_HEIGHT = 384;
+
+    private final ContentResolver contentResolver;
+
+    public MediaStoreThumbnailDecoder(Context context) {
+        contentResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    @Override
+    public String getName() {
+        return "mediastore";
+    }
+
+    @Override
+    public boolean canDecode(String path, ImageSize imageSize) {
+        //媒体库中按文件路径查询，只处理本地文件；
+        //查询之前不知道横竖，横竖两种MINI_KIND都要能覆盖目标，否则查到了也用不上，白白多两次查询
+        return path.startsWith("/")
+                && ImageSizer.scale(MINI_WIDTH, MINI_HEIGHT, imageSize) <= 1f
+                && ImageSizer.scale(MINI_HEIGHT, MINI_WIDTH, imageSize) <= 1f;
+    }
+
+    @Override
+    public Bitmap decode(String path, ImageSize imageSize, BitmapConfigPolicy configPolicy) {
+        String thumbnailPath = queryThumbnailPath(path);
+        if(thumbnailPath == null){
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(thumbnailPath, options);
+        if(ImageSizer.scale(options.outWidth, options.outHeight, imageSize) > 1f){
+            return null;
+        }
+        options.inSampleSize = ImageSizer.sampleSize(options.outWidth, options.outHeight, imageSize);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = configPolicy.configFor(options.outMimeType);
+        options.inMutable = true;
+        return BitmapFactory.decodeFile(thumbnailPath, options);
+    }
+
+    private String queryThumbnailPath(String path) {
+        long id = -1;
+        Cursor cursor = contentResolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                new String[]{MediaStore.Images.Media._ID},
+                MediaStore.Images.Media.DATA + " = ?", new String[]{path}, null);
+        if(cursor == null){
+            return null;
+        }
+        try {
+            if(cursor.moveToFirst()){
+                id = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        if(id < 0){
+            return null;
+        }
+        cursor = MediaStore.Images.Thumbnails.queryMiniThumbnail(contentResolver, id,
+                MediaStore.Images.Thumbnails.MINI_KIND, new String[]{MediaStore.Images.Thumbnails.DATA});
+        if(cursor == null){
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
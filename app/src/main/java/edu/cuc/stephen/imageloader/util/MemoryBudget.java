@@ -0,0 +1,104 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * 内存缓存的容量预算
+ * 根据onTrimMemory的级别缩小到完整预算的一部分，压力过去一段时间后再逐步翻倍恢复。
+ * 不依赖Android运行时（只用到编译期常量），方便在JVM中测试；不是线程安全的，由调用者同步
+ */
+public class MemoryBudget {
+
+    //普通设备和低内存设备上，内存缓存占memoryClass的比例
+    private static final float MEMORY_CLASS_FRACTION = 0.2f;
+    private static final float LOW_RAM_FRACTION = 0.1f;
+    //最后一次缩小之后过这么久才开始恢复，之后每隔这么久翻一倍
+    public static final long RESTORE_DELAY_MS = 30 * 1000;
+
+    private int fullSize;
+    private int currentSize;
+    private long lastChangeMillis;
+
+    public MemoryBudget(int fullSize) {
+        this.fullSize = fullSize;
+        this.currentSize = fullSize;
+    }
+
+    /**
+     * 根据ActivityManager.getMemoryClass()和isLowRamDevice()计算完整预算，不超过堆的上限
+     */
+    public static int budgetFor(int memoryClassMb, boolean lowRamDevice, long maxMemory) {
+        long memoryClassBytes = Math.min((long) memoryClassMb * 1024 * 1024, maxMemory);
+        return (int) (memoryClassBytes * (lowRamDevice ? LOW_RAM_FRACTION : MEMORY_CLASS_FRACTION));
+    }
+
+    /**
+     * 各个级别下保留完整预算的比例，0表示清空
+     */
+    public static float fractionForLevel(int level) {
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE){
+            return 0f;      //进程在后台LRU列表的中后部，随时可能被杀
+        }
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND){
+            return 0.25f;
+        }
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN){
+            return 0.5f;    //界面不可见，不需要保留一屏以上的缩略图
+        }
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL){
+            return 0.25f;
+        }
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW){
+            return 0.5f;
+        }
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE){
+            return 0.75f;
+        }
+        return 1f;
+    }
+
+    /**
+     * 修改完整预算，比如拿到Context之后按memoryClass重新计算；当前没有在缩小状态时一起修改
+     */
+    public void setFullSize(int fullSize) {
+        if(currentSize == this.fullSize){
+            currentSize = fullSize;
+        }else{
+            currentSize = Math.min(currentSize, fullSize);
+        }
+        this.fullSize = fullSize;
+    }
+
+    /**
+     * @return 收到这个级别之后的预算，只会缩小不会变大
+     */
+    public int onTrimMemory(int level, long nowMillis) {
+        int target = (int) (fullSize * fractionForLevel(level));
+        if(target < currentSize){
+            currentSize = target;
+            lastChangeMillis = nowMillis;
+        }
+        return currentSize;
+    }
+
+    /**
+     * 距离上次变化足够久时向完整预算恢复一步
+     * @return 新的预算，不需要变化时返回-1
+     */
+    public int restore(long nowMillis) {
+        if(currentSize >= fullSize || nowMillis - lastChangeMillis < RESTORE_DELAY_MS){
+            return -1;
+        }
+        currentSize = currentSize == 0 ? fullSize / 4 : Math.min(fullSize, currentSize * 2);
+        lastChangeMillis = nowMillis;
+        return currentSize;
+    }
+
+    public int getFullSize() {
+        return fullSize;
+    }
+
+    public int getCurrentSize() {
+        return currentSize;
+    }
+}
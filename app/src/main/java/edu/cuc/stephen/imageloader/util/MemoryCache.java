@@ -0,0 +1,187 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 内存LRU缓存，接口与 android.util.LruCache 保持一致
+ * 不依赖Android框架，可以直接在JVM单元测试中使用，并且可以在运行时调整容量
+ */
+public class MemoryCache<K, V> {
+
+    private final LinkedHashMap<K, V> map;
+    private int size;       //当前占用，单位由sizeOf决定
+    private int maxSize;
+
+    private int putCount;
+    private int evictionCount;
+    private int hitCount;
+    private int missCount;
+
+    public MemoryCache(int maxSize) {
+        if(maxSize <= 0){
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<>(0, 0.75f, true);
+    }
+
+    public final V get(K key) {
+        if(key == null){
+            throw new NullPointerException("key == null");
+        }
+        synchronized (this){
+            V value = map.get(key);
+            if(value != null){
+                hitCount++;
+                return value;
+            }
+            missCount++;
+            return null;
+        }
+    }
+
+    /**
+     * 与get相同，但不计入命中统计
+     */
+    public final synchronized V peek(K key) {
+        if(key == null){
+            throw new NullPointerException("key == null");
+        }
+        return map.get(key);
+    }
+
+    public final V put(K key, V value) {
+        if(key == null || value == null){
+            throw new NullPointerException("key == null || value == null");
+        }
+        V previous;
+        synchronized (this){
+            putCount++;
+            size += safeSizeOf(key, value);
+            previous = map.put(key, value);
+            if(previous != null){
+                size -= safeSizeOf(key, previous);
+            }
+        }
+        if(previous != null){
+            entryRemoved(false, key, previous, value);
+        }
+        trimToSize(maxSize);
+        return previous;
+    }
+
+    /**
+     * 按LRU顺序移除条目，直到占用不超过 maxSize
+     */
+    public void trimToSize(int maxSize) {
+        while(true){
+            K key;
+            V value;
+            synchronized (this){
+                if(size < 0 || (map.isEmpty() && size != 0)){
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+                if(size <= maxSize || map.isEmpty()){
+                    break;
+                }
+                Map.Entry<K, V> toEvict = map.entrySet().iterator().next();
+                key = toEvict.getKey();
+                value = toEvict.getValue();
+                map.remove(key);
+                size -= safeSizeOf(key, value);
+                evictionCount++;
+            }
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    public final V remove(K key) {
+        if(key == null){
+            throw new NullPointerException("key == null");
+        }
+        V previous;
+        synchronized (this){
+            previous = map.remove(key);
+            if(previous != null){
+                size -= safeSizeOf(key, previous);
+            }
+        }
+        if(previous != null){
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    /**
+     * 修改容量，缩小时立即淘汰多出的条目
+     */
+    public void resize(int maxSize) {
+        if(maxSize <= 0){
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        synchronized (this){
+            this.maxSize = maxSize;
+        }
+        trimToSize(maxSize);
+    }
+
+    /**
+     * 条目被淘汰、删除或替换时调用，调用时不持有锁
+     * @param evicted 为true表示因为空间不足被淘汰
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    /**
+     * 条目的大小，默认每个条目为1
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if(result < 0){
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    public final synchronized int size() {
+        return size;
+    }
+
+    public final synchronized int maxSize() {
+        return maxSize;
+    }
+
+    public final synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public final synchronized int missCount() {
+        return missCount;
+    }
+
+    public final synchronized int putCount() {
+        return putCount;
+    }
+
+    public final synchronized int evictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public final synchronized String toString() {
+        int accesses = hitCount + missCount;
+        int hitPercent = accesses != 0 ? (100 * hitCount / accesses) : 0;
+        return String.format("MemoryCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                maxSize, hitCount, missCount, hitPercent);
+    }
+}
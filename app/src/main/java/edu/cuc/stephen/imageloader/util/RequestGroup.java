@@ -0,0 +1,163 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 一组和界面生命周期绑定的请求，比如一个Activity、一个弹出窗口或一个Adapter中的图片
+ * 暂停时取消还没完成的请求，记住每个目标要重新加载的内容，恢复时再加载；
+ * 目标（通常是ImageView）只被弱引用，界面销毁后自动移除。
+ * 只在UI线程中使用，不依赖Android框架，方便在JVM中测试
+ */
+public class RequestGroup {
+
+    /**
+     * 恢复时重新发起请求；目标作为参数传入，实现中不能引用目标，否则弱引用的目标永远不会被回收
+     */
+    public interface Reload {
+        void reload(Object target);
+    }
+
+    private static final class Entry {
+        ImageRequest[] requests;        //暂停后为null，只剩下重新加载的任务
+        final Reload reload;
+
+        Entry(ImageRequest[] requests, Reload reload) {
+            this.requests = requests;
+            this.reload = reload;
+        }
+
+        boolean isActive() {
+            if(requests == null){
+                return false;
+            }
+            for(ImageRequest request : requests){
+                if(!request.isDone() && !request.isCancelled()){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void cancel() {
+            if(requests != null){
+                for(ImageRequest request : requests){
+                    request.cancel();
+                }
+                requests = null;
+            }
+        }
+    }
+
+    private final Map<Object, Entry> entries = new WeakHashMap<>();
+    private boolean paused;
+
+    /**
+     * 记录目标当前的请求，替换它之前的记录
+     * @param reload 暂停后恢复时重新发起请求，需要自己检查目标是否已经换成了别的内容
+     */
+    public void track(Object target, Reload reload, ImageRequest... requests) {
+        entries.put(target, new Entry(requests, reload));
+    }
+
+    /**
+     * 暂停期间的请求不发起，只记下来，恢复时再加载
+     */
+    public void defer(Object target, Reload reload) {
+        entries.put(target, new Entry(null, reload));
+    }
+
+    /**
+     * 不再跟踪这个目标，它的请求不会被取消
+     */
+    public void untrack(Object target) {
+        entries.remove(target);
+    }
+
+    /**
+     * 暂停：取消还没完成的请求，恢复时重新加载；已经完成的不再跟踪
+     */
+    public void pause() {
+        paused = true;
+        Iterator<Entry> i = entries.values().iterator();
+        while(i.hasNext()){
+            Entry entry = i.next();
+            if(entry.requests == null){
+                continue;
+            }
+            if(entry.isActive()){
+                entry.cancel();
+            }else{
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * 恢复：重新加载暂停时取消的和暂停期间推迟的请求
+     */
+    public void resume() {
+        if(!paused){
+            return;
+        }
+        paused = false;
+        List<Object> targets = new ArrayList<>();
+        List<Reload> reloads = new ArrayList<>();
+        Iterator<Map.Entry<Object, Entry>> i = entries.entrySet().iterator();
+        while(i.hasNext()){
+            Map.Entry<Object, Entry> e = i.next();
+            if(e.getValue().requests == null){
+                targets.add(e.getKey());
+                reloads.add(e.getValue().reload);
+                i.remove();
+            }
+        }
+        //重新加载时会再次track，不能在遍历时调用
+        for(int j = 0; j < reloads.size(); j++){
+            reloads.get(j).reload(targets.get(j));
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * 取消所有请求，包括暂停期间推迟的，比如弹出窗口关闭时；不改变暂停状态
+     */
+    public void cancelAll() {
+        for(Entry entry : entries.values()){
+            entry.cancel();
+        }
+        entries.clear();
+    }
+
+    /**
+     * 还没完成的请求对应的目标数
+     */
+    public int getActiveCount() {
+        int count = 0;
+        for(Entry entry : entries.values()){
+            if(entry.isActive()){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 等待恢复后重新加载的目标数
+     */
+    public int getDeferredCount() {
+        int count = 0;
+        for(Entry entry : entries.values()){
+            if(entry.requests == null){
+                count++;
+            }
+        }
+        return count;
+    }
+}
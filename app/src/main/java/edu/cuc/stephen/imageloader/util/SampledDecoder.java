@@ -0,0 +1,109 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 完整解码原图：先只读取尺寸计算采样率，再按采样率解码，尽量复用池中的Bitmap
+ * 数据流由SourceFetcher打开，只打开一次：读文件头前mark，算出采样率后reset，从同一个流解码像素，不复制到byte[]
+ * 读到的文件头记录在HeaderCache中，同一张图片再以其他尺寸解码时跳过读文件头这一遍
+ * 作为解码链最后的后备，总是可以处理
+ */
+public class SampledDecoder implements BitmapDecoder {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    //读文件头时最多缓冲的字节数，超过后reset失败，重新打开；带EXIF缩略图的JPEG文件头可能有64K
+    private static final int HEADER_MARK_LIMIT = 128 * 1024;
+
+    private final BitmapPool bitmapPool;
+    private final SourceFetcher sourceFetcher;
+    private final HeaderCache headerCache;
+
+    public SampledDecoder(BitmapPool bitmapPool, SourceFetcher sourceFetcher, HeaderCache headerCache) {
+        this.bitmapPool = bitmapPool;
+        this.sourceFetcher = sourceFetcher;
+        this.headerCache = headerCache;
+    }
+
+    @Override
+    public String getName() {
+        return "sampled";
+    }
+
+    @Override
+    public boolean canDecode(String path, ImageSize imageSize) {
+        return true;
+    }
+
+    @Override
+    public Bitmap decode(String path, ImageSize imageSize, BitmapConfigPolicy configPolicy) {
+        InputStream in = null;
+        try {
+            in = open(path);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            HeaderCache.Header header = headerCache.get(path);
+            if(header == null){
+                //不真正加载图片来获取图片大小
+                in.mark(HEADER_MARK_LIMIT);
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeStream(in, null, options);
+                header = headerCache.put(path, options.outWidth, options.outHeight, options.outMimeType);
+                if(header == null){
+                    return null;
+                }
+                try {
+                    in.reset();
+                } catch (IOException e) {
+                    //文件头超出了mark的范围，只能重新打开
+                    in.close();
+                    in = open(path);
+                }
+                options.inJustDecodeBounds = false;
+            }
+            //2的幂采样率，解码结果不小于最终尺寸，之后再精确缩放
+            int sampleSize = ImageSizer.sampleSize(header.width, header.height, imageSize);
+            options.inSampleSize = sampleSize;
+            //不透明的图片用RGB_565，内存减半
+            options.inPreferredConfig = configPolicy.configFor(header.mimeType);
+            //解码出的Bitmap以后可以放回池中复用；池中有合适的就直接解码到它里面
+            options.inMutable = true;
+            Bitmap reusable = bitmapPool.get((header.width + sampleSize - 1) / sampleSize,
+                    (header.height + sampleSize - 1) / sampleSize, options.inPreferredConfig);
+            options.inBitmap = reusable;
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapFactory.decodeStream(in, null, options);
+            } catch (IllegalArgumentException e) {
+                bitmap = null;
+            }
+            if(bitmap == null && reusable != null){
+                //复用失败时不使用inBitmap重试，流已经读完，重新打开
+                options.inBitmap = null;
+                bitmapPool.put(reusable);
+                in.close();
+                in = open(path);
+                bitmap = BitmapFactory.decodeStream(in, null, options);
+            }
+            return bitmap;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if(in != null){
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    //支持mark/reset的数据流
+    private InputStream open(String path) throws IOException {
+        return new BufferedInputStream(sourceFetcher.open(path), BUFFER_SIZE);
+    }
+}
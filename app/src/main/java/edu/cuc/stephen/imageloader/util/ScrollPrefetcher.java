@@ -0,0 +1,153 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.ImageView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 根据列表的滑动方向和速度预加载即将出现的图片
+ * 快速滑动(fling)时暂停新的解码，停下来后再恢复；预加载的范围随滑动速度变化
+ */
+public class ScrollPrefetcher implements AbsListView.OnScrollListener {
+
+    /**
+     * 提供列表每个位置对应的图片路径，还不知道时返回null
+     */
+    public interface PathSource {
+        int getCount();
+        String getPath(int position);
+    }
+
+    //按当前速度预加载这么长时间内会出现的格子
+    private static final float LOOKAHEAD_SECONDS = 0.5f;
+    //预加载范围最多为可见格子数的这么多倍
+    private static final int MAX_WINDOW_SCREENS = 3;
+
+    private final ImageLoader imageLoader;
+    private PathSource pathSource;
+
+    private int lastFirstVisible = -1;
+    private long lastScrollTime;
+    private float velocity;         //每秒滑过的格子数，向下为正
+    private int scrollState = SCROLL_STATE_IDLE;
+    //当前预加载中的请求，按路径索引
+    private Map<String, ImageRequest> prefetching = new HashMap<>();
+
+    public ScrollPrefetcher(ImageLoader imageLoader) {
+        this.imageLoader = imageLoader;
+    }
+
+    public void setPathSource(PathSource pathSource) {
+        this.pathSource = pathSource;
+        cancelPrefetch();
+        lastFirstVisible = -1;
+        velocity = 0;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        this.scrollState = scrollState;
+        if(scrollState == SCROLL_STATE_FLING){
+            //快速滑动时滑过的格子大多看不到，先不解码
+            imageLoader.pause();
+            cancelPrefetch();
+        }else{
+            imageLoader.resume();
+            if(scrollState == SCROLL_STATE_IDLE){
+                prefetch(view, view.getFirstVisiblePosition(), view.getChildCount());
+            }
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        long now = SystemClock.uptimeMillis();
+        if(firstVisibleItem != lastFirstVisible){
+            if(lastFirstVisible >= 0 && now > lastScrollTime){
+                velocity = (firstVisibleItem - lastFirstVisible) * 1000f / (now - lastScrollTime);
+            }
+            lastFirstVisible = firstVisibleItem;
+            lastScrollTime = now;
+            if(scrollState != SCROLL_STATE_FLING){
+                prefetch(view, firstVisibleItem, visibleItemCount);
+            }
+        }
+    }
+
+    private void prefetch(AbsListView view, int firstVisible, int visibleCount) {
+        if(pathSource == null || visibleCount <= 0){
+            return;
+        }
+        ImageView sample = findImageView(view.getChildAt(0));
+        if(sample == null){
+            return;
+        }
+        ImageSize imageSize = imageLoader.getImageViewSize(sample);
+
+        //速度越快看得越远，至少预加载一屏
+        int window = Math.round(Math.abs(velocity) * LOOKAHEAD_SECONDS);
+        window = Math.max(visibleCount, Math.min(window, visibleCount * MAX_WINDOW_SCREENS));
+        int start;
+        int end;
+        if(velocity >= 0){
+            start = firstVisible + visibleCount;
+            end = start + window;
+        }else{
+            end = firstVisible;
+            start = end - window;
+        }
+        start = Math.max(0, start);
+        end = Math.min(pathSource.getCount(), end);
+
+        List<String> paths = new ArrayList<>();
+        Map<String, ImageRequest> next = new HashMap<>();
+        for(int i = start; i < end; i++){
+            String path = pathSource.getPath(i);
+            if(path == null){
+                continue;       //路径还没加载出来
+            }
+            ImageRequest request = prefetching.remove(path);
+            if(request != null && !request.isDone() && !request.isCancelled()){
+                next.put(path, request);        //还在窗口内，继续加载
+            }else{
+                paths.add(path);
+            }
+        }
+        //离开窗口的预加载不再需要
+        cancelPrefetch();
+        for(ImageRequest request : imageLoader.prefetch(paths, imageSize)){
+            next.put(request.getPath(), request);
+        }
+        prefetching = next;
+    }
+
+    private void cancelPrefetch() {
+        for(ImageRequest request : prefetching.values()){
+            request.cancel();
+        }
+        prefetching.clear();
+    }
+
+    private static ImageView findImageView(View view) {
+        if(view instanceof ImageView){
+            return (ImageView) view;
+        }
+        if(view instanceof ViewGroup){
+            ViewGroup group = (ViewGroup) view;
+            for(int i = 0; i < group.getChildCount(); i++){
+                ImageView imageView = findImageView(group.getChildAt(i));
+                if(imageView != null){
+                    return imageView;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,127 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 根据路径选择数据来源并打开数据流
+ * 慢速来源在IO线程中边读边写入下载缓存，解码时再从下载缓存读取，不会把整张图片读到内存中
+ */
+public class SourceFetcher implements LoadEngine.Fetcher {
+
+    private final List<ImageSource> sources = new CopyOnWriteArrayList<>();
+    private File downloadDir;
+    private long downloadCacheSize;
+    private DiskLruCache downloadCache;
+
+    /**
+     * 后加入的来源优先匹配，可以覆盖默认的处理方式
+     */
+    public void addSource(ImageSource source) {
+        sources.add(0, source);
+    }
+
+    public ImageSource findSource(String uri) {
+        for(ImageSource source : sources){
+            if(source.canOpen(uri))
+                return source;
+        }
+        return null;
+    }
+
+    /**
+     * 设置慢速来源的下载目录，没有设置时慢速来源都会加载失败
+     */
+    public synchronized void setDownloadCache(File dir, long maxSize) {
+        if(downloadDir == null && downloadCache == null){
+            downloadDir = dir;
+            downloadCacheSize = maxSize;
+        }
+    }
+
+    //在IO线程中第一次使用时才打开
+    private synchronized DiskLruCache getDownloadCache() {
+        if(downloadCache == null && downloadDir != null){
+            try {
+                downloadCache = DiskLruCache.open(downloadDir, downloadCacheSize);
+            } catch (IOException e) {
+                e.printStackTrace();
+                downloadDir = null;
+            }
+        }
+        return downloadCache;
+    }
+
+    @Override
+    public boolean needsFetch(String uri) {
+        ImageSource source = findSource(uri);
+        return source != null && source.isRemote();
+    }
+
+    @Override
+    public boolean fetch(String uri) {
+        ImageSource source = findSource(uri);
+        DiskLruCache cache = getDownloadCache();
+        if(source == null || cache == null)
+            return false;
+        String key = DiskLruCache.hashKey(uri);
+        DiskLruCache.Editor editor = null;
+        try {
+            InputStream cached = cache.get(key);
+            if(cached != null){
+                cached.close();
+                return true;
+            }
+            editor = cache.edit(key);
+            if(editor == null)
+                return false;   //其他线程正在下载同一个地址
+            InputStream in = source.open(uri);
+            try {
+                OutputStream out = editor.newOutputStream();
+                try {
+                    byte[] buffer = new byte[8 * 1024];
+                    int n;
+                    while((n = in.read(buffer)) != -1){
+                        out.write(buffer, 0, n);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            editor.commit();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            if(editor != null){
+                try {
+                    editor.abort();
+                } catch (IOException ignored) {
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 打开数据流，慢速来源从下载缓存中读取，需要先fetch
+     */
+    public InputStream open(String uri) throws IOException {
+        ImageSource source = findSource(uri);
+        if(source == null)
+            throw new FileNotFoundException("no source for " + uri);
+        if(!source.isRemote())
+            return source.open(uri);
+        DiskLruCache cache = getDownloadCache();
+        InputStream in = cache == null ? null : cache.get(DiskLruCache.hashKey(uri));
+        if(in == null)
+            throw new FileNotFoundException("not fetched: " + uri);
+        return in;
+    }
+}
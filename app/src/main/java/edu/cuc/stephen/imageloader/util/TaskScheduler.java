@@ -0,0 +1,415 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 图片任务调度器
+ * 任务放入一个有界的有序队列，工作线程直接从队列中取任务执行，
+ * 不再需要后台轮询线程和信号量，每个请求只切换一次线程。
+ * 队列满时丢弃最不紧急的任务（即最后才会被执行的那个）。
+ * 低优先级（预加载）的任务单独排队，只有普通队列为空时才执行，
+ * 并且最多占用 parallelism-1 个工作线程，总是给可见的请求留一个线程；并发数为1时低优先级的任务直接丢弃，不会一直排着。
+ * 并发数可以在运行时调整，减少时多出的工作线程执行完当前任务后退出。
+ * 关闭后排队的任务全部丢弃，工作线程执行完当前任务后退出。
+ */
+public class TaskScheduler implements Executor {
+
+    /**
+     * 调度方式
+     * FIFO/LIFO 只按提交顺序，不区分普通和可见的优先级；
+     * PRIORITY 先按优先级，同优先级的后提交先执行（可见的格子总是最后绑定的）；
+     * 三种方式下低优先级的任务都排在最后
+     */
+    public enum Type {
+        FIFO, LIFO, PRIORITY
+    }
+
+    /**
+     * 任务因为队列已满被丢弃时，如果任务实现了这个接口就会收到通知
+     */
+    public interface Discardable {
+        void onDiscarded();
+    }
+
+    /**
+     * 每个任务执行前后在工作线程中回调，用来统计任务的耗时
+     */
+    public interface TaskObserver {
+        void beforeTask();
+
+        void afterTask();
+    }
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 5;
+    public static final int PRIORITY_VISIBLE = 10;
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Type type;
+    private final int capacity;
+    private final Executor workerExecutor;
+    private final TreeSet<Task> queue;
+    private final TreeSet<Task> lowQueue;        //低优先级任务
+    private int parallelism;
+    private volatile TaskObserver observer;
+    private int running;        //正在取任务的工作线程数
+    private int runningLow;     //正在执行低优先级任务的线程数
+    private boolean paused;
+    private boolean shutdown;
+    private long sequence;
+    private int discardedCount;
+
+    public TaskScheduler(int parallelism, Type type) {
+        this(parallelism, type, DEFAULT_CAPACITY, (ThreadFactory) null);
+    }
+
+    /**
+     * @param threadFactory 为null时使用默认的线程工厂
+     */
+    public TaskScheduler(int parallelism, Type type, int capacity, ThreadFactory threadFactory) {
+        this(parallelism, type, capacity, newWorkerPool(parallelism, threadFactory));
+    }
+
+    /**
+     * @param workerExecutor 用来运行工作线程循环的Executor，至少要能同时运行parallelism个任务
+     */
+    public TaskScheduler(int parallelism, Type type, int capacity, Executor workerExecutor) {
+        if(parallelism <= 0 || capacity <= 0){
+            throw new IllegalArgumentException("parallelism and capacity must be positive");
+        }
+        this.parallelism = parallelism;
+        this.type = type;
+        this.capacity = capacity;
+        this.workerExecutor = workerExecutor;
+        this.queue = new TreeSet<>(comparatorFor(type));
+        this.lowQueue = new TreeSet<>(comparatorFor(type));
+    }
+
+    //自己创建的线程池，调整并发数时跟着调整大小
+    private static class WorkerPool extends ThreadPoolExecutor {
+        WorkerPool(int parallelism) {
+            super(parallelism, parallelism, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        }
+
+        synchronized void resize(int parallelism) {
+            //先放大上限再放大核心数，缩小时相反
+            if(parallelism > getMaximumPoolSize()){
+                setMaximumPoolSize(parallelism);
+                setCorePoolSize(parallelism);
+            }else{
+                setCorePoolSize(parallelism);
+                setMaximumPoolSize(parallelism);
+            }
+        }
+    }
+
+    private static Executor newWorkerPool(int parallelism, ThreadFactory threadFactory) {
+        WorkerPool pool = new WorkerPool(parallelism);
+        if(threadFactory != null){
+            pool.setThreadFactory(threadFactory);
+        }
+        pool.allowCoreThreadTimeOut(true);     //空闲时不占用线程
+        return pool;
+    }
+
+    //排在前面的先执行
+    private static Comparator<Task> comparatorFor(final Type type) {
+        return new Comparator<Task>() {
+            @Override
+            public int compare(Task a, Task b) {
+                if(type == Type.PRIORITY && a.priority != b.priority){
+                    return a.priority > b.priority ? -1 : 1;
+                }
+                if(a.sequence == b.sequence){
+                    return 0;
+                }
+                boolean aFirst = type == Type.FIFO ? a.sequence < b.sequence : a.sequence > b.sequence;
+                return aFirst ? -1 : 1;
+            }
+        };
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submit(command, PRIORITY_NORMAL);
+    }
+
+    /**
+     * 提交任务，不会阻塞调用线程
+     * @return 任务句柄，可以用来取消还在排队的任务
+     */
+    public Task submit(Runnable command, int priority) {
+        if(command == null){
+            throw new NullPointerException("command == null");
+        }
+        Task task;
+        Task discarded = null;
+        int workers;
+        synchronized (this){
+            task = new Task(command, priority, sequence++);
+            if(shutdown){
+                //已经关闭，直接丢弃
+                discarded = task;
+            }else if(priority <= PRIORITY_LOW && maxLowRunning() <= 0){
+                //只有一个工作线程，预加载永远轮不到
+                discarded = task;
+                discardedCount++;
+            }else{
+                queueFor(priority).add(task);
+            }
+            if(!shutdown && queue.size() + lowQueue.size() > capacity){
+                //优先丢弃低优先级的任务
+                discarded = lowQueue.isEmpty() ? queue.pollLast() : lowQueue.pollLast();
+                discardedCount++;
+            }
+            workers = reserveWorkers();
+        }
+        if(discarded != null && discarded.command instanceof Discardable){
+            ((Discardable) discarded.command).onDiscarded();
+        }
+        startWorkers(workers);
+        return task;
+    }
+
+    /**
+     * 取消还在排队的任务
+     * @return 任务已经开始执行或已经被丢弃时返回false
+     */
+    public synchronized boolean cancel(Task task) {
+        return queueFor(task.priority).remove(task);
+    }
+
+    /**
+     * 修改还在排队的任务的优先级，比如可见的格子请求了正在预加载的图片
+     * 从低优先级队列移出时可能需要启动工作线程，否则它会一直等着
+     */
+    public boolean reprioritize(Task task, int priority) {
+        int workers;
+        synchronized (this){
+            if(task.priority == priority || !queueFor(task.priority).remove(task)){
+                return false;
+            }
+            if(priority <= PRIORITY_LOW && maxLowRunning() <= 0){
+                //降为低优先级后不会再执行，保持原来的优先级
+                queueFor(task.priority).add(task);
+                return false;
+            }
+            task.priority = priority;
+            queueFor(priority).add(task);
+            workers = reserveWorkers();
+        }
+        startWorkers(workers);
+        return true;
+    }
+
+    /**
+     * 调整并发数；增加时立即启动新的工作线程，减少时正在执行的任务继续完成
+     * 注入了workerExecutor时，它要能同时运行新的线程数
+     */
+    public void setParallelism(int parallelism) {
+        if(parallelism <= 0){
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        int workers;
+        List<Task> dropped = null;
+        synchronized (this){
+            if(this.parallelism == parallelism || shutdown){
+                return;
+            }
+            this.parallelism = parallelism;
+            if(workerExecutor instanceof WorkerPool){
+                ((WorkerPool) workerExecutor).resize(parallelism);
+            }
+            if(maxLowRunning() <= 0 && !lowQueue.isEmpty()){
+                //减到一个工作线程，排着的预加载不会再执行
+                dropped = new ArrayList<>(lowQueue);
+                discardedCount += lowQueue.size();
+                lowQueue.clear();
+            }
+            workers = reserveWorkers();
+        }
+        if(dropped != null){
+            notifyDiscarded(dropped);
+        }
+        startWorkers(workers);
+    }
+
+    public void setTaskObserver(TaskObserver observer) {
+        this.observer = observer;
+    }
+
+    /**
+     * 暂停：正在执行的任务继续完成，但不再开始新任务，比如列表快速滑动时
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        int workers;
+        synchronized (this){
+            if(!paused){
+                return;
+            }
+            paused = false;
+            workers = reserveWorkers();
+        }
+        startWorkers(workers);
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * 关闭：丢弃排队中的任务（实现了Discardable的会收到通知），之后提交的任务也直接丢弃；
+     * 正在执行的任务继续完成，然后工作线程退出，自己创建的线程池随之关闭
+     */
+    public void shutdown() {
+        List<Task> dropped;
+        synchronized (this){
+            if(shutdown){
+                return;
+            }
+            shutdown = true;
+            dropped = new ArrayList<>(queue);
+            dropped.addAll(lowQueue);
+            queue.clear();
+            lowQueue.clear();
+        }
+        notifyDiscarded(dropped);
+        if(workerExecutor instanceof WorkerPool){
+            ((WorkerPool) workerExecutor).shutdown();
+        }
+    }
+
+    private static void notifyDiscarded(List<Task> dropped) {
+        for(Task task : dropped){
+            if(task.command instanceof Discardable){
+                ((Discardable) task.command).onDiscarded();
+            }
+        }
+    }
+
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    private TreeSet<Task> queueFor(int priority) {
+        return priority <= PRIORITY_LOW ? lowQueue : queue;
+    }
+
+    //计算需要再启动几个工作线程，调用时必须持有锁
+    private int reserveWorkers() {
+        if(paused || shutdown){
+            return 0;
+        }
+        int available = queue.size() + Math.min(lowQueue.size(), maxLowRunning() - runningLow);
+        int workers = Math.max(0, Math.min(parallelism - running, available));
+        running += workers;
+        return workers;
+    }
+
+    private void startWorkers(int workers) {
+        for(int i = 0; i < workers; i++){
+            workerExecutor.execute(worker);
+        }
+    }
+
+    private int maxLowRunning() {
+        return parallelism - 1;
+    }
+
+    private final Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+            boolean low = false;
+            while(true){
+                Task task;
+                synchronized (TaskScheduler.this){
+                    if(low){
+                        runningLow--;
+                    }
+                    //并发数减少了，多出的线程退出
+                    if(running > parallelism){
+                        running--;
+                        return;
+                    }
+                    task = paused ? null : queue.pollFirst();
+                    low = false;
+                    if(task == null && !paused && runningLow < maxLowRunning()){
+                        task = lowQueue.pollFirst();
+                        low = task != null;
+                    }
+                    if(task == null){
+                        running--;
+                        return;
+                    }
+                    if(low){
+                        runningLow++;
+                    }
+                }
+                TaskObserver o = observer;
+                if(o != null){
+                    o.beforeTask();
+                }
+                try {
+                    task.command.run();
+                } catch (RuntimeException e) {
+                    //单个任务出错不影响工作线程继续取任务
+                    e.printStackTrace();
+                }
+                if(o != null){
+                    o.afterTask();
+                }
+            }
+        }
+    };
+
+    public synchronized int getQueueSize() {
+        return queue.size() + lowQueue.size();
+    }
+
+    public synchronized int getDiscardedCount() {
+        return discardedCount;
+    }
+
+    public synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * 正在执行任务的工作线程数
+     */
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * 队列中的任务
+     */
+    public static final class Task {
+        final Runnable command;
+        int priority;
+        final long sequence;
+
+        Task(Runnable command, int priority, long sequence) {
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+}
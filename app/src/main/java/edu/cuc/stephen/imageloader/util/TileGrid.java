@@ -0,0 +1,159 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 大图分块：按缩放比例选择采样率，把原图切成解码后约为tileSize像素的图块，计算覆盖可见区域的图块
+ * 不依赖Android框架，方便在JVM中测试
+ */
+public final class TileGrid {
+
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int tileSize;
+
+    /**
+     * @param tileSize 解码后图块的边长（像素），图块在原图中的边长为 tileSize * 采样率
+     */
+    public TileGrid(int imageWidth, int imageHeight, int tileSize) {
+        if(imageWidth <= 0 || imageHeight <= 0 || tileSize <= 0){
+            throw new IllegalArgumentException("invalid grid " + imageWidth + "x" + imageHeight + "/" + tileSize);
+        }
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.tileSize = tileSize;
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    /**
+     * 显示比例（屏幕像素/原图像素）对应的采样率：解码后的像素不少于屏幕像素的最大2的幂
+     */
+    public static int sampleSizeForScale(float scale) {
+        int sampleSize = 1;
+        if(scale <= 0){
+            return sampleSize;
+        }
+        while(sampleSize * 2 * scale <= 1f){
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 整张图片按比例缩放到不超过 maxWidth x maxHeight 时的显示比例
+     */
+    public float fitScale(int maxWidth, int maxHeight) {
+        return Math.min((float) maxWidth / imageWidth, (float) maxHeight / imageHeight);
+    }
+
+    /**
+     * 覆盖原图中[left, right) x [top, bottom)区域的图块，离区域中心近的在前，平移时先出现在屏幕中间
+     * @param margin 区域外再多取几圈图块，提前解码即将移入的部分
+     */
+    public List<Tile> tilesFor(int sampleSize, int left, int top, int right, int bottom, int margin) {
+        int span = tileSize * sampleSize;
+        int columns = (imageWidth + span - 1) / span;
+        int rows = (imageHeight + span - 1) / span;
+        int firstColumn = Math.max(0, Math.max(0, left) / span - margin);
+        int firstRow = Math.max(0, Math.max(0, top) / span - margin);
+        int lastColumn = Math.min(columns - 1, (Math.min(imageWidth, right) - 1) / span + margin);
+        int lastRow = Math.min(rows - 1, (Math.min(imageHeight, bottom) - 1) / span + margin);
+        List<Tile> tiles = new ArrayList<>();
+        for(int row = firstRow; row <= lastRow; row++){
+            for(int column = firstColumn; column <= lastColumn; column++){
+                int tileLeft = column * span;
+                int tileTop = row * span;
+                Tile tile = new Tile(sampleSize, column, row, tileLeft, tileTop,
+                        Math.min(imageWidth, tileLeft + span), Math.min(imageHeight, tileTop + span));
+                tile.visible = tile.right > left && tile.left < right && tile.bottom > top && tile.top < bottom;
+                tiles.add(tile);
+            }
+        }
+        final float centerX = (left + right) / 2f;
+        final float centerY = (top + bottom) / 2f;
+        Collections.sort(tiles, new Comparator<Tile>() {
+            @Override
+            public int compare(Tile a, Tile b) {
+                if(a.visible != b.visible){
+                    return a.visible ? -1 : 1;
+                }
+                return Float.compare(a.distanceSquared(centerX, centerY), b.distanceSquared(centerX, centerY));
+            }
+        });
+        return tiles;
+    }
+
+    /**
+     * 按sampleSize整张解码的图块，作为图块还没解码出来时的底图
+     */
+    public Tile wholeImage(int sampleSize) {
+        Tile tile = new Tile(sampleSize, -1, -1, 0, 0, imageWidth, imageHeight);
+        tile.visible = true;
+        return tile;
+    }
+
+    /**
+     * 一个图块：原图中的区域和解码时的采样率
+     */
+    public static final class Tile {
+        public final int sampleSize;
+        public final int column;
+        public final int row;
+        //原图中的区域
+        public final int left;
+        public final int top;
+        public final int right;
+        public final int bottom;
+        boolean visible;        //是否在可见区域内，否则是预先解码的外圈
+
+        Tile(int sampleSize, int column, int row, int left, int top, int right, int bottom) {
+            this.sampleSize = sampleSize;
+            this.column = column;
+            this.row = row;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        public boolean isVisible() {
+            return visible;
+        }
+
+        /**
+         * 解码后的尺寸
+         */
+        public ImageSize getDecodedSize() {
+            return new ImageSize((right - left + sampleSize - 1) / sampleSize,
+                    (bottom - top + sampleSize - 1) / sampleSize);
+        }
+
+        /**
+         * 图块在内存缓存中使用的路径，和原图的缩略图区分开
+         */
+        public String pathFor(String imagePath) {
+            return imagePath + "@tile/" + sampleSize + "/" + column + "," + row;
+        }
+
+        float distanceSquared(float x, float y) {
+            float dx = (left + right) / 2f - x;
+            float dy = (top + bottom) / 2f - y;
+            return dx * dx + dy * dy;
+        }
+
+        @Override
+        public String toString() {
+            return "Tile{" + sampleSize + "/" + column + "," + row + "}";
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 分块显示的大图：只解码当前缩放比例下可见的图块，不分配整张原图的Bitmap
+ * 图块以单独的key放在ImageLoader的内存缓存中，解码任务经过ImageLoader的调度器，可见区域中心的图块先解码
+ * 通过ImageLoader.openTiledImage获得，不再使用时调用close
+ */
+public class TiledImage {
+
+    //解码后图块的边长
+    public static final int TILE_SIZE = 512;
+    //可见区域外预先解码的图块圈数
+    private static final int MARGIN = 1;
+    //底图的长边不超过这个像素数
+    private static final int BASE_MAX_SIDE = 1024;
+    //读文件头时最多缓冲的字节数
+    private static final int HEADER_MARK_LIMIT = 128 * 1024;
+
+    /**
+     * 图块解码完成，在UI线程中回调，通常在这里invalidate
+     */
+    public interface Listener {
+        void onTileLoaded();
+    }
+
+    private final String path;
+    //图块key使用带版本的路径，原图被修改后不会再用到旧的图块
+    private final String versionedPath;
+    private final BitmapRegionDecoder regionDecoder;
+    private final ImageCache imageCache;
+    private final TaskScheduler.Type schedulerType;
+    private final LoadEngine<Bitmap> engine;
+    private final Bitmap.Config config;
+    private final TileGrid grid;
+    private final TileGrid.Tile base;
+    //正在解码的图块的路径 -> 图块，解码器按路径找到原图中的区域
+    private final Map<String, TileGrid.Tile> tilesByPath = new ConcurrentHashMap<>();
+    //当前需要的图块的请求，只在UI线程中访问
+    private final Map<String, ImageRequest> requests = new HashMap<>();
+    //已经解码、正在显示的图块，持有引用计数，避免显示期间被淘汰后复用
+    //只在UI线程中放入和移除，onDraw正在绘制的图块不会被放回池中
+    private final Map<String, Bitmap> held = new HashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile Listener listener;
+    private volatile boolean closed;
+    private List<TileGrid.Tile> currentTiles = Collections.emptyList();
+
+    TiledImage(String path, String versionedPath, BitmapRegionDecoder regionDecoder, String mimeType,
+               ImageCache imageCache, TaskScheduler scheduler) {
+        this.path = path;
+        this.versionedPath = versionedPath;
+        this.regionDecoder = regionDecoder;
+        this.imageCache = imageCache;
+        this.schedulerType = scheduler.getType();
+        this.config = imageCache.getDecoderChain().getConfigPolicy().configFor(mimeType);
+        this.grid = new TileGrid(regionDecoder.getWidth(), regionDecoder.getHeight(), TILE_SIZE);
+        this.base = grid.wholeImage(TileGrid.sampleSizeForScale(grid.fitScale(BASE_MAX_SIDE, BASE_MAX_SIDE)));
+        this.engine = new LoadEngine<>(imageCache.getMemoryCache(), new LoadEngine.Decoder<Bitmap>() {
+            @Override
+            public Bitmap decode(String tilePath, ImageSize imageSize) {
+                TileGrid.Tile tile = tilesByPath.get(tilePath);
+                return tile == null || closed ? null : decodeTile(tile, imageSize);
+            }
+        }, scheduler);
+        //回调收到的图块已经计数，放入held后由releaseBitmap释放
+        this.engine.setPinner(imageCache.getBitmapPinner());
+    }
+
+    /**
+     * 在后台线程中打开：本地文件按文件描述符读取，其他来源从SourceFetcher读取（网络图片需要已经下载）；都只打开一次
+     */
+    static TiledImage open(String path, ImageCache imageCache, TaskScheduler scheduler) throws IOException {
+        SourceFetcher sourceFetcher = imageCache.getSourceFetcher();
+        if(sourceFetcher.needsFetch(path) && !sourceFetcher.fetch(path)){
+            throw new IOException("cannot fetch " + path);
+        }
+        //列表中已经解码过的图片直接使用记录的文件头
+        HeaderCache headerCache = imageCache.getHeaderCache();
+        HeaderCache.Header header = headerCache.get(path);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapRegionDecoder regionDecoder;
+        if(path.startsWith("/")){
+            //读文件头不改变描述符的位置，BitmapRegionDecoder接着使用同一个描述符，不会把整个文件复制到内存
+            FileInputStream in = new FileInputStream(path);
+            try {
+                if(header == null){
+                    BitmapFactory.decodeFileDescriptor(in.getFD(), null, options);
+                }
+                regionDecoder = BitmapRegionDecoder.newInstance(in.getFD(), false);
+            } finally {
+                in.close();
+            }
+        }else{
+            //只打开一次：读完文件头后reset，再交给BitmapRegionDecoder
+            InputStream in = new BufferedInputStream(sourceFetcher.open(path));
+            try {
+                if(header == null){
+                    in.mark(HEADER_MARK_LIMIT);
+                    BitmapFactory.decodeStream(in, null, options);
+                    try {
+                        in.reset();
+                    } catch (IOException e) {
+                        in.close();
+                        in = sourceFetcher.open(path);
+                    }
+                }
+                regionDecoder = BitmapRegionDecoder.newInstance(in, false);
+            } finally {
+                in.close();
+            }
+        }
+        if(regionDecoder == null){
+            throw new IOException("unsupported image " + path);
+        }
+        if(header == null){
+            header = headerCache.put(path, regionDecoder.getWidth(), regionDecoder.getHeight(), options.outMimeType);
+        }
+        return new TiledImage(path, imageCache.getCacheKeys().versioned(path), regionDecoder,
+                header == null ? null : header.mimeType, imageCache, scheduler);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getWidth() {
+        return grid.getImageWidth();
+    }
+
+    public int getHeight() {
+        return grid.getImageHeight();
+    }
+
+    public TileGrid getGrid() {
+        return grid;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 在UI线程中调用：可见区域或缩放比例变化后，请求新需要的图块，取消不再需要的
+     * @param left,top,right,bottom 可见区域在原图中的坐标
+     * @param scale 显示比例，屏幕像素/原图像素
+     */
+    public void setViewport(int left, int top, int right, int bottom, float scale) {
+        if(closed){
+            return;
+        }
+        int sampleSize = TileGrid.sampleSizeForScale(scale);
+        List<TileGrid.Tile> tiles = new ArrayList<>();
+        //底图已经足够清晰时不需要图块
+        if(sampleSize < base.sampleSize){
+            tiles.addAll(grid.tilesFor(sampleSize, left, top, right, bottom, MARGIN));
+        }
+        tiles.add(0, base);
+
+        Map<String, TileGrid.Tile> wanted = new HashMap<>();
+        for(TileGrid.Tile tile : tiles){
+            wanted.put(tile.pathFor(versionedPath), tile);
+        }
+        for(String tilePath : new ArrayList<>(requests.keySet())){
+            if(!wanted.containsKey(tilePath)){
+                requests.remove(tilePath).cancel();
+                tilesByPath.remove(tilePath);
+            }
+        }
+        for(String tilePath : new ArrayList<>(held.keySet())){
+            if(!wanted.containsKey(tilePath)){
+                imageCache.releaseBitmap(held.remove(tilePath));
+            }
+        }
+        currentTiles = tiles;
+
+        //LIFO时后提交的先执行，所以按离中心从远到近提交；FIFO相反
+        int count = tiles.size();
+        for(int i = 0; i < count; i++){
+            TileGrid.Tile tile = tiles.get(schedulerType == TaskScheduler.Type.FIFO ? i : count - 1 - i);
+            String tilePath = tile.pathFor(versionedPath);
+            if(held.containsKey(tilePath) || requests.containsKey(tilePath)){
+                continue;
+            }
+            tilesByPath.put(tilePath, tile);
+            int priority = tile.isVisible() ? TaskScheduler.PRIORITY_VISIBLE : TaskScheduler.PRIORITY_NORMAL;
+            ImageRequest request = engine.load(tilePath, tile.getDecodedSize(), priority, tileCallback);
+            if(!request.isDone()){
+                requests.put(tilePath, request);
+            }
+        }
+    }
+
+    /**
+     * 当前需要绘制的图块，第一个是底图
+     */
+    public List<TileGrid.Tile> getTiles() {
+        return currentTiles;
+    }
+
+    /**
+     * 图块已经解码完成时返回它的Bitmap，否则返回null
+     */
+    public Bitmap getTileBitmap(TileGrid.Tile tile) {
+        return held.get(tile.pathFor(versionedPath));
+    }
+
+    /**
+     * 在UI线程中调用
+     */
+    public void close() {
+        closed = true;
+        for(Bitmap bitmap : held.values()){
+            imageCache.releaseBitmap(bitmap);
+        }
+        held.clear();
+        for(ImageRequest request : requests.values()){
+            request.cancel();
+        }
+        requests.clear();
+        regionDecoder.recycle();
+    }
+
+    private final LoadEngine.Callback<Bitmap> tileCallback = new LoadEngine.Callback<Bitmap>() {
+        @Override
+        public void onResult(final String tilePath, final Bitmap bitmap) {
+            tilesByPath.remove(tilePath);
+            if(bitmap == null){
+                return;
+            }
+            //缓存命中时已经在UI线程中；解码完成的图块转到UI线程再替换，旧的图块等不再绘制后才释放
+            if(Looper.myLooper() == Looper.getMainLooper()){
+                showTile(tilePath, bitmap);
+            }else{
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        showTile(tilePath, bitmap);
+                    }
+                });
+            }
+        }
+    };
+
+    //在UI线程中执行；已经close时直接释放
+    private void showTile(String tilePath, Bitmap bitmap) {
+        if(closed){
+            imageCache.releaseBitmap(bitmap);
+            return;
+        }
+        imageCache.releaseBitmap(held.put(tilePath, bitmap));
+        Listener l = listener;
+        if(l != null){
+            l.onTileLoaded();
+        }
+    }
+
+    private Bitmap decodeTile(TileGrid.Tile tile, ImageSize size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = tile.sampleSize;
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+        //图块大小基本一致，池中的Bitmap调整尺寸后直接作为解码目标
+        Bitmap reusable = imageCache.getBitmapPool().get(size.width, size.height, config);
+        if(reusable != null){
+            try {
+                reusable.reconfigure(size.width, size.height, config);
+                reusable.eraseColor(Color.TRANSPARENT);
+                options.inBitmap = reusable;
+            } catch (IllegalArgumentException e) {
+                imageCache.getBitmapPool().put(reusable);
+            }
+        }
+        Rect rect = new Rect(tile.left, tile.top, tile.right, tile.bottom);
+        try {
+            try {
+                return regionDecoder.decodeRegion(rect, options);
+            } catch (IllegalArgumentException e) {
+                if(options.inBitmap == null){
+                    return null;
+                }
+                //复用失败时不使用inBitmap重试
+                imageCache.getBitmapPool().put(options.inBitmap);
+                options.inBitmap = null;
+                return regionDecoder.decodeRegion(rect, options);
+            }
+        } catch (IllegalStateException e) {
+            //解码期间已经close
+            return null;
+        }
+    }
+}
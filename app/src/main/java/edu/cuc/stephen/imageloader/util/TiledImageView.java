@@ -0,0 +1,164 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import java.util.List;
+
+/**
+ * 显示TiledImage，支持拖动和双指缩放；每次位置或比例变化后只请求可见的图块
+ */
+public class TiledImageView extends View implements TiledImage.Listener {
+
+    //最多放大到原图像素的几倍
+    private static final float MAX_SCALE = 4f;
+
+    private TiledImage image;
+    //显示比例（屏幕像素/原图像素）和原图左上角在View中的位置
+    private float scale;
+    private float minScale;
+    private float translateX;
+    private float translateY;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF dst = new RectF();
+    private final GestureDetector gestureDetector;
+    private final ScaleGestureDetector scaleGestureDetector;
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                translateX -= distanceX;
+                translateY -= distanceY;
+                updateViewport();
+                return true;
+            }
+        });
+        scaleGestureDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                float newScale = Math.max(minScale, Math.min(MAX_SCALE, scale * detector.getScaleFactor()));
+                float factor = newScale / scale;
+                //以双指中点为中心缩放
+                translateX = detector.getFocusX() - (detector.getFocusX() - translateX) * factor;
+                translateY = detector.getFocusY() - (detector.getFocusY() - translateY) * factor;
+                scale = newScale;
+                updateViewport();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 设置要显示的图片，原来的图片由调用者close
+     */
+    public void setImage(TiledImage image) {
+        if(this.image != null){
+            this.image.setListener(null);
+        }
+        this.image = image;
+        if(image != null){
+            image.setListener(this);
+            fitToView();
+        }
+        invalidate();
+    }
+
+    public TiledImage getImage() {
+        return image;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        fitToView();
+    }
+
+    //整张图片居中显示
+    private void fitToView() {
+        if(image == null || getWidth() == 0 || getHeight() == 0){
+            return;
+        }
+        minScale = Math.min(1f, image.getGrid().fitScale(getWidth(), getHeight()));
+        scale = minScale;
+        translateX = (getWidth() - image.getWidth() * scale) / 2;
+        translateY = (getHeight() - image.getHeight() * scale) / 2;
+        updateViewport();
+    }
+
+    //限制拖动范围，再把可见区域换算成原图坐标交给TiledImage
+    private void updateViewport() {
+        if(image == null){
+            return;
+        }
+        translateX = clampTranslation(translateX, image.getWidth() * scale, getWidth());
+        translateY = clampTranslation(translateY, image.getHeight() * scale, getHeight());
+        int left = (int) Math.floor(-translateX / scale);
+        int top = (int) Math.floor(-translateY / scale);
+        int right = (int) Math.ceil((getWidth() - translateX) / scale);
+        int bottom = (int) Math.ceil((getHeight() - translateY) / scale);
+        image.setViewport(left, top, right, bottom, scale);
+        invalidate();
+    }
+
+    //图片比View小时居中，否则不能拖出空白
+    private static float clampTranslation(float translation, float content, float view) {
+        if(content <= view){
+            return (view - content) / 2;
+        }
+        return Math.max(view - content, Math.min(0, translation));
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = scaleGestureDetector.onTouchEvent(event);
+        if(!scaleGestureDetector.isInProgress()){
+            handled = gestureDetector.onTouchEvent(event) || handled;
+        }
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if(image == null){
+            return;
+        }
+        //先画底图，再画清晰的图块；还没解码出来的图块处露出底图
+        List<TileGrid.Tile> tiles = image.getTiles();
+        for(TileGrid.Tile tile : tiles){
+            Bitmap bitmap = image.getTileBitmap(tile);
+            if(bitmap == null){
+                continue;
+            }
+            dst.set(translateX + tile.left * scale, translateY + tile.top * scale,
+                    translateX + tile.right * scale, translateY + tile.bottom * scale);
+            if(dst.right < 0 || dst.bottom < 0 || dst.left > getWidth() || dst.top > getHeight()){
+                continue;
+            }
+            canvas.drawBitmap(bitmap, null, dst, paint);
+        }
+    }
+
+    @Override
+    public void onTileLoaded() {
+        invalidate();
+    }
+}
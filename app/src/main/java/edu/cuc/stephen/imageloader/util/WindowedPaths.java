@@ -0,0 +1,203 @@
+package edu.cuc.stephen.imageloader.util;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * 按窗口分段加载的路径列表：只在内存中保留最近用到的几段，几万张图片的文件夹也不用一次读出全部路径
+ * 数据由Source在后台线程中按段读取，读好的路径直接交给ImageLoader，绑定时不再拼接字符串
+ * 除Source的方法外都在UI线程中调用；不依赖Android框架，方便在JVM中测试
+ */
+public class WindowedPaths implements ScrollPrefetcher.PathSource {
+
+    /**
+     * 数据来源，所有方法都在后台线程中按顺序调用
+     */
+    public interface Source {
+        /**
+         * 准备数据，返回总数，失败时返回-1
+         */
+        int open();
+
+        /**
+         * 读取从offset开始的最多count个路径
+         */
+        String[] read(int offset, int count);
+
+        void close();
+    }
+
+    /**
+     * 总数或已加载的路径有变化，在UI线程中回调
+     */
+    public interface Listener {
+        void onChanged();
+    }
+
+    private final Source source;
+    private final int windowSize;
+    //后台线程需要是单线程的，保证open在read之前、close在最后
+    private final Executor background;
+    private final Executor mainThread;
+    //最近用到的几段，按使用顺序淘汰；段数很少，直接用数组
+    private final int[] windowIndexes;
+    private final String[][] windowRows;
+    private final long[] windowUsed;
+    private long useCounter;
+    private final Set<Integer> loading = new HashSet<>();
+    private Listener listener;
+    private int count;
+    private boolean opened;
+    private boolean closed;
+
+    /**
+     * @param initialCount 打开之前先显示的数量，比如索引中记录的图片数，打开后以实际数量为准
+     * @param background 单线程的Executor
+     * @param mainThread 在UI线程中执行的Executor
+     */
+    public WindowedPaths(Source source, int initialCount, int windowSize, int maxWindows,
+                         Executor background, Executor mainThread) {
+        if(windowSize <= 0 || maxWindows <= 0){
+            throw new IllegalArgumentException("windowSize <= 0 || maxWindows <= 0");
+        }
+        this.source = source;
+        this.count = Math.max(0, initialCount);
+        this.windowSize = windowSize;
+        this.background = background;
+        this.mainThread = mainThread;
+        windowIndexes = new int[maxWindows];
+        windowRows = new String[maxWindows][];
+        windowUsed = new long[maxWindows];
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 在后台打开数据来源，并读取第一段
+     */
+    public void start() {
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                final int total = source.open();
+                mainThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(closed){
+                            return;
+                        }
+                        opened = true;
+                        if(total >= 0){
+                            count = total;
+                        }
+                        notifyChanged();
+                    }
+                });
+            }
+        });
+        requestWindow(0);
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * 所在的段已经加载时返回路径，否则返回null并开始加载这一段
+     */
+    @Override
+    public String getPath(int position) {
+        if(position < 0 || position >= count || closed){
+            return null;
+        }
+        int window = position / windowSize;
+        int offset = position - window * windowSize;
+        String[] rows = findWindow(window);
+        if(rows == null){
+            requestWindow(window);
+            return null;
+        }
+        //接近段的边缘时提前加载相邻的段
+        if(offset >= windowSize * 3 / 4){
+            requestWindow(window + 1);
+        }else if(offset < windowSize / 4 && window > 0){
+            requestWindow(window - 1);
+        }
+        return offset < rows.length ? rows[offset] : null;
+    }
+
+    public void close() {
+        if(closed){
+            return;
+        }
+        closed = true;
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                source.close();
+            }
+        });
+    }
+
+    private String[] findWindow(int window) {
+        for(int i = 0; i < windowRows.length; i++){
+            if(windowRows[i] != null && windowIndexes[i] == window){
+                windowUsed[i] = ++useCounter;
+                return windowRows[i];
+            }
+        }
+        return null;
+    }
+
+    private void requestWindow(final int window) {
+        //打开之前不知道实际数量，先按初始数量请求
+        if(closed || (opened && window * windowSize >= count) || findWindow(window) != null
+                || !loading.add(window)){
+            return;
+        }
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                final String[] rows = source.read(window * windowSize, windowSize);
+                mainThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        loading.remove(window);
+                        if(closed || rows == null){
+                            return;
+                        }
+                        storeWindow(window, rows);
+                        notifyChanged();
+                    }
+                });
+            }
+        });
+    }
+
+    //放到空位或最久没用的位置
+    private void storeWindow(int window, String[] rows) {
+        int slot = 0;
+        for(int i = 0; i < windowRows.length; i++){
+            if(windowRows[i] == null){
+                slot = i;
+                break;
+            }
+            if(windowUsed[i] < windowUsed[slot]){
+                slot = i;
+            }
+        }
+        windowIndexes[slot] = window;
+        windowRows[slot] = rows;
+        windowUsed[slot] = ++useCounter;
+    }
+
+    private void notifyChanged() {
+        if(listener != null){
+            listener.onChanged();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveParallelismTest {
+
+    private static final int CORES = 4;
+    private static final int CEILING = AdaptiveParallelism.ceilingFor(CORES);
+
+    @Test
+    public void cpuBoundWorkStaysNearCoreCount() {
+        assertEquals(4, AdaptiveParallelism.decide(3, CORES, 0.95f, 50, false, 1, CEILING));
+        assertEquals(4, AdaptiveParallelism.decide(4, CORES, 0.95f, 50, false, 1, CEILING));
+        //线程比核多时等CPU的时间不算作IO等待
+        assertEquals(5, AdaptiveParallelism.decide(6, CORES, 0.6f, 50, false, 1, CEILING));
+    }
+
+    @Test
+    public void ioBoundWorkGrowsOneAtATimeUpToCeiling() {
+        int current = 3;
+        for(int i = 0; i < 20; i++){
+            current = AdaptiveParallelism.decide(current, CORES, 0.2f, 100, false, 1, CEILING);
+        }
+        assertEquals(CEILING, current);
+        assertEquals(4, AdaptiveParallelism.decide(3, CORES, 0.2f, 100, false, 1, CEILING));
+    }
+
+    @Test
+    public void noBacklogNoGrowth() {
+        assertEquals(3, AdaptiveParallelism.decide(3, CORES, 0.2f, 0, false, 1, CEILING));
+        assertEquals(3, AdaptiveParallelism.decide(3, CORES, 0.2f, 3, false, 1, CEILING));
+    }
+
+    @Test
+    public void throttlingHalvesTarget() {
+        assertEquals(3, AdaptiveParallelism.decide(4, CORES, 0.95f, 50, true, 1, CEILING));
+        assertEquals(2, AdaptiveParallelism.decide(2, CORES, 0.2f, 50, true, 1, CEILING));
+        //下限优先
+        assertEquals(3, AdaptiveParallelism.decide(3, CORES, 0.95f, 50, true, 3, CEILING));
+    }
+
+    @Test
+    public void startsFromCoresAndAdjustsFromObservedTasks() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(1, TaskScheduler.Type.FIFO, TaskScheduler.DEFAULT_CAPACITY,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                    }
+                });
+        //每个任务只用十分之一的时间在CPU上
+        final long[] cpu = new long[1];
+        AdaptiveParallelism adaptive = new AdaptiveParallelism(scheduler, CORES,
+                new AdaptiveParallelism.CpuClock() {
+                    @Override
+                    public long threadCpuNanos() {
+                        return cpu[0];
+                    }
+                }, AdaptiveParallelism.NOT_THROTTLED);
+        assertEquals(AdaptiveParallelism.initialFor(CORES), scheduler.getParallelism());
+        for(int i = 0; i < 100; i++){
+            scheduler.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, TaskScheduler.PRIORITY_NORMAL);
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        while(scheduler.getParallelism() == AdaptiveParallelism.initialFor(CORES)
+                && System.currentTimeMillis() < deadline){
+            adaptive.beforeTask();
+            Thread.sleep(10);
+            cpu[0] += 1000000;
+            adaptive.afterTask();
+        }
+        assertEquals(AdaptiveParallelism.initialFor(CORES) + 1, scheduler.getParallelism());
+        assertTrue(adaptive.getLastCpuRatio() < 0.2f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRangeIsRejected() {
+        new AdaptiveParallelism(new TaskScheduler(1, TaskScheduler.Type.FIFO), CORES, 4, 2, null, null);
+    }
+}
@@ -0,0 +1,157 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CacheKeysTest {
+
+    private static final ImageSize CELL = new ImageSize(360, 300, ImageSize.ScaleMode.CENTER_CROP);
+
+    private File dir;
+    private final CacheKeys keys = new CacheKeys();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("cache-keys", "");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if(files != null){
+            for(File file : files){
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void editedFileGetsNewKey() throws Exception {
+        File file = write("a.jpg", randomBytes(1000, 1));
+        file.setLastModified(1000000L);
+        String before = keys.diskKey(file.getPath(), CELL);
+        assertEquals(before, keys.diskKey(file.getPath(), CELL));
+
+        //原地修改：长度不变，只有修改时间变化
+        write("a.jpg", randomBytes(1000, 2));
+        file.setLastModified(2000000L);
+        assertNotEquals(before, keys.diskKey(file.getPath(), CELL));
+    }
+
+    @Test
+    public void memoryKeyUsesHintWithoutTouchingFiles() {
+        CacheKeys noIo = new CacheKeys(new CacheKeys.FileStat() {
+            @Override
+            public long length(String file) {
+                throw new AssertionError("stat on the UI thread");
+            }
+
+            @Override
+            public long lastModified(String file) {
+                throw new AssertionError("stat on the UI thread");
+            }
+        }, new FileSource());
+        String path = "/sdcard/DCIM/a.jpg";
+        String plain = noIo.keyFor(path, CELL);
+        noIo.setVersionHint(path, 1000, 1000);
+        String hinted = noIo.keyFor(path, CELL);
+        assertNotEquals(plain, hinted);
+        assertEquals(hinted, noIo.keyFor(path, CELL));
+        //MediaStore记录更新后key随之变化
+        noIo.setVersionHint(path, 1000, 2000);
+        assertNotEquals(hinted, noIo.keyFor(path, CELL));
+    }
+
+    @Test
+    public void workerStatRefreshesMemoryKey() throws Exception {
+        File file = write("a.jpg", randomBytes(1000, 1));
+        file.setLastModified(1000000L);
+        String path = file.getPath();
+        assertEquals(LoadEngine.cacheKey(path, CELL), keys.keyFor(path, CELL));
+
+        //工作线程读取文件属性后，和MediaStore登记的版本得到同一个key
+        keys.diskKey(path, CELL);
+        CacheKeys hinted = new CacheKeys();
+        hinted.setVersionHint(path, 1000, 1000);
+        assertEquals(hinted.keyFor(path, CELL), keys.keyFor(path, CELL));
+
+        //文件被修改后，下一次工作线程读取属性就换成新的key
+        String before = keys.keyFor(path, CELL);
+        write("a.jpg", randomBytes(1000, 2));
+        file.setLastModified(2000000L);
+        assertEquals(before, keys.keyFor(path, CELL));
+        keys.versioned(path);
+        assertNotEquals(before, keys.keyFor(path, CELL));
+    }
+
+    @Test
+    public void versionsCoverALargeFolder() {
+        for(int i = 0; i < 20000; i++){
+            keys.setVersionHint("/sdcard/DCIM/" + i + ".jpg", 1000, i);
+        }
+        assertNotEquals(LoadEngine.cacheKey("/sdcard/DCIM/0.jpg", CELL), keys.keyFor("/sdcard/DCIM/0.jpg", CELL));
+    }
+
+    @Test
+    public void nonLocalSourcesAreNotVersioned() {
+        assertEquals("content://media/external/images/media/1",
+                keys.versioned("content://media/external/images/media/1"));
+        assertEquals("file:///android_asset/a.jpg", keys.versioned("file:///android_asset/a.jpg"));
+        assertNull(keys.fingerprint("http://example.com/a.jpg"));
+    }
+
+    @Test
+    public void copiesShareDiskKeyWithFingerprints() throws Exception {
+        byte[] photo = randomBytes(100 * 1024, 3);
+        File dcim = write("IMG_0001.jpg", photo);
+        File copy = write("IMG-WA0001.jpg", photo);
+        assertNotEquals(keys.diskKey(dcim.getPath(), CELL), keys.diskKey(copy.getPath(), CELL));
+
+        keys.setFingerprintEnabled(true);
+        assertEquals(keys.diskKey(dcim.getPath(), CELL), keys.diskKey(copy.getPath(), CELL));
+        //尺寸不同还是不同的缩略图
+        assertNotEquals(keys.diskKey(dcim.getPath(), CELL), keys.diskKey(copy.getPath(), new ImageSize(100, 100)));
+        //内存缓存仍按路径区分
+        assertNotEquals(keys.keyFor(dcim.getPath(), CELL), keys.keyFor(copy.getPath(), CELL));
+    }
+
+    @Test
+    public void fingerprintSeesDifferencesAtTheEnd() throws Exception {
+        byte[] photo = randomBytes(100 * 1024, 4);
+        File a = write("a.jpg", photo);
+        photo[photo.length - 10]++;
+        File b = write("b.jpg", photo);
+        assertNotEquals(keys.fingerprint(a.getPath()), keys.fingerprint(b.getPath()));
+        //小文件整体参与摘要
+        File small = write("small.png", randomBytes(20 * 1024, 5));
+        assertNotNull(keys.fingerprint("file://" + small.getPath()));
+    }
+}
@@ -0,0 +1,200 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+public class DiskLruCacheTest {
+
+    private File dir;
+    private DiskLruCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("disk-lru", "");
+        dir.delete();
+        cache = DiskLruCache.open(dir, 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.delete();
+        dir.delete();
+    }
+
+    private static void put(DiskLruCache cache, String key, String value) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(key);
+        OutputStream out = editor.newOutputStream();
+        out.write(value.getBytes("US-ASCII"));
+        out.close();
+        editor.commit();
+    }
+
+    private static String read(DiskLruCache cache, String key) throws IOException {
+        InputStream in = cache.get(key);
+        if(in == null){
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int n;
+        while((n = in.read(buffer)) != -1){
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toString("US-ASCII");
+    }
+
+    @Test
+    public void journalReplayRestoresEntriesAfterReopen() throws Exception {
+        put(cache, "a", "aaa");
+        put(cache, "b", "bbbb");
+        put(cache, "a", "aa");
+        assertTrue(cache.remove("b"));
+        put(cache, "c", "c");
+        cache.close();
+
+        cache = DiskLruCache.open(dir, 1024);
+        assertEquals("aa", read(cache, "a"));
+        assertNull(read(cache, "b"));
+        assertEquals("c", read(cache, "c"));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void editInterruptedByCrashIsDroppedOnReopen() throws Exception {
+        put(cache, "a", "aaa");
+        DiskLruCache.Editor editor = cache.edit("b");
+        OutputStream out = editor.newOutputStream();
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+        //不关闭旧实例，模拟进程在编辑途中被杀
+        DiskLruCache reopened = DiskLruCache.open(dir, 1024);
+        assertEquals("aaa", read(reopened, "a"));
+        assertNull(read(reopened, "b"));
+        assertFalse(new File(dir, "b.tmp").exists());
+        assertEquals(3, reopened.size());
+        reopened.close();
+    }
+
+    private void appendToJournal(String text) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(dir, DiskLruCache.JOURNAL_FILE), true);
+        try {
+            out.write(text.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void halfWrittenLastLineIsSkipped() throws Exception {
+        put(cache, "a", "aaa");
+        put(cache, "b", "bb");
+        cache.close();
+        //进程在追加REMOVE时被杀，只写了一半
+        appendToJournal("REMOVE a");
+
+        cache = DiskLruCache.open(dir, 1024);
+        assertEquals("aaa", read(cache, "a"));
+        assertEquals("bb", read(cache, "b"));
+        assertEquals(5, cache.size());
+        //日志已经重建，之后的写入再次打开时都在
+        put(cache, "c", "c");
+        cache.close();
+        cache = DiskLruCache.open(dir, 1024);
+        assertEquals("aaa", read(cache, "a"));
+        assertEquals("c", read(cache, "c"));
+    }
+
+    @Test
+    public void corruptLineInTheMiddleDropsTheCache() throws Exception {
+        put(cache, "a", "aaa");
+        cache.close();
+        appendToJournal("BOGUS a\nREAD a\n");
+
+        cache = DiskLruCache.open(dir, 1024);
+        assertNull(read(cache, "a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void commitWithoutWritingIsAbort() throws Exception {
+        cache.edit("a").commit();
+        assertNull(read(cache, "a"));
+        assertEquals(0, cache.size());
+
+        put(cache, "b", "old");
+        cache.edit("b").commit();
+        assertEquals("old", read(cache, "b"));
+
+        cache.close();
+        cache = DiskLruCache.open(dir, 1024);
+        assertNull(read(cache, "a"));
+        assertEquals("old", read(cache, "b"));
+    }
+
+    @Test
+    public void abortKeepsPreviousValueOrLeavesNoEntry() throws Exception {
+        DiskLruCache.Editor editor = cache.edit("a");
+        OutputStream out = editor.newOutputStream();
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+        editor.abort();
+        assertNull(read(cache, "a"));
+        assertEquals(0, cache.size());
+        assertFalse(new File(dir, "a.tmp").exists());
+
+        put(cache, "b", "old");
+        editor = cache.edit("b");
+        out = editor.newOutputStream();
+        out.write("newer".getBytes("US-ASCII"));
+        out.close();
+        editor.abort();
+        assertEquals("old", read(cache, "b"));
+        assertEquals(3, cache.size());
+
+        cache.close();
+        cache = DiskLruCache.open(dir, 1024);
+        assertNull(read(cache, "a"));
+        assertEquals("old", read(cache, "b"));
+    }
+
+    @Test
+    public void sizeBoundEvictsLeastRecentlyUsed() throws Exception {
+        cache.setMaxSize(10);
+        put(cache, "a", "aaaa");
+        put(cache, "b", "bbbb");
+        //读过a，b成为最久未使用的
+        assertEquals("aaaa", read(cache, "a"));
+        put(cache, "c", "cccc");
+        assertEquals(8, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertNull(read(cache, "b"));
+        assertFalse(new File(dir, "b").exists());
+        assertEquals("aaaa", read(cache, "a"));
+        assertEquals("cccc", read(cache, "c"));
+
+        cache.setMaxSize(4);
+        assertEquals(4, cache.size());
+        assertNull(read(cache, "a"));
+        assertEquals("cccc", read(cache, "c"));
+    }
+
+    @Test
+    public void hashKeyIsAValidKey() throws Exception {
+        String key = DiskLruCache.hashKey("http://example.com/a b.jpg");
+        assertEquals("0123456789abcdef".length() * 2, key.length());
+        assertEquals("00ff7f", DiskLruCache.toHex(new byte[]{0, -1, 127}));
+        put(cache, key, "x");
+        assertEquals("x", read(cache, key));
+    }
+}
@@ -0,0 +1,163 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EncodedCacheTest {
+
+    private static byte[] thumbnail(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void roundTripAcrossPages() {
+        EncodedCache cache = new EncodedCache(64 * 1024, 1024);
+        byte[] data = thumbnail(10 * 1024 + 17, 1);
+        assertTrue(cache.put("a", data, data.length));
+        assertArrayEquals(data, cache.get("a"));
+        //按页计算占用
+        assertEquals(11 * 1024, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedByBytes() {
+        EncodedCache cache = new EncodedCache(30 * 1024, 1024);
+        byte[] a = thumbnail(10 * 1024, 1);
+        byte[] b = thumbnail(10 * 1024, 2);
+        byte[] c = thumbnail(10 * 1024, 3);
+        byte[] d = thumbnail(10 * 1024, 4);
+        cache.put("a", a, a.length);
+        cache.put("b", b, b.length);
+        cache.put("c", c, c.length);
+        cache.get("a");
+        cache.put("d", d, d.length);
+
+        assertNull(cache.get("b"));
+        //淘汰后页被复用，其他条目的数据不受影响
+        assertArrayEquals(a, cache.get("a"));
+        assertArrayEquals(c, cache.get("c"));
+        assertArrayEquals(d, cache.get("d"));
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void replacingKeyFreesOldPages() {
+        EncodedCache cache = new EncodedCache(16 * 1024, 1024);
+        byte[] first = thumbnail(6 * 1024, 1);
+        byte[] second = thumbnail(3 * 1024, 2);
+        cache.put("a", first, first.length);
+        cache.put("a", second, second.length);
+        assertEquals(3 * 1024, cache.size());
+        assertArrayEquals(second, cache.get("a"));
+    }
+
+    //记录分配和释放的存储区
+    private static class TrackingFactory implements EncodedCache.Storage.Factory {
+        int allocated;
+        int open;
+
+        @Override
+        public EncodedCache.Storage create(int bytes) throws IOException {
+            final EncodedCache.Storage storage = EncodedCache.DIRECT_STORAGE.create(bytes);
+            allocated++;
+            open++;
+            return new EncodedCache.Storage() {
+                @Override
+                public void write(int offset, byte[] data, int dataOffset, int count) throws IOException {
+                    storage.write(offset, data, dataOffset, count);
+                }
+
+                @Override
+                public void read(int offset, byte[] data, int dataOffset, int count) throws IOException {
+                    storage.read(offset, data, dataOffset, count);
+                }
+
+                @Override
+                public void close() {
+                    open--;
+                }
+            };
+        }
+    }
+
+    @Test
+    public void storageIsAllocatedLazilyAndFreedWhenEmptied() {
+        TrackingFactory factory = new TrackingFactory();
+        EncodedCache cache = new EncodedCache(16 * 1024, 1024, factory);
+        assertEquals(0, cache.allocatedSize());
+        byte[] data = thumbnail(4 * 1024, 1);
+        cache.put("a", data, data.length);
+        assertEquals(16 * 1024, cache.allocatedSize());
+        assertEquals(1, factory.open);
+
+        cache.evictAll();
+        assertEquals(0, factory.open);
+        assertEquals(0, cache.allocatedSize());
+        assertNull(cache.get("a"));
+        //下次写入时重新分配
+        assertTrue(cache.put("a", data, data.length));
+        assertEquals(2, factory.allocated);
+    }
+
+    @Test
+    public void resizeKeepsEntriesAndFreesStorageOnlyAtZero() {
+        TrackingFactory factory = new TrackingFactory();
+        EncodedCache cache = new EncodedCache(16 * 1024, 1024, factory);
+        byte[] a = thumbnail(4 * 1024, 1);
+        byte[] b = thumbnail(4 * 1024 + 100, 2);
+        byte[] c = thumbnail(3 * 1024, 3);
+        cache.put("a", a, a.length);
+        cache.put("b", b, b.length);
+        cache.put("c", c, c.length);
+        cache.resize(16 * 1024);
+        assertEquals(1, factory.allocated);
+
+        //逐步恢复时放大，条目都还在
+        cache.resize(32 * 1024);
+        assertEquals(32 * 1024, cache.allocatedSize());
+        assertEquals(1, factory.open);
+        assertArrayEquals(b, cache.get("b"));
+        assertArrayEquals(c, cache.get("c"));
+        assertArrayEquals(a, cache.get("a"));
+
+        //缩小时只淘汰最久未使用的b
+        cache.resize(8 * 1024);
+        assertEquals(8 * 1024, cache.allocatedSize());
+        assertEquals(1, factory.open);
+        assertNull(cache.get("b"));
+        assertArrayEquals(c, cache.get("c"));
+        assertArrayEquals(a, cache.get("a"));
+        //搬过去的条目和新写入的互不覆盖
+        byte[] d = thumbnail(1024, 4);
+        assertTrue(cache.put("d", d, d.length));
+        assertArrayEquals(a, cache.get("a"));
+        assertArrayEquals(d, cache.get("d"));
+
+        cache.resize(0);
+        assertEquals(0, factory.open);
+        assertEquals(0, cache.size());
+        assertFalse(cache.put("e", a, a.length));
+
+        cache.resize(64 * 1024);
+        assertTrue(cache.put("e", a, a.length));
+        assertEquals(64 * 1024, cache.allocatedSize());
+        assertEquals(1, factory.open);
+    }
+
+    @Test
+    public void oversizedEntriesAreRejected() {
+        EncodedCache cache = new EncodedCache(16 * 1024, 1024);
+        byte[] data = thumbnail(9 * 1024, 1);
+        assertFalse(cache.put("a", data, data.length));
+        assertEquals(0, cache.count());
+    }
+}
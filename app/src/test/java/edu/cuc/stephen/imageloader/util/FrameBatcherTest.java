@@ -0,0 +1,139 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FrameBatcherTest {
+
+    //记录应用和丢弃的结果，名字以stale开头的视为过时
+    private static class RecordingTarget implements FrameBatcher.Target<String> {
+        final List<String> applied = new ArrayList<>();
+        final List<String> dropped = new ArrayList<>();
+        volatile String staleNow = "stale";
+        //只有在UI线程中才能判断过时的结果，名字以这个前缀开头
+        volatile String staleOnUiThread = "view-";
+        int uiChecks;
+        long applyMillis;
+
+        @Override
+        public boolean isStale(String item) {
+            return item.startsWith(staleNow);
+        }
+
+        @Override
+        public boolean isStaleOnUiThread(String item) {
+            uiChecks++;
+            return item.startsWith(staleOnUiThread);
+        }
+
+        @Override
+        public void apply(String item) {
+            applied.add(item);
+            if(applyMillis > 0){
+                try {
+                    Thread.sleep(applyMillis);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+
+        @Override
+        public void drop(String item) {
+            dropped.add(item);
+        }
+    }
+
+    private static class CountingScheduler implements FrameBatcher.FrameScheduler {
+        int frames;
+
+        @Override
+        public void scheduleFrame() {
+            frames++;
+        }
+    }
+
+    @Test
+    public void burstIsDeliveredInOneFrame() {
+        RecordingTarget target = new RecordingTarget();
+        CountingScheduler frames = new CountingScheduler();
+        FrameBatcher<String> batcher = new FrameBatcher<>(target, frames, TimeUnit.MILLISECONDS.toNanos(100));
+        for(int i = 0; i < 20; i++){
+            batcher.post("image" + i);
+        }
+        //一批结果只请求一帧
+        assertEquals(1, frames.frames);
+        assertEquals(20, batcher.drain());
+        assertEquals(20, target.applied.size());
+        assertEquals(1, frames.frames);
+    }
+
+    @Test
+    public void staleResultsNeverReachTheQueue() {
+        RecordingTarget target = new RecordingTarget();
+        CountingScheduler frames = new CountingScheduler();
+        FrameBatcher<String> batcher = new FrameBatcher<>(target, frames, TimeUnit.MILLISECONDS.toNanos(100));
+        batcher.post("stale-a");
+        assertEquals(0, frames.frames);
+        assertEquals(0, batcher.getPendingCount());
+
+        //进入队列之后才过时的，在应用之前丢弃
+        batcher.post("b");
+        target.staleNow = "b";
+        assertEquals(0, batcher.drain());
+        assertEquals(2, target.dropped.size());
+        assertTrue(target.applied.isEmpty());
+    }
+
+    @Test
+    public void uiThreadCheckRunsOnlyWhenDraining() throws Exception {
+        final RecordingTarget target = new RecordingTarget();
+        CountingScheduler frames = new CountingScheduler();
+        final FrameBatcher<String> batcher = new FrameBatcher<>(target, frames, TimeUnit.MILLISECONDS.toNanos(100));
+        //在后台线程中post，不能检查View
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                batcher.post("view-a");
+                batcher.post("b");
+            }
+        });
+        worker.start();
+        worker.join();
+        assertEquals(0, target.uiChecks);
+        assertEquals(2, batcher.getPendingCount());
+
+        assertEquals(1, batcher.drain());
+        assertEquals(2, target.uiChecks);
+        assertEquals(Arrays.asList("view-a"), target.dropped);
+        assertEquals(Arrays.asList("b"), target.applied);
+    }
+
+    @Test
+    public void leftoversCarryOverToNextFrame() {
+        RecordingTarget target = new RecordingTarget();
+        target.applyMillis = 5;
+        CountingScheduler frames = new CountingScheduler();
+        FrameBatcher<String> batcher = new FrameBatcher<>(target, frames, TimeUnit.MILLISECONDS.toNanos(8));
+        for(int i = 0; i < 10; i++){
+            batcher.post("image" + i);
+        }
+        int first = batcher.drain();
+        assertTrue(first >= 1 && first < 10);
+        //剩下的请求了下一帧
+        assertEquals(2, frames.frames);
+
+        int total = first;
+        while(batcher.getPendingCount() > 0){
+            total += batcher.drain();
+        }
+        assertEquals(10, total);
+        assertEquals("image0", target.applied.get(0));
+        assertEquals("image9", target.applied.get(9));
+    }
+}
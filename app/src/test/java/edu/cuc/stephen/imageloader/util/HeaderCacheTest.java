@@ -0,0 +1,61 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HeaderCacheTest {
+
+    //可以修改的文件属性，模拟文件被原地修改
+    private static class FakeStat implements CacheKeys.FileStat {
+        long length = 1000;
+        long lastModified = 1000000L;
+
+        @Override
+        public long length(String file) {
+            return length;
+        }
+
+        @Override
+        public long lastModified(String file) {
+            return lastModified;
+        }
+    }
+
+    private final FakeStat stat = new FakeStat();
+    private final HeaderCache headers = new HeaderCache(new CacheKeys(stat, new FileSource()), 16);
+
+    @Test
+    public void recordedHeaderIsReturned() {
+        assertNull(headers.get("/sdcard/a.jpg"));
+        headers.put("/sdcard/a.jpg", 4000, 3000, "image/jpeg");
+        HeaderCache.Header header = headers.get("/sdcard/a.jpg");
+        assertEquals(4000, header.width);
+        assertEquals(3000, header.height);
+        assertEquals("image/jpeg", header.mimeType);
+        assertNull(headers.get("/sdcard/b.jpg"));
+        assertEquals(1, headers.hitCount());
+    }
+
+    @Test
+    public void editedFileMisses() {
+        headers.put("/sdcard/a.jpg", 4000, 3000, "image/jpeg");
+        stat.lastModified += 1000;
+        assertNull(headers.get("/sdcard/a.jpg"));
+        headers.put("/sdcard/a.jpg", 3000, 4000, "image/jpeg");
+        assertEquals(3000, headers.get("/sdcard/a.jpg").width);
+    }
+
+    @Test
+    public void invalidBoundsAreNotRecorded() {
+        assertNull(headers.put("/sdcard/a.jpg", -1, -1, null));
+        assertNull(headers.get("/sdcard/a.jpg"));
+    }
+
+    @Test
+    public void remotePathsAreKeyedByUri() {
+        headers.put("http://example.com/a.jpg", 800, 600, "image/jpeg");
+        stat.length = 0;
+        assertEquals(800, headers.get("http://example.com/a.jpg").width);
+    }
+}
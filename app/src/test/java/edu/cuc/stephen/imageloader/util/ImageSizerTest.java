@@ -0,0 +1,108 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImageSizerTest {
+
+    private static final ImageSize CELL = new ImageSize(360, 300, ImageSize.ScaleMode.CENTER_CROP);
+
+    @Test
+    public void sampleSizeIsLargestPowerOfTwoAboveTarget() {
+        //4000/8=500 >= 360, 3000/8=375 >= 300; 再大一倍就小于目标
+        assertEquals(8, ImageSizer.sampleSize(4000, 3000, CELL));
+        assertEquals(1, ImageSizer.sampleSize(400, 300, CELL));
+        assertEquals(4, ImageSizer.sampleSize(1920, 1080, new ImageSize(400, 400, ImageSize.ScaleMode.FIT)));
+    }
+
+    @Test
+    public void centerCropKeepsTargetAspect() {
+        ImageSize size = ImageSizer.finalSize(4000, 3000, CELL);
+        assertEquals(360, size.width);
+        assertEquals(300, size.height);
+        //竖图也裁成格子的比例
+        size = ImageSizer.finalSize(1080, 1920, CELL);
+        assertEquals(360, size.width);
+        assertEquals(300, size.height);
+        assertArrayEquals(new int[]{0, 510, 1080, 1410}, ImageSizer.sourceRect(1080, 1920, size));
+    }
+
+    @Test
+    public void fitKeepsSourceAspect() {
+        ImageSize size = ImageSizer.finalSize(4000, 3000, new ImageSize(400, 400, ImageSize.ScaleMode.FIT));
+        assertEquals(400, size.width);
+        assertEquals(300, size.height);
+        assertArrayEquals(new int[]{0, 0, 500, 375}, ImageSizer.sourceRect(500, 375, size));
+    }
+
+    @Test
+    public void smallImagesAreNotUpscaled() {
+        ImageSize size = ImageSizer.finalSize(200, 100, new ImageSize(400, 400, ImageSize.ScaleMode.FIT));
+        assertEquals(200, size.width);
+        assertEquals(100, size.height);
+        //只保留会显示出来的区域：按高度放大到300时宽度显示120像素
+        size = ImageSizer.finalSize(400, 100, CELL);
+        assertEquals(120, size.width);
+        assertEquals(100, size.height);
+    }
+
+    @Test
+    public void previewIsAFractionOfTheCell() {
+        ImageSize preview = ImageSizer.previewSize(CELL, 8);
+        assertEquals(45, preview.width);
+        assertEquals(37, preview.height);
+        assertEquals(ImageSize.ScaleMode.CENTER_CROP, preview.scaleMode);
+        //预览和正式的图片缓存key不同
+        assertNotEquals(LoadEngine.cacheKey("/a.jpg", CELL), LoadEngine.cacheKey("/a.jpg", preview));
+        assertEquals(1, ImageSizer.previewSize(new ImageSize(4, 4), 8).width);
+    }
+
+    @Test
+    public void bytesPerCellAgainstLegacySampling() {
+        //常见的相机和截图尺寸，格子为1080p屏幕三列、高100dp@xxhdpi
+        int[][] sources = {
+                {4000, 3000}, {4032, 3024}, {3264, 2448}, {2592, 1944},
+                {1920, 1080}, {1080, 1920}, {3000, 4000}
+        };
+        long cellBytes = (long) CELL.width * CELL.height * 4;
+        long legacyTotal = 0;
+        long exactTotal = 0;
+        for(int[] source : sources){
+            long legacy = legacyBytes(source[0], source[1], CELL.width, CELL.height);
+            ImageSize size = ImageSizer.finalSize(source[0], source[1], CELL);
+            long exact = (long) size.width * size.height * 4;
+            //每张图都正好是格子大小，比原来的算法占用少
+            assertEquals(cellBytes, exact);
+            assertTrue(source[0] + "x" + source[1], exact < legacy);
+            legacyTotal += legacy;
+            exactTotal += exact;
+        }
+        //平均至少省下三分之一
+        assertTrue(exactTotal * 3 < legacyTotal * 2);
+    }
+
+    @Test
+    public void legacySamplingCouldUndershootTheCell() {
+        //四舍五入让1280x720只解码出320x180，比格子小，显示时被放大变模糊；新算法保证不小于格子
+        assertTrue(legacyBytes(1280, 720, CELL.width, CELL.height) < (long) CELL.width * CELL.height * 4);
+        ImageSize size = ImageSizer.finalSize(1280, 720, CELL);
+        assertEquals(CELL.width, size.width);
+        assertEquals(CELL.height, size.height);
+    }
+
+    //原来的算法：宽高比例四舍五入取较大值，解码器再向下取到2的幂，不再缩放
+    //四舍五入可能让结果比格子还小（比如1280x720），这时新算法占用更多但不再模糊
+    private static long legacyBytes(int width, int height, int requireWidth, int requireHeight) {
+        int inSampleSize = 1;
+        if(width > requireWidth || height > requireHeight){
+            int widthRatio = Math.round((float) width / requireWidth);
+            int heightRatio = Math.round((float) height / requireHeight);
+            inSampleSize = Math.max(widthRatio, heightRatio);
+        }
+        int powerOfTwo = Integer.highestOneBit(inSampleSize);
+        long decodedWidth = (width + powerOfTwo - 1) / powerOfTwo;
+        long decodedHeight = (height + powerOfTwo - 1) / powerOfTwo;
+        return decodedWidth * decodedHeight * 4;
+    }
+}
@@ -0,0 +1,86 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    private static final long MICROS = 1000;
+    private static final long MILLIS = 1000 * MICROS;
+
+    @Test
+    public void bucketsCoverValuesWithoutGaps() {
+        long previous = -1;
+        for(int i = 0; i < 40 * 16; i++){
+            long upper = LatencyHistogram.bucketUpperBound(i);
+            if(upper > (1L << 40)){
+                break;
+            }
+            assertEquals(previous + 1, lowerBound(i));
+            assertEquals(i, LatencyHistogram.bucketIndex(upper));
+            previous = upper;
+        }
+    }
+
+    //比上一个桶的上界大1
+    private static long lowerBound(int index) {
+        return index == 0 ? 0 : LatencyHistogram.bucketUpperBound(index - 1) + 1;
+    }
+
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i = 1; i <= 1000; i++){
+            histogram.record(i * MILLIS / 10);      //0.1ms到100ms
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(50000, histogram.getPercentileMicros(50), 50000 / 16);
+        assertEquals(99000, histogram.getPercentileMicros(99), 99000 / 16);
+        assertEquals(100000, histogram.getPercentileMicros(100));
+        assertEquals(100000, histogram.getMaxMicros());
+        assertEquals(50050, histogram.getMeanMicros(), 1);
+    }
+
+    @Test
+    public void emptyAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(99));
+        histogram.record(5 * MILLIS);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(50));
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for(int t = 0; t < threads.length; t++){
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for(int i = 0; i < 10000; i++){
+                        histogram.record(i * MICROS);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for(Thread thread : threads){
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+        assertEquals(9999, histogram.getMaxMicros());
+    }
+}
@@ -0,0 +1,422 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class LoadEngineTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static TaskScheduler directScheduler() {
+        return new TaskScheduler(1, TaskScheduler.Type.FIFO, TaskScheduler.DEFAULT_CAPACITY, DIRECT);
+    }
+
+    //工作线程循环先攒起来，调用runAll时才执行
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            pending.add(command);
+        }
+
+        void runAll() {
+            for(Runnable r : new ArrayList<>(pending)){
+                r.run();
+            }
+            pending.clear();
+        }
+    }
+
+    private static class CountingDecoder implements LoadEngine.Decoder<Object> {
+        final List<String> decoded = new ArrayList<>();
+
+        @Override
+        public Object decode(String path, ImageSize imageSize) {
+            decoded.add(path);
+            return new Object();
+        }
+    }
+
+    private static class RecordingCallback implements LoadEngine.Callback<Object> {
+        Object result;
+
+        @Override
+        public void onResult(String path, Object bitmap) {
+            result = bitmap;
+        }
+    }
+
+    @Test
+    public void secondLoadIsServedFromMemory() throws Exception {
+        MemoryCache<String, Object> cache = new MemoryCache<>(10);
+        CountingDecoder decoder = new CountingDecoder();
+        LoadEngine<Object> engine = new LoadEngine<>(cache, decoder, directScheduler());
+
+        RecordingCallback first = new RecordingCallback();
+        engine.load("/sdcard/DCIM/a.jpg", new ImageSize(100, 100), first);
+        RecordingCallback second = new RecordingCallback();
+        engine.load("/sdcard/DCIM/a.jpg", new ImageSize(100, 100), second);
+
+        assertEquals(1, decoder.decoded.size());
+        assertNotNull(first.result);
+        assertSame(first.result, second.result);
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void failedDecodeIsNotCached() throws Exception {
+        MemoryCache<String, Object> cache = new MemoryCache<>(10);
+        final int[] calls = new int[1];
+        LoadEngine<Object> engine = new LoadEngine<>(cache, new LoadEngine.Decoder<Object>() {
+            @Override
+            public Object decode(String path, ImageSize imageSize) {
+                calls[0]++;
+                return null;
+            }
+        }, directScheduler());
+
+        engine.load("/sdcard/broken.jpg", new ImageSize(100, 100), new RecordingCallback());
+        engine.load("/sdcard/broken.jpg", new ImageSize(100, 100), new RecordingCallback());
+
+        assertEquals(2, calls[0]);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictionIsCounted() throws Exception {
+        MemoryCache<String, Object> cache = new MemoryCache<>(2);
+        LoadEngine<Object> engine = new LoadEngine<>(cache, new CountingDecoder(), directScheduler());
+        for(int i = 0; i < 3; i++){
+            engine.load("/sdcard/" + i + ".jpg", new ImageSize(100, 100), new RecordingCallback());
+        }
+
+        LoaderMetrics.Snapshot snapshot = new LoaderMetrics().snapshot(cache, null);
+        assertEquals(1, snapshot.getEvictionCount());
+        assertEquals(2, snapshot.getBytesResident());
+        assertEquals(1f, snapshot.getMissRate(), 0.0001f);
+    }
+
+    @Test
+    public void concurrentRequestsShareOneDecode() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        CountingDecoder decoder = new CountingDecoder();
+        LoadEngine<Object> engine = new LoadEngine<>(new MemoryCache<String, Object>(10), decoder,
+                new TaskScheduler(2, TaskScheduler.Type.LIFO, 16, executor));
+
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+        engine.load("/sdcard/a.jpg", new ImageSize(100, 100), first);
+        engine.load("/sdcard/a.jpg", new ImageSize(100, 100), second);
+        assertEquals(1, engine.getInFlightCount());
+        executor.runAll();
+
+        assertEquals(1, decoder.decoded.size());
+        assertNotNull(first.result);
+        assertSame(first.result, second.result);
+        assertEquals(0, engine.getInFlightCount());
+    }
+
+    @Test
+    public void visibleLoadAfterPrefetchRunsOnSingleWorker() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        CountingDecoder decoder = new CountingDecoder();
+        TaskScheduler scheduler = new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, executor);
+        LoadEngine<Object> engine = new LoadEngine<>(new MemoryCache<String, Object>(10), decoder, scheduler);
+
+        //只有一个工作线程时预加载直接被丢弃，不会留下等不到线程的任务
+        ImageRequest prefetch = engine.prefetch("/sdcard/a.jpg", new ImageSize(100, 100));
+        assertTrue(prefetch.isCancelled());
+        assertEquals(0, engine.getInFlightCount());
+
+        RecordingCallback visible = new RecordingCallback();
+        engine.load("/sdcard/a.jpg", new ImageSize(100, 100), TaskScheduler.PRIORITY_VISIBLE, visible);
+        executor.runAll();
+
+        assertNotNull(visible.result);
+        assertEquals(1, decoder.decoded.size());
+        assertEquals(0, scheduler.getQueueSize());
+        assertEquals(0, scheduler.getRunningCount());
+    }
+
+    @Test
+    public void promotedPrefetchRunsWhenLowWorkersAreBusy() throws Exception {
+        final ManualExecutor executor = new ManualExecutor();
+        final TaskScheduler scheduler = new TaskScheduler(2, TaskScheduler.Type.LIFO, 16, executor);
+        final List<String> decoded = new ArrayList<>();
+        final AtomicReference<LoadEngine<Object>> holder = new AtomicReference<>();
+        final RecordingCallback visible = new RecordingCallback();
+        LoadEngine<Object> engine = new LoadEngine<>(new MemoryCache<String, Object>(10), new LoadEngine.Decoder<Object>() {
+            @Override
+            public Object decode(String path, ImageSize imageSize) {
+                if(path.equals("/sdcard/a.jpg")){
+                    //a占着唯一可预加载的线程，b只能排着；可见的请求合并到b上要能立即启动线程
+                    holder.get().prefetch("/sdcard/b.jpg", new ImageSize(100, 100));
+                    holder.get().load("/sdcard/b.jpg", new ImageSize(100, 100), TaskScheduler.PRIORITY_VISIBLE, visible);
+                    assertEquals(2, executor.pending.size());
+                }
+                decoded.add(path);
+                return new Object();
+            }
+        }, scheduler);
+        holder.set(engine);
+
+        engine.prefetch("/sdcard/a.jpg", new ImageSize(100, 100));
+        executor.runAll();
+
+        assertNotNull(visible.result);
+        assertEquals(Arrays.asList("/sdcard/a.jpg", "/sdcard/b.jpg"), decoded);
+        assertEquals(0, engine.getInFlightCount());
+    }
+
+    @Test
+    public void decodedBitmapIsCachedUnderRefreshedKey() throws Exception {
+        final String[] version = new String[1];
+        MemoryCache<String, Object> cache = new MemoryCache<>(10);
+        final CountingDecoder counting = new CountingDecoder();
+        LoadEngine<Object> engine = new LoadEngine<>(cache, new LoadEngine.Decoder<Object>() {
+            @Override
+            public Object decode(String path, ImageSize imageSize) {
+                //解码时才读到文件的版本
+                version[0] = "v1";
+                return counting.decode(path, imageSize);
+            }
+        }, directScheduler());
+        engine.setKeyPolicy(new LoadEngine.KeyPolicy() {
+            @Override
+            public String keyFor(String path, ImageSize imageSize) {
+                return LoadEngine.cacheKey(version[0] == null ? path : path + "@" + version[0], imageSize);
+            }
+        });
+
+        RecordingCallback first = new RecordingCallback();
+        engine.load("/sdcard/a.jpg", new ImageSize(100, 100), first);
+        assertNotNull(cache.peek("/sdcard/a.jpg@v1#" + new ImageSize(100, 100)));
+        assertNull(cache.peek(LoadEngine.cacheKey("/sdcard/a.jpg", new ImageSize(100, 100))));
+
+        RecordingCallback second = new RecordingCallback();
+        engine.load("/sdcard/a.jpg", new ImageSize(100, 100), second);
+        assertSame(first.result, second.result);
+        assertEquals(1, counting.decoded.size());
+    }
+
+    @Test
+    public void cancelledRequestNeverDecodes() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        CountingDecoder decoder = new CountingDecoder();
+        TaskScheduler scheduler = new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, executor);
+        LoadEngine<Object> engine = new LoadEngine<>(new MemoryCache<String, Object>(10), decoder, scheduler);
+
+        RecordingCallback stale = new RecordingCallback();
+        ImageRequest request = engine.load("/sdcard/old.jpg", new ImageSize(100, 100), stale);
+        assertTrue(request.cancel());
+        RecordingCallback fresh = new RecordingCallback();
+        engine.load("/sdcard/new.jpg", new ImageSize(100, 100), fresh);
+        executor.runAll();
+
+        assertEquals(Arrays.asList("/sdcard/new.jpg"), decoder.decoded);
+        assertNull(stale.result);
+        assertNotNull(fresh.result);
+        assertFalse(request.cancel());
+    }
+
+    @Test
+    public void sharedDecodeSurvivesOneCancellation() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        CountingDecoder decoder = new CountingDecoder();
+        LoadEngine<Object> engine = new LoadEngine<>(new MemoryCache<String, Object>(10), decoder,
+                new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, executor));
+
+        RecordingCallback cancelled = new RecordingCallback();
+        RecordingCallback kept = new RecordingCallback();
+        ImageRequest request = engine.load("/sdcard/a.jpg", new ImageSize(100, 100), cancelled);
+        engine.load("/sdcard/a.jpg", new ImageSize(100, 100), kept);
+        request.cancel();
+        assertEquals(1, engine.getInFlightCount());
+        executor.runAll();
+
+        assertEquals(1, decoder.decoded.size());
+        assertNull(cancelled.result);
+        assertNotNull(kept.result);
+    }
+
+    //记录每张图片的引用计数，pin时检查图片是否已经在缓存中
+    private static class CountingPinner implements LoadEngine.Pinner<Object> {
+        final IdentityHashMap<Object, Integer> refs = new IdentityHashMap<>();
+        final MemoryCache<String, Object> cache;
+        int pinnedWhileCached;
+
+        CountingPinner(MemoryCache<String, Object> cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public void pin(Object bitmap) {
+            Integer count = refs.get(bitmap);
+            if(count == null && cache.peek(LoadEngine.cacheKey("/sdcard/a.jpg", new ImageSize(100, 100))) == bitmap){
+                pinnedWhileCached++;
+            }
+            refs.put(bitmap, count == null ? 1 : count + 1);
+        }
+
+        @Override
+        public void unpin(Object bitmap) {
+            int count = refs.get(bitmap) - 1;
+            if(count == 0){
+                refs.remove(bitmap);
+            }else{
+                refs.put(bitmap, count);
+            }
+        }
+    }
+
+    @Test
+    public void decodedBitmapIsPinnedBeforeItIsCached() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        MemoryCache<String, Object> cache = new MemoryCache<>(10);
+        LoadEngine<Object> engine = new LoadEngine<>(cache, new CountingDecoder(),
+                new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, executor));
+        CountingPinner pinner = new CountingPinner(cache);
+        engine.setPinner(pinner);
+
+        RecordingCallback kept = new RecordingCallback();
+        ImageRequest cancelled = engine.load("/sdcard/a.jpg", new ImageSize(100, 100), new RecordingCallback());
+        engine.load("/sdcard/a.jpg", new ImageSize(100, 100), kept);
+        cancelled.cancel();
+        executor.runAll();
+
+        assertEquals(0, pinner.pinnedWhileCached);
+        //只剩交给回调的那一次
+        assertEquals(Integer.valueOf(1), pinner.refs.get(kept.result));
+        assertEquals(1, pinner.refs.size());
+
+        RecordingCallback hit = new RecordingCallback();
+        engine.load("/sdcard/a.jpg", new ImageSize(100, 100), hit);
+        assertSame(kept.result, hit.result);
+        assertEquals(Integer.valueOf(2), pinner.refs.get(kept.result));
+    }
+
+    @Test
+    public void hitEvictedBeforePinIsTreatedAsMiss() throws Exception {
+        final MemoryCache<String, Object> cache = new MemoryCache<>(10);
+        CountingDecoder decoder = new CountingDecoder();
+        LoadEngine<Object> engine = new LoadEngine<>(cache, decoder, directScheduler());
+        engine.load("/sdcard/a.jpg", new ImageSize(100, 100), new RecordingCallback());
+        final Object first = cache.peek(LoadEngine.cacheKey("/sdcard/a.jpg", new ImageSize(100, 100)));
+        //在get和pin之间被其他线程淘汰
+        engine.setPinner(new CountingPinner(cache) {
+            @Override
+            public void pin(Object bitmap) {
+                if(bitmap == first){
+                    cache.evictAll();
+                }
+                super.pin(bitmap);
+            }
+        });
+
+        RecordingCallback callback = new RecordingCallback();
+        engine.load("/sdcard/a.jpg", new ImageSize(100, 100), callback);
+        assertEquals(2, decoder.decoded.size());
+        assertNotSame(first, callback.result);
+    }
+
+    //多个线程同时提交、重复和取消：每个key只解码一次，每个未取消的请求恰好回调一次
+    @Test
+    public void concurrentSubmittersStress() throws Exception {
+        final int submitters = 8;
+        final int perSubmitter = 5000;
+        final int keys = 200;
+        final ConcurrentHashMap<String, AtomicInteger> decodes = new ConcurrentHashMap<>();
+        LoadEngine.Decoder<Object> decoder = new LoadEngine.Decoder<Object>() {
+            @Override
+            public Object decode(String path, ImageSize imageSize) {
+                AtomicInteger count = decodes.putIfAbsent(path, new AtomicInteger(1));
+                if(count != null){
+                    count.incrementAndGet();
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ignored) {
+                }
+                return path;
+            }
+        };
+        final LoadEngine<Object> engine = new LoadEngine<>(new MemoryCache<String, Object>(keys), decoder,
+                new TaskScheduler(3, TaskScheduler.Type.LIFO, TaskScheduler.DEFAULT_CAPACITY,
+                        Executors.defaultThreadFactory()));
+
+        final AtomicInteger callbacks = new AtomicInteger();
+        final AtomicInteger cancelled = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[submitters];
+        for(int t = 0; t < submitters; t++){
+            final int index = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(index);
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for(int i = 0; i < perSubmitter; i++){
+                        final String path = "/sdcard/" + random.nextInt(keys) + ".jpg";
+                        final AtomicInteger delivered = new AtomicInteger();
+                        ImageRequest request = engine.load(path, new ImageSize(100, 100),
+                                new LoadEngine.Callback<Object>() {
+                                    @Override
+                                    public void onResult(String resultPath, Object bitmap) {
+                                        if(delivered.incrementAndGet() != 1 || !path.equals(bitmap)){
+                                            errors.incrementAndGet();
+                                        }
+                                        callbacks.incrementAndGet();
+                                    }
+                                });
+                        //模拟滑出屏幕的格子
+                        if(random.nextInt(4) == 0 && request.cancel()){
+                            cancelled.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for(Thread thread : threads){
+            thread.join();
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while(callbacks.get() + cancelled.get() < submitters * perSubmitter
+                && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, errors.get());
+        assertEquals(submitters * perSubmitter, callbacks.get() + cancelled.get());
+        assertEquals(0, engine.getInFlightCount());
+        for(AtomicInteger count : decodes.values()){
+            assertEquals(1, count.get());
+        }
+    }
+}
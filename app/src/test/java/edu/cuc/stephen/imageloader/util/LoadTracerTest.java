@@ -0,0 +1,105 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class LoadTracerTest {
+
+    //记录输出的Trace区段
+    private static class RecordingSections implements LoadTracer.Sections {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void begin(String name) {
+            events.add("begin " + name);
+        }
+
+        @Override
+        public void end() {
+            events.add("end");
+        }
+    }
+
+    @Test
+    public void disabledTracerRecordsNothing() {
+        LoadTracer tracer = new LoadTracer();
+        RecordingSections sections = new RecordingSections();
+        tracer.setSections(sections);
+        long start = tracer.start();
+        assertEquals(0, start);
+        tracer.record(LoadTracer.Stage.QUEUE, start);
+        tracer.endSection(LoadTracer.Stage.DECODE, tracer.beginSection(LoadTracer.Stage.DECODE));
+        assertEquals(0, tracer.getHistogram(LoadTracer.Stage.QUEUE).getCount());
+        assertEquals(0, tracer.getHistogram(LoadTracer.Stage.DECODE).getCount());
+        assertTrue(sections.events.isEmpty());
+    }
+
+    @Test
+    public void sectionsArePairedAndTimed() throws Exception {
+        LoadTracer tracer = new LoadTracer();
+        RecordingSections sections = new RecordingSections();
+        tracer.setSections(sections);
+        tracer.setEnabled(true);
+        long start = tracer.beginSection(LoadTracer.Stage.DECODE);
+        Thread.sleep(5);
+        //中途关闭也要结束区段
+        tracer.setEnabled(false);
+        tracer.endSection(LoadTracer.Stage.DECODE, start);
+        assertEquals(2, sections.events.size());
+        assertEquals("begin ImageLoader:decode", sections.events.get(0));
+        assertEquals("end", sections.events.get(1));
+        assertEquals(0, tracer.getHistogram(LoadTracer.Stage.DECODE).getCount());
+
+        tracer.setEnabled(true);
+        tracer.endSection(LoadTracer.Stage.DECODE, tracer.beginSection(LoadTracer.Stage.DECODE));
+        assertEquals(1, tracer.getHistogram(LoadTracer.Stage.DECODE).getCount());
+    }
+
+    @Test
+    public void engineRecordsQueueAndDecode() {
+        LoadTracer tracer = new LoadTracer();
+        tracer.setEnabled(true);
+        //工作线程循环直接在当前线程中运行
+        TaskScheduler scheduler = new TaskScheduler(1, TaskScheduler.Type.FIFO, TaskScheduler.DEFAULT_CAPACITY,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        LoadEngine<String> engine = new LoadEngine<>(new MemoryCache<String, String>(10),
+                new LoadEngine.Decoder<String>() {
+                    @Override
+                    public String decode(String path, ImageSize imageSize) {
+                        return path;
+                    }
+                }, scheduler);
+        engine.setTracer(tracer);
+        final String[] result = new String[1];
+        engine.load("/a.jpg", new ImageSize(100, 100), new LoadEngine.Callback<String>() {
+            @Override
+            public void onResult(String path, String bitmap) {
+                result[0] = bitmap;
+            }
+        });
+        assertEquals("/a.jpg", result[0]);
+        LoadTracer.Snapshot snapshot = tracer.snapshot();
+        assertEquals(1, snapshot.get(LoadTracer.Stage.QUEUE).getCount());
+        assertEquals(1, snapshot.get(LoadTracer.Stage.DECODE).getCount());
+        assertEquals(0, snapshot.get(LoadTracer.Stage.FETCH).getCount());
+    }
+
+    @Test
+    public void dumpHasOneLinePerStage() throws Exception {
+        LoadTracer tracer = new LoadTracer();
+        StringBuilder out = new StringBuilder();
+        tracer.dump(out);
+        assertEquals(LoadTracer.Stage.values().length, out.toString().split("\n").length);
+        assertTrue(out.toString().startsWith("queue"));
+    }
+}
@@ -0,0 +1,56 @@
+package edu.cuc.stephen.imageloader.util;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MemoryBudgetTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @Test
+    public void budgetFollowsMemoryClass() {
+        assertEquals((int) (128 * MB * 0.2f), MemoryBudget.budgetFor(128, false, 512L * MB));
+        assertEquals((int) (128 * MB * 0.1f), MemoryBudget.budgetFor(128, true, 512L * MB));
+        //不超过堆的上限
+        assertEquals((int) (64 * MB * 0.2f), MemoryBudget.budgetFor(128, false, 64L * MB));
+    }
+
+    @Test
+    public void trimOnlyShrinks() {
+        MemoryBudget budget = new MemoryBudget(100 * MB);
+        assertEquals(50 * MB, budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN, 0));
+        //更低的级别不会让预算变大
+        assertEquals(50 * MB, budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE, 0));
+        assertEquals(0, budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE, 0));
+    }
+
+    @Test
+    public void restoresStepByStepAfterDelay() {
+        MemoryBudget budget = new MemoryBudget(100 * MB);
+        budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE, 1000);
+        assertEquals(-1, budget.restore(1000 + MemoryBudget.RESTORE_DELAY_MS - 1));
+
+        long now = 1000 + MemoryBudget.RESTORE_DELAY_MS;
+        assertEquals(25 * MB, budget.restore(now));
+        assertEquals(-1, budget.restore(now + 1));
+        now += MemoryBudget.RESTORE_DELAY_MS;
+        assertEquals(50 * MB, budget.restore(now));
+        now += MemoryBudget.RESTORE_DELAY_MS;
+        assertEquals(100 * MB, budget.restore(now));
+        now += MemoryBudget.RESTORE_DELAY_MS;
+        assertEquals(-1, budget.restore(now));
+    }
+
+    @Test
+    public void newFullSizeKeepsTrimmedState() {
+        MemoryBudget budget = new MemoryBudget(100 * MB);
+        budget.setFullSize(80 * MB);
+        assertEquals(80 * MB, budget.getCurrentSize());
+        budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND, 0);
+        budget.setFullSize(200 * MB);
+        assertEquals(20 * MB, budget.getCurrentSize());
+    }
+}
@@ -0,0 +1,139 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RequestGroupTest {
+
+    private final List<String> reloaded = new ArrayList<>();
+
+    private final List<Object> reloadedTargets = new ArrayList<>();
+
+    private RequestGroup.Reload reload(final String name) {
+        return new RequestGroup.Reload() {
+            @Override
+            public void reload(Object target) {
+                reloaded.add(name);
+                reloadedTargets.add(target);
+            }
+        };
+    }
+
+    private static ImageRequest request(String path) {
+        return new ImageRequest(path + "#100x100", path);
+    }
+
+    @Test
+    public void pauseCancelsUnfinishedAndResumeReloadsThem() {
+        RequestGroup group = new RequestGroup();
+        Object a = new Object();
+        Object b = new Object();
+        ImageRequest pending = request("a");
+        ImageRequest done = request("b");
+        done.finish();
+        group.track(a, reload("a"), pending);
+        group.track(b, reload("b"), done);
+        assertEquals(1, group.getActiveCount());
+
+        group.pause();
+        assertTrue(group.isPaused());
+        assertTrue(pending.isCancelled());
+        assertEquals(0, group.getActiveCount());
+        assertEquals(1, group.getDeferredCount());
+
+        group.resume();
+        assertFalse(group.isPaused());
+        //已经完成的不再加载
+        assertEquals(Arrays.asList("a"), reloaded);
+        assertEquals(0, group.getDeferredCount());
+    }
+
+    @Test
+    public void requestsDeferredWhilePausedLoadOnResume() {
+        RequestGroup group = new RequestGroup();
+        Object a = new Object();
+        group.pause();
+        group.defer(a, reload("a1"));
+        //同一个目标被复用，只加载最后一次
+        group.defer(a, reload("a2"));
+        group.defer(new Object[0], reload("b"));
+        assertEquals(0, group.getActiveCount());
+        group.resume();
+        assertEquals(2, reloaded.size());
+        assertTrue(reloaded.contains("a2"));
+        assertFalse(reloaded.contains("a1"));
+    }
+
+    @Test
+    public void cancelAllDropsActiveAndDeferred() {
+        RequestGroup group = new RequestGroup();
+        Object a = new Object();
+        ImageRequest full = request("a");
+        ImageRequest preview = request("a-preview");
+        group.track(a, reload("a"), full, preview);
+        group.pause();
+        group.defer(new Object(), reload("b"));
+        group.resume();
+        assertEquals(2, reloaded.size());
+
+        reloaded.clear();
+        ImageRequest next = request("c");
+        group.track(a, reload("c"), next);
+        group.pause();
+        group.defer(new Object(), reload("d"));
+        group.cancelAll();
+        assertTrue(full.isCancelled());
+        assertTrue(preview.isCancelled());
+        assertTrue(next.isCancelled());
+        group.resume();
+        assertTrue(reloaded.isEmpty());
+    }
+
+    @Test
+    public void untrackedRequestIsNotCancelled() {
+        RequestGroup group = new RequestGroup();
+        Object a = new Object();
+        ImageRequest pending = request("a");
+        group.track(a, reload("a"), pending);
+        group.untrack(a);
+        group.pause();
+        assertFalse(pending.isCancelled());
+        group.resume();
+        assertTrue(reloaded.isEmpty());
+    }
+
+    @Test
+    public void resumePassesTargetToReload() {
+        RequestGroup group = new RequestGroup();
+        Object a = new Object();
+        group.pause();
+        group.defer(a, reload("a"));
+        group.resume();
+        assertEquals(Arrays.asList("a"), reloaded);
+        assertSame(a, reloadedTargets.get(0));
+    }
+
+    @Test
+    public void deferredTargetCanBeCollected() throws InterruptedException {
+        RequestGroup group = new RequestGroup();
+        Object target = new Object();
+        WeakReference<Object> ref = new WeakReference<>(target);
+        group.pause();
+        group.defer(target, reload("a"));
+        target = null;
+        for(int i = 0; i < 50 && ref.get() != null; i++){
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+        assertEquals(0, group.getDeferredCount());
+        group.resume();
+        assertTrue(reloaded.isEmpty());
+    }
+}
@@ -0,0 +1,217 @@
+package edu.cuc.stephen.imageloader.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SourceFetcherTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private final CountDownLatch slowGate = new CountDownLatch(1);
+    private File downloadDir;
+    private SourceFetcher fetcher;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/fast", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, "fast image");
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    slowGate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                respond(exchange, "slow image");
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        downloadDir = File.createTempFile("downloads", "");
+        downloadDir.delete();
+        fetcher = new SourceFetcher();
+        fetcher.addSource(new FileSource());
+        fetcher.addSource(new HttpSource());
+        fetcher.setDownloadCache(downloadDir, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        slowGate.countDown();
+        server.stop(0);
+        File[] files = downloadDir.listFiles();
+        if(files != null){
+            for(File file : files){
+                file.delete();
+            }
+        }
+        downloadDir.delete();
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    //把数据流读成字符串，代替Bitmap
+    private class StreamDecoder implements LoadEngine.Decoder<Object> {
+        @Override
+        public Object decode(String path, ImageSize imageSize) {
+            if(path.startsWith("/local/")){
+                return path;
+            }
+            try {
+                InputStream in = fetcher.open(path);
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[256];
+                    int n;
+                    while((n = in.read(buffer)) != -1){
+                        out.write(buffer, 0, n);
+                    }
+                    return out.toString("UTF-8");
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            pending.add(command);
+        }
+
+        void runAll() {
+            for(Runnable r : new ArrayList<>(pending)){
+                r.run();
+            }
+            pending.clear();
+        }
+    }
+
+    private static class LatchCallback implements LoadEngine.Callback<Object> {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Object result;
+
+        @Override
+        public void onResult(String path, Object bitmap) {
+            result = bitmap;
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void remoteSourceIsFetchedOnIoSchedulerThenDecoded() throws Exception {
+        ManualExecutor io = new ManualExecutor();
+        ManualExecutor cpu = new ManualExecutor();
+        LoadEngine<Object> engine = new LoadEngine<>(new MemoryCache<String, Object>(10), new StreamDecoder(),
+                new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, cpu), fetcher,
+                new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, io));
+
+        LatchCallback callback = new LatchCallback();
+        engine.load(baseUrl + "/fast", new ImageSize(100, 100), callback);
+        assertEquals(1, io.pending.size());
+        assertTrue(cpu.pending.isEmpty());
+
+        io.runAll();
+        assertNull(callback.result);
+        assertEquals(1, cpu.pending.size());
+
+        cpu.runAll();
+        assertEquals("fast image", callback.result);
+        assertEquals(0, engine.getInFlightCount());
+    }
+
+    @Test
+    public void localPathSkipsIoScheduler() throws Exception {
+        ManualExecutor io = new ManualExecutor();
+        ManualExecutor cpu = new ManualExecutor();
+        LoadEngine<Object> engine = new LoadEngine<>(new MemoryCache<String, Object>(10), new StreamDecoder(),
+                new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, cpu), fetcher,
+                new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, io));
+
+        LatchCallback callback = new LatchCallback();
+        engine.load("/local/a.jpg", new ImageSize(100, 100), callback);
+        assertTrue(io.pending.isEmpty());
+        cpu.runAll();
+        assertEquals("/local/a.jpg", callback.result);
+    }
+
+    @Test
+    public void slowFetchDoesNotBlockLocalDecodes() throws Exception {
+        TaskScheduler cpu = new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, Executors.defaultThreadFactory());
+        TaskScheduler io = new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, Executors.defaultThreadFactory());
+        LoadEngine<Object> engine = new LoadEngine<>(new MemoryCache<String, Object>(10), new StreamDecoder(),
+                cpu, fetcher, io);
+
+        LatchCallback remote = new LatchCallback();
+        engine.load(baseUrl + "/slow", new ImageSize(100, 100), remote);
+        List<LatchCallback> locals = new ArrayList<>();
+        for(int i = 0; i < 5; i++){
+            LatchCallback local = new LatchCallback();
+            engine.load("/local/" + i + ".jpg", new ImageSize(100, 100), local);
+            locals.add(local);
+        }
+        for(LatchCallback local : locals){
+            assertTrue(local.done.await(5, TimeUnit.SECONDS));
+        }
+        //网络请求还卡着，本地图片已经全部解码完成
+        assertEquals(1, remote.done.getCount());
+
+        slowGate.countDown();
+        assertTrue(remote.done.await(5, TimeUnit.SECONDS));
+        assertEquals("slow image", remote.result);
+    }
+
+    @Test
+    public void fetchFailureIsReportedAsNull() throws Exception {
+        ManualExecutor io = new ManualExecutor();
+        ManualExecutor cpu = new ManualExecutor();
+        LoadEngine<Object> engine = new LoadEngine<>(new MemoryCache<String, Object>(10), new StreamDecoder(),
+                new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, cpu), fetcher,
+                new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, io));
+
+        LatchCallback callback = new LatchCallback();
+        engine.load(baseUrl + "/missing", new ImageSize(100, 100), callback);
+        io.runAll();
+        assertTrue(cpu.pending.isEmpty());
+        assertEquals(0, callback.done.getCount());
+        assertNull(callback.result);
+    }
+}
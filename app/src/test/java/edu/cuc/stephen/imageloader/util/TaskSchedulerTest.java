@@ -0,0 +1,221 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TaskSchedulerTest {
+
+    //先把工作线程循环攒起来，提交完所有任务后再执行，用来检查出队顺序
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            pending.add(command);
+        }
+
+        void runAll() {
+            for(Runnable r : pending){
+                r.run();
+            }
+            pending.clear();
+        }
+    }
+
+    private static List<String> runInOrder(TaskScheduler.Type type, int capacity, Object[][] tasks) {
+        //两个工作线程，低优先级的任务才能执行；ManualExecutor中第一个线程循环会执行完所有任务
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(2, type, capacity, executor);
+        final List<String> order = new ArrayList<>();
+        for(Object[] task : tasks){
+            final String name = (String) task[0];
+            scheduler.submit(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(name);
+                }
+            }, (Integer) task[1]);
+        }
+        executor.runAll();
+        return order;
+    }
+
+    private static final Object[][] TASKS = {
+            {"a", TaskScheduler.PRIORITY_NORMAL},
+            {"b", TaskScheduler.PRIORITY_VISIBLE},
+            {"c", TaskScheduler.PRIORITY_LOW},
+            {"d", TaskScheduler.PRIORITY_VISIBLE},
+    };
+
+    @Test
+    public void fifoRunsLowPriorityLast() {
+        assertEquals(Arrays.asList("a", "b", "d", "c"), runInOrder(TaskScheduler.Type.FIFO, 16, TASKS));
+    }
+
+    @Test
+    public void lifoRunsLowPriorityLast() {
+        assertEquals(Arrays.asList("d", "b", "a", "c"), runInOrder(TaskScheduler.Type.LIFO, 16, TASKS));
+    }
+
+    @Test
+    public void priorityRunsVisibleFirstThenNewest() {
+        assertEquals(Arrays.asList("d", "b", "a", "c"), runInOrder(TaskScheduler.Type.PRIORITY, 16, TASKS));
+    }
+
+    @Test
+    public void fullQueueDiscardsLeastUrgent() {
+        assertEquals(Arrays.asList("d", "b", "a"), runInOrder(TaskScheduler.Type.PRIORITY, 3, TASKS));
+        assertEquals(Arrays.asList("d", "b", "a"), runInOrder(TaskScheduler.Type.LIFO, 3, TASKS));
+        assertEquals(Arrays.asList("a", "b", "c"), runInOrder(TaskScheduler.Type.FIFO, 3, new Object[][]{
+                {"a", TaskScheduler.PRIORITY_NORMAL},
+                {"b", TaskScheduler.PRIORITY_NORMAL},
+                {"c", TaskScheduler.PRIORITY_NORMAL},
+                {"d", TaskScheduler.PRIORITY_NORMAL},
+        }));
+    }
+
+    @Test
+    public void pausedSchedulerStartsNothingUntilResumed() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(2, TaskScheduler.Type.LIFO, 16, executor);
+        final List<String> order = new ArrayList<>();
+        scheduler.pause();
+        scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                order.add("a");
+            }
+        }, TaskScheduler.PRIORITY_VISIBLE);
+        assertTrue(executor.pending.isEmpty());
+        scheduler.resume();
+        executor.runAll();
+        assertEquals(Arrays.asList("a"), order);
+    }
+
+    private static class Named implements Runnable, TaskScheduler.Discardable {
+        final String name;
+        final List<String> order;
+
+        Named(String name, List<String> order) {
+            this.name = name;
+            this.order = order;
+        }
+
+        @Override
+        public void run() {
+            order.add(name);
+        }
+
+        @Override
+        public void onDiscarded() {
+            order.add("-" + name);
+        }
+    }
+
+    @Test
+    public void singleWorkerDiscardsLowPriority() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(1, TaskScheduler.Type.LIFO, 16, executor);
+        final List<String> order = new ArrayList<>();
+        scheduler.submit(new Named("prefetch", order), TaskScheduler.PRIORITY_LOW);
+        assertTrue(executor.pending.isEmpty());
+        assertEquals(0, scheduler.getQueueSize());
+        assertEquals(1, scheduler.getDiscardedCount());
+        scheduler.submit(new Named("visible", order), TaskScheduler.PRIORITY_VISIBLE);
+        executor.runAll();
+        assertEquals(Arrays.asList("-prefetch", "visible"), order);
+
+        //两个工作线程时预加载可以执行；减回一个时排着的预加载被丢弃
+        scheduler.setParallelism(2);
+        scheduler.submit(new Named("a", order), TaskScheduler.PRIORITY_LOW);
+        executor.runAll();
+        scheduler.pause();
+        scheduler.submit(new Named("b", order), TaskScheduler.PRIORITY_LOW);
+        scheduler.setParallelism(1);
+        assertEquals(0, scheduler.getQueueSize());
+        scheduler.resume();
+        executor.runAll();
+        assertEquals(Arrays.asList("-prefetch", "visible", "a", "-b"), order);
+    }
+
+    @Test
+    public void reprioritizedLowTaskStartsWorker() {
+        final ManualExecutor executor = new ManualExecutor();
+        final TaskScheduler scheduler = new TaskScheduler(2, TaskScheduler.Type.LIFO, 16, executor);
+        final List<String> order = new ArrayList<>();
+        final int[] started = new int[2];
+        scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                //唯一可用于低优先级的线程正忙，b只能排着，提高优先级后要立即有线程来取
+                TaskScheduler.Task b = scheduler.submit(new Named("b", order), TaskScheduler.PRIORITY_LOW);
+                started[0] = executor.pending.size();
+                assertTrue(scheduler.reprioritize(b, TaskScheduler.PRIORITY_VISIBLE));
+                started[1] = executor.pending.size();
+                order.add("a");
+            }
+        }, TaskScheduler.PRIORITY_LOW);
+        assertEquals(1, executor.pending.size());
+        executor.pending.get(0).run();
+        assertEquals(1, started[0]);
+        assertEquals(2, started[1]);
+        assertEquals(Arrays.asList("a", "b"), order);
+    }
+
+    @Test
+    public void shutdownDiscardsQueuedAndLaterTasks() {
+        ManualExecutor executor = new ManualExecutor();
+        TaskScheduler scheduler = new TaskScheduler(2, TaskScheduler.Type.LIFO, 16, executor);
+        final List<String> order = new ArrayList<>();
+        scheduler.submit(new Named("a", order), TaskScheduler.PRIORITY_NORMAL);
+        scheduler.submit(new Named("b", order), TaskScheduler.PRIORITY_LOW);
+        scheduler.shutdown();
+        assertTrue(scheduler.isShutdown());
+        assertEquals(0, scheduler.getQueueSize());
+        scheduler.submit(new Named("c", order), TaskScheduler.PRIORITY_VISIBLE);
+        scheduler.resume();
+        //已经启动的工作线程取不到任务，直接退出
+        executor.runAll();
+        assertEquals(Arrays.asList("-a", "-b", "-c"), order);
+        assertEquals(0, scheduler.getRunningCount());
+    }
+
+    @Test
+    public void parallelismChangesAtRuntime() throws Exception {
+        final TaskScheduler scheduler = new TaskScheduler(1, TaskScheduler.Type.FIFO, 64, (ThreadFactory) null);
+        final Semaphore release = new Semaphore(0);
+        final CountDownLatch started = new CountDownLatch(3);
+        for(int i = 0; i < 6; i++){
+            scheduler.submit(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    release.acquireUninterruptibly();
+                }
+            }, TaskScheduler.PRIORITY_NORMAL);
+        }
+        //放大后立即启动新的工作线程
+        scheduler.setParallelism(3);
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        assertEquals(3, scheduler.getRunningCount());
+        //缩小后正在执行的任务继续完成，之后只保留一个线程
+        scheduler.setParallelism(1);
+        release.release(3);
+        long deadline = System.currentTimeMillis() + 2000;
+        while(scheduler.getRunningCount() > 1 && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        assertEquals(1, scheduler.getRunningCount());
+        release.release(3);
+    }
+}
@@ -0,0 +1,67 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TileGridTest {
+
+    //48MP
+    private final TileGrid grid = new TileGrid(8000, 6000, 512);
+
+    @Test
+    public void sampleSizeFollowsZoom() {
+        assertEquals(1, TileGrid.sampleSizeForScale(1f));
+        assertEquals(1, TileGrid.sampleSizeForScale(0.6f));
+        assertEquals(2, TileGrid.sampleSizeForScale(0.5f));
+        assertEquals(4, TileGrid.sampleSizeForScale(0.2f));
+        //1080宽的屏幕显示整张图
+        assertEquals(4, TileGrid.sampleSizeForScale(grid.fitScale(1080, 1920)));
+    }
+
+    @Test
+    public void onlyVisibleTilesAtFullResolution() {
+        //100%比例下1080x1920的可见区域
+        List<TileGrid.Tile> tiles = grid.tilesFor(1, 4000, 2000, 5080, 3920, 0);
+        //列 7..9，行 3..7
+        assertEquals(15, tiles.size());
+        for(TileGrid.Tile tile : tiles){
+            assertTrue(tile.isVisible());
+            assertEquals(1, tile.sampleSize);
+            ImageSize size = tile.getDecodedSize();
+            assertTrue(size.width <= 512 && size.height <= 512);
+        }
+        //离中心最近的在前
+        TileGrid.Tile first = tiles.get(0);
+        assertTrue(first.left <= 4540 && first.right >= 4540);
+        assertTrue(first.top <= 2960 && first.bottom >= 2960);
+    }
+
+    @Test
+    public void marginTilesComeAfterVisibleOnes() {
+        List<TileGrid.Tile> tiles = grid.tilesFor(1, 4000, 2000, 5080, 3920, 1);
+        assertEquals(5 * 7, tiles.size());
+        boolean seenMargin = false;
+        for(TileGrid.Tile tile : tiles){
+            if(!tile.isVisible()){
+                seenMargin = true;
+            }else{
+                assertFalse(seenMargin);
+            }
+        }
+    }
+
+    @Test
+    public void edgeTilesAreClippedToImage() {
+        List<TileGrid.Tile> tiles = grid.tilesFor(4, 0, 0, 8000, 6000, 0);
+        //每块覆盖原图2048像素：4 x 3块
+        assertEquals(12, tiles.size());
+        for(TileGrid.Tile tile : tiles){
+            assertTrue(tile.right <= 8000 && tile.bottom <= 6000);
+        }
+        assertEquals(new ImageSize(2000, 1500), grid.wholeImage(4).getDecodedSize());
+        assertNotEquals(tiles.get(0).pathFor("/a.jpg"), tiles.get(1).pathFor("/a.jpg"));
+    }
+}
@@ -0,0 +1,154 @@
+package edu.cuc.stephen.imageloader.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class WindowedPathsTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    //后台任务先攒起来，调用runAll时才执行
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> pending = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            pending.add(command);
+        }
+
+        void runAll() {
+            while(!pending.isEmpty()){
+                pending.remove(0).run();
+            }
+        }
+    }
+
+    private static class FakeSource implements WindowedPaths.Source {
+        final int total;
+        final List<Integer> reads = new ArrayList<>();
+        boolean closed;
+
+        FakeSource(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public int open() {
+            return total;
+        }
+
+        @Override
+        public String[] read(int offset, int count) {
+            reads.add(offset);
+            String[] rows = new String[Math.max(0, Math.min(count, total - offset))];
+            for(int i = 0; i < rows.length; i++){
+                rows[i] = "/sdcard/DCIM/" + (offset + i) + ".jpg";
+            }
+            return rows;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void pathsAreLoadedByWindow() {
+        FakeSource source = new FakeSource(1000);
+        ManualExecutor background = new ManualExecutor();
+        WindowedPaths paths = new WindowedPaths(source, 10, 100, 4, background, DIRECT);
+        final int[] changes = new int[1];
+        paths.setListener(new WindowedPaths.Listener() {
+            @Override
+            public void onChanged() {
+                changes[0]++;
+            }
+        });
+        paths.start();
+        //打开之前按初始数量显示
+        assertEquals(10, paths.getCount());
+        assertNull(paths.getPath(5));
+        background.runAll();
+        assertEquals(1000, paths.getCount());
+        assertEquals("/sdcard/DCIM/5.jpg", paths.getPath(5));
+        assertEquals(2, changes[0]);
+        //同一个字符串，不在绑定时重新生成
+        assertSame(paths.getPath(5), paths.getPath(5));
+
+        assertNull(paths.getPath(550));
+        assertNull(paths.getPath(560));
+        background.runAll();
+        assertEquals("/sdcard/DCIM/560.jpg", paths.getPath(560));
+        assertEquals(2, source.reads.size());
+    }
+
+    @Test
+    public void nearbyWindowIsLoadedAhead() {
+        FakeSource source = new FakeSource(1000);
+        ManualExecutor background = new ManualExecutor();
+        WindowedPaths paths = new WindowedPaths(source, 0, 100, 4, background, DIRECT);
+        paths.start();
+        background.runAll();
+        paths.getPath(90);
+        background.runAll();
+        assertTrue(source.reads.contains(100));
+        assertEquals("/sdcard/DCIM/150.jpg", paths.getPath(150));
+    }
+
+    @Test
+    public void leastRecentlyUsedWindowIsDropped() {
+        FakeSource source = new FakeSource(1000);
+        ManualExecutor background = new ManualExecutor();
+        WindowedPaths paths = new WindowedPaths(source, 0, 100, 2, background, DIRECT);
+        paths.start();
+        background.runAll();
+        paths.getPath(450);
+        background.runAll();
+        paths.getPath(50);
+        paths.getPath(750);
+        background.runAll();
+        //第0段刚用过，第4段被淘汰
+        assertNotNull(paths.getPath(50));
+        assertNotNull(paths.getPath(750));
+        assertNull(paths.getPath(450));
+    }
+
+    @Test
+    public void lastWindowIsShortAndOutOfRangeIsNull() {
+        FakeSource source = new FakeSource(150);
+        WindowedPaths paths = new WindowedPaths(source, 0, 100, 4, DIRECT, DIRECT);
+        paths.start();
+        paths.getPath(120);
+        assertEquals("/sdcard/DCIM/149.jpg", paths.getPath(149));
+        assertNull(paths.getPath(150));
+        assertNull(paths.getPath(-1));
+        //超出实际数量的段不再读取
+        int reads = source.reads.size();
+        paths.getPath(190);
+        assertEquals(reads, source.reads.size());
+    }
+
+    @Test
+    public void closeReleasesSourceAndIgnoresLateResults() {
+        FakeSource source = new FakeSource(1000);
+        ManualExecutor background = new ManualExecutor();
+        WindowedPaths paths = new WindowedPaths(source, 0, 100, 4, background, DIRECT);
+        paths.start();
+        paths.close();
+        background.runAll();
+        assertTrue(source.closed);
+        assertEquals(0, paths.getCount());
+        assertNull(paths.getPath(0));
+    }
+}
@@ -0,0 +1,135 @@
+package edu.cuc.stephen.imageloader.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import edu.cuc.stephen.imageloader.util.AdaptiveParallelism;
+import edu.cuc.stephen.imageloader.util.TaskScheduler;
+
+/**
+ * 固定线程数和自动调整线程数的吞吐量对比：一批加载中一部分是解码（占CPU），一部分是慢速存储上的读取（等待）
+ * 慢速读取用固定的延迟加上真实的文件读取模拟，相当于SD卡或FUSE上的外部存储
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AdaptivePoolBenchmark {
+
+    //一屏加一次快速滑动大约提交的任务数
+    private static final int BATCH = 64;
+    //慢速存储上一次读取的等待时间
+    private static final long SLOW_READ_MILLIS = 5;
+
+    //fixed-1是原来的默认值，fixed-3是原来网格使用的线程数
+    @Param({"fixed-1", "fixed-3", "adaptive"})
+    public String pool;
+
+    //一批中慢速读取所占的百分比
+    @Param({"0", "50", "80"})
+    public int ioPercent;
+
+    private File dir;
+    private File[] corpus;
+    private TaskScheduler scheduler;
+    private AdaptiveParallelism adaptive;
+    private final LoadEngineBenchmark.SampledImageIoDecoder decoder = new LoadEngineBenchmark.SampledImageIoDecoder();
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir("adaptive-pool-bench");
+        corpus = Fixtures.writeCorpus(dir);
+        ThreadFactory daemons = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        if(pool.startsWith("fixed-")){
+            int threads = Integer.parseInt(pool.substring("fixed-".length()));
+            scheduler = new TaskScheduler(threads, TaskScheduler.Type.LIFO, TaskScheduler.DEFAULT_CAPACITY, daemons);
+        }else{
+            scheduler = new TaskScheduler(1, TaskScheduler.Type.LIFO, TaskScheduler.DEFAULT_CAPACITY, daemons);
+            final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            adaptive = new AdaptiveParallelism(scheduler, new AdaptiveParallelism.CpuClock() {
+                @Override
+                public long threadCpuNanos() {
+                    return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+                }
+            }, AdaptiveParallelism.NOT_THROTTLED);
+            adaptive.attach();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if(adaptive != null){
+            System.out.println("[adaptive] threads=" + scheduler.getParallelism()
+                    + " cpuRatio=" + adaptive.getLastCpuRatio());
+            adaptive.detach();
+        }
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void mixedBatch() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(BATCH);
+        for(int i = 0; i < BATCH; i++){
+            //3264x2448以上的图片解码太慢，会让这一批完全被解码主导
+            final File file = corpus[i % 3];
+            final boolean slowRead = i * 100 / BATCH < ioPercent;
+            scheduler.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if(slowRead){
+                            readSlowly(file);
+                        }else{
+                            decoder.decode(file.getPath(), Fixtures.CELL);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, TaskScheduler.PRIORITY_VISIBLE);
+        }
+        done.await();
+    }
+
+    private static void readSlowly(File file) {
+        try {
+            Thread.sleep(SLOW_READ_MILLIS);
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[16 * 1024];
+                while(in.read(buffer) != -1){
+                    //只读取，不使用
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package edu.cuc.stephen.imageloader.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import edu.cuc.stephen.imageloader.util.CacheKeys;
+import edu.cuc.stephen.imageloader.util.DiskLruCache;
+import edu.cuc.stephen.imageloader.util.LoadEngine;
+
+/**
+ * 每次getView都要生成的缓存key：内存缓存的字符串key和磁盘缓存的md5 key
+ * hintedKey是UI线程上实际使用的key，只查一次登记的版本；
+ * versionedKey包含一次读取文件属性，只在工作线程中生成磁盘key时才有这个开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheKeyBenchmark {
+
+    private final String path = "/storage/emulated/0/DCIM/Camera/IMG_20160102_123456.jpg";
+    private final CacheKeys cacheKeys = new CacheKeys();
+    private final CacheKeys fingerprintKeys = new CacheKeys();
+    private File dir;
+    private String file;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir("cache-key-bench");
+        file = Fixtures.writeCorpus(dir)[2].getAbsolutePath();
+        fingerprintKeys.setFingerprintEnabled(true);
+        cacheKeys.setVersionHint(file, 123456, 1451738096);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public String memoryKey() {
+        return LoadEngine.cacheKey(path, Fixtures.CELL);
+    }
+
+    @Benchmark
+    public String diskKey() {
+        return DiskLruCache.hashKey(LoadEngine.cacheKey(path, Fixtures.CELL));
+    }
+
+    @Benchmark
+    public String hintedKey() {
+        return cacheKeys.keyFor(file, Fixtures.CELL);
+    }
+
+    @Benchmark
+    public String versionedKey() {
+        return LoadEngine.cacheKey(cacheKeys.versioned(file), Fixtures.CELL);
+    }
+
+    /**
+     * 指纹已经缓存时的磁盘key：读取文件属性加一次md5
+     */
+    @Benchmark
+    public String fingerprintDiskKey() {
+        return fingerprintKeys.diskKey(file, Fixtures.CELL);
+    }
+}
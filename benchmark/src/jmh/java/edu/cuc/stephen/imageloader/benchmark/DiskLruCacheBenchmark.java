@@ -0,0 +1,88 @@
+package edu.cuc.stephen.imageloader.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import edu.cuc.stephen.imageloader.util.DiskLruCache;
+
+/**
+ * 磁盘缓存读写：用生成的JPEG作为缓存内容，分辨率越大文件越大
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiskLruCacheBenchmark {
+
+    //Fixtures.RESOLUTIONS中的下标
+    @Param({"0", "2", "4"})
+    public int resolution;
+
+    private File dir;
+    private DiskLruCache cache;
+    private byte[] data;
+    private final byte[] buffer = new byte[8 * 1024];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int[] size = Fixtures.RESOLUTIONS[resolution];
+        data = Fixtures.jpeg(size[0], size[1]);
+        dir = Fixtures.tempDir("disk-cache-bench");
+        cache = DiskLruCache.open(dir, 50 * 1024 * 1024);
+        write("hit");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        cache.close();
+        Fixtures.deleteRecursively(dir);
+    }
+
+    private void write(String key) throws IOException {
+        DiskLruCache.Editor editor = cache.edit(key);
+        OutputStream out = editor.newOutputStream();
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        editor.commit();
+    }
+
+    @Benchmark
+    public int get() throws IOException {
+        InputStream in = cache.get("hit");
+        int total = 0;
+        try {
+            int n;
+            while((n = in.read(buffer)) != -1){
+                total += n;
+            }
+        } finally {
+            in.close();
+        }
+        return total;
+    }
+
+    /**
+     * 轮流写入不同的key，缓存满了以后包含淘汰的开销
+     */
+    @Benchmark
+    public void put() throws IOException {
+        write("put" + (next++ % 256));
+    }
+}
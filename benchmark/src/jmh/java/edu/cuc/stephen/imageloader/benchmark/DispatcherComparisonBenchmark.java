@@ -0,0 +1,166 @@
+package edu.cuc.stephen.imageloader.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.LinkedList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import edu.cuc.stephen.imageloader.util.TaskScheduler;
+
+/**
+ * 原来的调度方式（轮询线程 + 两个信号量 + 固定线程池）和TaskScheduler对比：
+ * 单个任务从提交到开始执行的延迟，以及滑动时一批很快的解码全部完成的吞吐量
+ */
+@State(Scope.Benchmark)
+public class DispatcherComparisonBenchmark {
+
+    private static final int THREADS = 3;
+    //一屏加一次快速滑动大约提交的任务数
+    private static final int BURST = 64;
+
+    @Param({"legacy", "scheduler"})
+    public String dispatcher;
+
+    private Executor executor;
+    private LegacyDispatcher legacy;
+    private TaskScheduler scheduler;
+
+    /**
+     * 原来的调度方式：LinkedList + 轮询线程 + 两个信号量 + 固定线程池
+     * 轮询线程用阻塞队列代替Looper的消息队列
+     */
+    private static class LegacyDispatcher implements Executor {
+        private final LinkedList<Runnable> taskQueue = new LinkedList<>();
+        private final BlockingQueue<Integer> messages = new LinkedBlockingQueue<>();
+        private final ExecutorService threadPool;
+        private final Semaphore semaphoreThreadPool;
+        private final Thread poolThread;
+
+        LegacyDispatcher(int threadCount) {
+            threadPool = Executors.newFixedThreadPool(threadCount);
+            semaphoreThreadPool = new Semaphore(threadCount);
+            poolThread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while(true){
+                            messages.take();
+                            Runnable task;
+                            synchronized (LegacyDispatcher.this){
+                                task = taskQueue.removeLast();
+                            }
+                            threadPool.execute(task);
+                            semaphoreThreadPool.acquire();
+                        }
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            };
+            poolThread.start();
+        }
+
+        @Override
+        public synchronized void execute(final Runnable command) {
+            taskQueue.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        semaphoreThreadPool.release();
+                    }
+                }
+            });
+            messages.add(0x110);
+        }
+
+        void shutdown() {
+            poolThread.interrupt();
+            threadPool.shutdown();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        if(dispatcher.equals("legacy")){
+            legacy = new LegacyDispatcher(THREADS);
+            executor = legacy;
+        }else{
+            scheduler = new TaskScheduler(THREADS, TaskScheduler.Type.LIFO, TaskScheduler.DEFAULT_CAPACITY,
+                    (ThreadFactory) null);
+            executor = scheduler;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if(legacy != null){
+            legacy.shutdown();
+        }
+        if(scheduler != null){
+            scheduler.shutdown();
+        }
+    }
+
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while(System.nanoTime() < end){
+            Thread.yield();
+        }
+    }
+
+    /**
+     * 单个任务从提交到开始执行的延迟，看分布而不只是平均值
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void dispatchLatency() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+            }
+        });
+        started.await();
+    }
+
+    /**
+     * 一批各需20微秒的快速解码全部完成的吞吐量
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OperationsPerInvocation(BURST)
+    public void burst() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(BURST);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                spin(20000);
+                done.countDown();
+            }
+        };
+        for(int i = 0; i < BURST; i++){
+            executor.execute(task);
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,90 @@
+package edu.cuc.stephen.imageloader.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import edu.cuc.stephen.imageloader.util.ImageSize;
+
+/**
+ * 基准测试用的图片素材，按固定的随机种子生成，每次运行内容一致
+ */
+final class Fixtures {
+
+    //截图、视频帧和常见相机的分辨率
+    static final int[][] RESOLUTIONS = {
+            {320, 240}, {1280, 720}, {1920, 1080}, {3264, 2448}, {4000, 3000}
+    };
+
+    //1080p屏幕三列网格中的一个格子
+    static final ImageSize CELL = new ImageSize(360, 300, ImageSize.ScaleMode.CENTER_CROP);
+
+    private Fixtures() {
+    }
+
+    /**
+     * 生成一张JPEG：渐变加噪声，压缩率接近真实照片
+     */
+    static byte[] jpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(31L * width + height);
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                int r = (x * 255 / width + random.nextInt(32)) & 0xff;
+                int g = (y * 255 / height + random.nextInt(32)) & 0xff;
+                int b = ((x + y) * 127 / (width + height) + random.nextInt(32)) & 0xff;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * 把每种分辨率的图片写到dir中，返回文件，顺序和RESOLUTIONS一致
+     */
+    static File[] writeCorpus(File dir) throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs()){
+            throw new IOException("cannot create " + dir);
+        }
+        File[] files = new File[RESOLUTIONS.length];
+        for(int i = 0; i < RESOLUTIONS.length; i++){
+            int[] resolution = RESOLUTIONS[i];
+            files[i] = new File(dir, resolution[0] + "x" + resolution[1] + ".jpg");
+            if(!files[i].exists()){
+                OutputStream out = new FileOutputStream(files[i]);
+                try {
+                    out.write(jpeg(resolution[0], resolution[1]));
+                } finally {
+                    out.close();
+                }
+            }
+        }
+        return files;
+    }
+
+    static File tempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        if(!dir.delete() || !dir.mkdirs()){
+            throw new IOException("cannot create " + dir);
+        }
+        return dir;
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if(children != null){
+            for(File child : children){
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
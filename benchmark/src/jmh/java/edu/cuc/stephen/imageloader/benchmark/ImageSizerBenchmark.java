@@ -0,0 +1,57 @@
+package edu.cuc.stephen.imageloader.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import edu.cuc.stephen.imageloader.util.ImageSize;
+import edu.cuc.stephen.imageloader.util.ImageSizer;
+
+/**
+ * 采样率和最终尺寸的计算，和原来的calculateInSampleSize对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImageSizerBenchmark {
+
+    @Benchmark
+    public void sampleSize(Blackhole blackhole) {
+        for(int[] resolution : Fixtures.RESOLUTIONS){
+            blackhole.consume(ImageSizer.sampleSize(resolution[0], resolution[1], Fixtures.CELL));
+        }
+    }
+
+    @Benchmark
+    public void finalSize(Blackhole blackhole) {
+        for(int[] resolution : Fixtures.RESOLUTIONS){
+            ImageSize size = ImageSizer.finalSize(resolution[0], resolution[1], Fixtures.CELL);
+            blackhole.consume(ImageSizer.sourceRect(resolution[0], resolution[1], size));
+        }
+    }
+
+    @Benchmark
+    public void legacyCalculateInSampleSize(Blackhole blackhole) {
+        for(int[] resolution : Fixtures.RESOLUTIONS){
+            blackhole.consume(legacySampleSize(resolution[0], resolution[1],
+                    Fixtures.CELL.getWidth(), Fixtures.CELL.getHeight()));
+        }
+    }
+
+    //ImageSizer之前ImageLoader中的算法
+    private static int legacySampleSize(int width, int height, int requireWidth, int requireHeight) {
+        int inSampleSize = 1;
+        if(width > requireWidth || height > requireHeight){
+            int widthRatio = Math.round((float) width / requireWidth);
+            int heightRatio = Math.round((float) height / requireHeight);
+            inSampleSize = Math.max(widthRatio, heightRatio);
+        }
+        return inSampleSize;
+    }
+}
@@ -0,0 +1,124 @@
+package edu.cuc.stephen.imageloader.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import edu.cuc.stephen.imageloader.util.ImageSize;
+import edu.cuc.stephen.imageloader.util.ImageSizer;
+import edu.cuc.stephen.imageloader.util.LoadEngine;
+import edu.cuc.stephen.imageloader.util.MemoryCache;
+import edu.cuc.stephen.imageloader.util.TaskScheduler;
+
+/**
+ * 完整的加载路径：内存缓存命中，以及未命中时的采样解码
+ * JVM上没有BitmapFactory，用ImageIO的源采样代替inSampleSize，流程和SampledDecoder一致：先读尺寸再按采样率解码
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoadEngineBenchmark {
+
+    @Param({"0", "2", "4"})
+    public int resolution;
+
+    private File dir;
+    private String path;
+    private LoadEngine<BufferedImage> engine;
+    private final Result result = new Result();
+    private int next;
+
+    private static class Result implements LoadEngine.Callback<BufferedImage> {
+        BufferedImage bitmap;
+
+        @Override
+        public void onResult(String path, BufferedImage bitmap) {
+            this.bitmap = bitmap;
+        }
+    }
+
+    static class SampledImageIoDecoder implements LoadEngine.Decoder<BufferedImage> {
+        @Override
+        public BufferedImage decode(String path, ImageSize imageSize) {
+            try {
+                ImageInputStream in = ImageIO.createImageInputStream(new File(path));
+                try {
+                    Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+                    if(!readers.hasNext()){
+                        return null;
+                    }
+                    ImageReader reader = readers.next();
+                    try {
+                        reader.setInput(in);
+                        int sampleSize = ImageSizer.sampleSize(reader.getWidth(0), reader.getHeight(0), imageSize);
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+                        return reader.read(0, param);
+                    } finally {
+                        reader.dispose();
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir("load-engine-bench");
+        path = Fixtures.writeCorpus(dir)[resolution].getAbsolutePath();
+        //在调用线程中直接执行，测的是加载本身而不是线程切换
+        TaskScheduler direct = new TaskScheduler(1, TaskScheduler.Type.LIFO, TaskScheduler.DEFAULT_CAPACITY,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        engine = new LoadEngine<>(new MemoryCache<String, BufferedImage>(4), new SampledImageIoDecoder(), direct);
+        engine.load(path, Fixtures.CELL, result);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public BufferedImage memoryHit() {
+        engine.load(path, Fixtures.CELL, result);
+        return result.bitmap;
+    }
+
+    /**
+     * 每次换一个目标尺寸，保证内存缓存不命中
+     */
+    @Benchmark
+    public BufferedImage decodeMiss() {
+        next++;
+        engine.load(path, new ImageSize(Fixtures.CELL.getWidth() + (next & 0xff), Fixtures.CELL.getHeight(),
+                ImageSize.ScaleMode.CENTER_CROP), result);
+        return result.bitmap;
+    }
+}
@@ -0,0 +1,80 @@
+package edu.cuc.stephen.imageloader.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import edu.cuc.stephen.imageloader.util.ImageRequest;
+import edu.cuc.stephen.imageloader.util.ImageSize;
+import edu.cuc.stephen.imageloader.util.LoadEngine;
+import edu.cuc.stephen.imageloader.util.MemoryCache;
+import edu.cuc.stephen.imageloader.util.TaskScheduler;
+
+/**
+ * 多个线程同时提交、重复和取消请求时，调用线程中load本身的耗时
+ * 解码线程全忙时调用线程也不应该等待，看的是分布的尾部
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoadEngineContentionBenchmark {
+
+    private static final int KEYS = 200;
+    private static final ImageSize SIZE = new ImageSize(100, 100);
+
+    private TaskScheduler scheduler;
+    private LoadEngine<Object> engine;
+    private final LoadEngine.Callback<Object> ignore = new LoadEngine.Callback<Object>() {
+        @Override
+        public void onResult(String path, Object bitmap) {
+        }
+    };
+
+    @State(Scope.Thread)
+    public static class Submitter {
+        final Random random = new Random();
+    }
+
+    @Setup
+    public void setUp() {
+        scheduler = new TaskScheduler(3, TaskScheduler.Type.LIFO, TaskScheduler.DEFAULT_CAPACITY,
+                Executors.defaultThreadFactory());
+        //每次解码1毫秒，解码线程很快就全忙；缓存比key少，不断有未命中
+        engine = new LoadEngine<>(new MemoryCache<String, Object>(KEYS / 2), new LoadEngine.Decoder<Object>() {
+            @Override
+            public Object decode(String path, ImageSize imageSize) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException ignored) {
+                }
+                return path;
+            }
+        }, scheduler);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public ImageRequest load(Submitter submitter) {
+        ImageRequest request = engine.load("/sdcard/" + submitter.random.nextInt(KEYS) + ".jpg", SIZE, ignore);
+        //模拟滑出屏幕的格子
+        if(submitter.random.nextInt(4) == 0){
+            request.cancel();
+        }
+        return request;
+    }
+}
@@ -0,0 +1,80 @@
+package edu.cuc.stephen.imageloader.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import edu.cuc.stephen.imageloader.util.ImageSize;
+import edu.cuc.stephen.imageloader.util.LoadEngine;
+import edu.cuc.stephen.imageloader.util.MemoryCache;
+
+/**
+ * 内存缓存：命中查找、满了以后的插入淘汰，以及UI线程和解码线程同时访问时的锁竞争
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MemoryCacheBenchmark {
+
+    //一个相册目录的图片数
+    @Param({"100", "1000"})
+    public int entries;
+
+    private String[] keys;
+    private Object value;
+    private MemoryCache<String, Object> full;
+    private MemoryCache<String, Object> half;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        keys = new String[entries];
+        for(int i = 0; i < entries; i++){
+            keys[i] = LoadEngine.cacheKey("/storage/emulated/0/DCIM/Camera/IMG_" + (20160000 + i) + ".jpg",
+                    Fixtures.CELL);
+        }
+        value = new ImageSize(1, 1);
+        full = new MemoryCache<>(entries);
+        //只能放下一半，轮流插入时每次都要淘汰
+        half = new MemoryCache<>(entries / 2);
+        for(String key : keys){
+            full.put(key, value);
+            half.put(key, value);
+        }
+    }
+
+    @Benchmark
+    public Object getHit() {
+        next = (next + 1) % entries;
+        return full.get(keys[next]);
+    }
+
+    @Benchmark
+    public Object putWithEviction() {
+        next = (next + 1) % entries;
+        return half.put(keys[next], value);
+    }
+
+    /**
+     * 滑动时的典型比例：大部分是查找，少量新解码的结果写入
+     */
+    @Benchmark
+    @Threads(4)
+    public Object contended() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = keys[random.nextInt(entries)];
+        if(random.nextInt(10) == 0){
+            return half.put(key, value);
+        }
+        return half.get(key);
+    }
+}
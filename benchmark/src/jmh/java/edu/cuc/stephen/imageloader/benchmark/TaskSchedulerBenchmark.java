@@ -0,0 +1,122 @@
+package edu.cuc.stephen.imageloader.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import edu.cuc.stephen.imageloader.util.TaskScheduler;
+
+/**
+ * 任务调度：三种出队顺序下的排队开销和提交到开始执行的延迟
+ */
+@State(Scope.Benchmark)
+public class TaskSchedulerBenchmark {
+
+    //一屏加一次快速滑动大约提交的任务数
+    private static final int BURST = 64;
+
+    @Param({"FIFO", "LIFO", "PRIORITY"})
+    public String type;
+
+    @Param({"1", "3"})
+    public int threads;
+
+    private ExecutorService workers;
+    private TaskScheduler scheduler;
+    private TaskScheduler queueOnly;
+    private final Runnable noop = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        workers = Executors.newFixedThreadPool(threads);
+        scheduler = new TaskScheduler(threads, TaskScheduler.Type.valueOf(type), TaskScheduler.DEFAULT_CAPACITY, workers);
+        //在调用线程中直接执行，只测队列本身的插入、取消和出队
+        queueOnly = new TaskScheduler(1, TaskScheduler.Type.valueOf(type), TaskScheduler.DEFAULT_CAPACITY,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+    }
+
+    @TearDown
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * 单个任务从submit到开始执行的延迟，看分布而不只是平均值
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void dispatchLatency() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+            }
+        }, TaskScheduler.PRIORITY_VISIBLE);
+        started.await();
+    }
+
+    /**
+     * 滑动时一批不同优先级的任务全部执行完的吞吐量
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OperationsPerInvocation(BURST)
+    public void burst() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(BURST);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        };
+        for(int i = 0; i < BURST; i++){
+            scheduler.submit(task, i % 3 == 0 ? TaskScheduler.PRIORITY_VISIBLE : TaskScheduler.PRIORITY_NORMAL);
+        }
+        done.await();
+    }
+
+    /**
+     * 暂停时排入一批任务，取消滑出屏幕的一半，再恢复全部出队
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(BURST)
+    public int queueOperations() {
+        queueOnly.pause();
+        TaskScheduler.Task[] tasks = new TaskScheduler.Task[BURST];
+        for(int i = 0; i < BURST; i++){
+            tasks[i] = queueOnly.submit(noop, i % 3 == 0 ? TaskScheduler.PRIORITY_VISIBLE : TaskScheduler.PRIORITY_NORMAL);
+        }
+        for(int i = 0; i < BURST; i += 2){
+            queueOnly.cancel(tasks[i]);
+        }
+        int queued = queueOnly.getQueueSize();
+        queueOnly.resume();
+        return queued;
+    }
+}